@@ -0,0 +1,50 @@
+package com.laboratorio.operator.benchmark;
+
+import com.laboratorio.operator.OperatorApplication;
+import com.laboratorio.operator.facade.ProductsFacade;
+import com.laboratorio.operator.facade.ProductsFacadeSimulado;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+
+/**
+ * Arranca la aplicacion sin servidor web, sin Eureka y con el inventario simulado, sobre la H2
+ * en memoria de la configuracion por defecto.
+ */
+final class ContextoBenchmark {
+
+    private ContextoBenchmark() {
+    }
+
+    @Configuration
+    static class InventarioSimulado {
+
+        // Latencia de cada consulta al inventario simulado (benchmark.inventario.latencia)
+        @Bean
+        @Primary
+        ProductsFacade productsFacade(@Value("${benchmark.inventario.latencia:0ms}") Duration latencia) {
+            return new ProductsFacadeSimulado(latencia);
+        }
+    }
+
+    static ConfigurableApplicationContext arrancar(String... propiedades) {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        return new SpringApplicationBuilder(OperatorApplication.class, InventarioSimulado.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.main.allow-bean-definition-overriding=true",
+                        "spring.main.banner-mode=off",
+                        "eureka.client.enabled=false",
+                        // devtools esta en el classpath de test: sin su apagado de la H2 al cerrar el contexto
+                        "spring.autoconfigure.exclude=org.springframework.boot.devtools.autoconfigure.DevToolsDataSourceAutoConfiguration",
+                        "logging.level.root=warn")
+                .properties(propiedades)
+                .run();
+    }
+}
@@ -0,0 +1,95 @@
+package com.laboratorio.operator.benchmark;
+
+import com.laboratorio.operator.model.Alquiler;
+import com.laboratorio.operator.model.IntervaloAlquiler;
+import com.laboratorio.operator.repository.AlquilerRepository;
+import com.laboratorio.operator.service.AlquilerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alquileres de una pelicula que se solapan con una semana: indice de intervalos en memoria frente
+ * a la consulta por rango en H2 (idx_alquiler_pelicula).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisponibilidadBenchmark {
+
+    private static final long DIA = 86_400_000L;
+    private static final int PELICULAS = 100;
+
+    @Param({"10000", "100000"})
+    private int alquileres;
+
+    private ConfigurableApplicationContext contexto;
+    private AlquilerService alquilerService;
+    private AlquilerRepository alquilerRepository;
+    private long dias;
+
+    @Setup
+    public void arrancar() {
+        contexto = ContextoBenchmark.arrancar();
+        alquilerService = contexto.getBean(AlquilerService.class);
+        alquilerRepository = contexto.getBean(AlquilerRepository.class);
+        // Alquileres consecutivos de un dia por pelicula; el indice se mantiene al crearlos
+        dias = alquileres / PELICULAS;
+        List<Alquiler> lote = new ArrayList<>();
+        for (int i = 0; i < alquileres; i++) {
+            Alquiler alquiler = new Alquiler();
+            alquiler.setIdPelicula(String.valueOf(i % PELICULAS));
+            alquiler.setFechaDesde(new Date((i / PELICULAS) * DIA));
+            alquiler.setFechaHasta(new Date((i / PELICULAS) * DIA + DIA));
+            alquiler.setPrecioFinal(3.5);
+            lote.add(alquiler);
+            if (lote.size() == 5000) {
+                alquilerService.createAlquileres(lote);
+                lote = new ArrayList<>();
+            }
+        }
+        if (!lote.isEmpty()) {
+            alquilerService.createAlquileres(lote);
+        }
+    }
+
+    @TearDown
+    public void parar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public List<IntervaloAlquiler> indice() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long desde = random.nextLong(dias) * DIA;
+        return alquilerService.getSolapes(String.valueOf(random.nextInt(PELICULAS)), new Date(desde), new Date(desde + 7 * DIA));
+    }
+
+    @Benchmark
+    public List<Alquiler> consultaSql() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long desde = random.nextLong(dias) * DIA;
+        return alquilerRepository.findPagina(0, String.valueOf(random.nextInt(PELICULAS)), null,
+                new Date(desde), new Date(desde + 7 * DIA), PageRequest.ofSize(1000));
+    }
+}
@@ -0,0 +1,112 @@
+package com.laboratorio.operator.benchmark;
+
+import com.laboratorio.operator.model.Compra;
+import com.laboratorio.operator.repository.CompraRepository;
+import com.laboratorio.operator.service.CompraService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Altas de compras con muchas peticiones a la vez y un inventario que tarda en responder: el pool
+ * de 200 hilos del sistema de Tomcat frente a un hilo virtual por peticion
+ * (spring.threads.virtual.enabled). Cada invocacion lanza {@value #PETICIONES} altas concurrentes y
+ * espera a todas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HilosVirtualesBenchmark {
+
+    private static final int PETICIONES = 1000;
+
+    // Hilos de Tomcat por defecto (server.tomcat.threads.max)
+    private static final int HILOS_TOMCAT = 200;
+
+    private static final long HORA = 3_600_000L;
+
+    @Param({"plataforma", "virtual"})
+    private String hilos;
+
+    @Param({"20"})
+    private int latenciaInventarioMs;
+
+    private ConfigurableApplicationContext contexto;
+    private CompraService compraService;
+    private CompraRepository compraRepository;
+    private ExecutorService peticiones;
+    private final AtomicLong siguiente = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void arrancar() {
+        boolean virtuales = hilos.equals("virtual");
+        contexto = ContextoBenchmark.arrancar(
+                "spring.threads.virtual.enabled=" + virtuales,
+                "benchmark.inventario.latencia=" + latenciaInventarioMs + "ms");
+        compraService = contexto.getBean(CompraService.class);
+        compraRepository = contexto.getBean(CompraRepository.class);
+        peticiones = virtuales
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(HILOS_TOMCAT);
+    }
+
+    @Setup(Level.Iteration)
+    public void vaciar() {
+        compraRepository.deleteAllInBatch();
+    }
+
+    @TearDown(Level.Trial)
+    public void parar() {
+        peticiones.shutdownNow();
+        contexto.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PETICIONES)
+    public List<Compra> createCompra() throws InterruptedException, ExecutionException {
+        List<Future<Compra>> altas = new ArrayList<>(PETICIONES);
+        for (int i = 0; i < PETICIONES; i++) {
+            long n = siguiente.getAndIncrement();
+            altas.add(peticiones.submit(() -> compraService.createCompra(compra(n))));
+        }
+        List<Compra> guardadas = new ArrayList<>(PETICIONES);
+        for (Future<Compra> alta : altas) {
+            guardadas.add(alta.get());
+        }
+        return guardadas;
+    }
+
+    private static Compra compra(long n) {
+        Compra compra = new Compra();
+        compra.setIdPelicula((int) (n % 100) + 1);
+        compra.setFechaCompra(new Date(n * HORA));
+        compra.setPrecioTotal(10 + n % 7);
+        compra.setTipoPago("TARJETA");
+        return compra;
+    }
+}
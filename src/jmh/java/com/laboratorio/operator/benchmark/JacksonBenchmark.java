@@ -0,0 +1,167 @@
+package com.laboratorio.operator.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.laboratorio.operator.model.Alquiler;
+import com.laboratorio.operator.model.Compra;
+import com.laboratorio.operator.model.MovieDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializacion y deserializacion JSON de las entidades y de MovieDto, de una en una y en listas
+ * de 10.000 elementos, con la misma configuracion de Jackson que aplica Spring Boot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JacksonBenchmark {
+
+    private static final int FILAS = 10_000;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
+    private Compra compra;
+    private Alquiler alquiler;
+    private MovieDto movie;
+    private List<Compra> compras;
+    private List<Alquiler> alquileres;
+    private List<MovieDto> movies;
+    private byte[] compraJson;
+    private byte[] alquilerJson;
+    private byte[] movieJson;
+    private byte[] comprasJson;
+    private byte[] alquileresJson;
+    private byte[] moviesJson;
+
+    @Setup
+    public void preparar() throws IOException {
+        compras = new ArrayList<>(FILAS);
+        alquileres = new ArrayList<>(FILAS);
+        movies = new ArrayList<>(FILAS);
+        for (int i = 0; i < FILAS; i++) {
+            Compra c = new Compra();
+            c.setId((long) i);
+            c.setIdPelicula(i % 100);
+            c.setFechaCompra(new Date(1_700_000_000_000L + i * 60_000L));
+            c.setPrecioTotal(9.99 + i % 10);
+            c.setTipoPago("TARJETA");
+            c.setVersion(0L);
+            compras.add(c);
+
+            Alquiler a = new Alquiler();
+            a.setId((long) i);
+            a.setIdPelicula(String.valueOf(i % 100));
+            a.setFechaDesde(new Date(1_700_000_000_000L + i * 60_000L));
+            a.setFechaHasta(new Date(1_700_000_000_000L + i * 60_000L + 86_400_000L));
+            a.setPrecioFinal(3.5 + i % 5);
+            a.setTipoRecibo("FACTURA");
+            a.setVersion(0L);
+            alquileres.add(a);
+
+            movies.add(MovieDto.builder()
+                    .name("Pelicula " + i)
+                    .description("Descripcion de la pelicula " + i)
+                    .img("https://img.example/" + i + ".jpg")
+                    .alquilada(i % 2 == 0)
+                    .ano(1950 + i % 70)
+                    .video("https://video.example/" + i)
+                    .director("Director " + i % 50)
+                    .price(10L + i % 20)
+                    .build());
+        }
+        compra = compras.get(0);
+        alquiler = alquileres.get(0);
+        movie = movies.get(0);
+        compraJson = objectMapper.writeValueAsBytes(compra);
+        alquilerJson = objectMapper.writeValueAsBytes(alquiler);
+        movieJson = objectMapper.writeValueAsBytes(movie);
+        comprasJson = objectMapper.writeValueAsBytes(compras);
+        alquileresJson = objectMapper.writeValueAsBytes(alquileres);
+        moviesJson = objectMapper.writeValueAsBytes(movies);
+    }
+
+    @Benchmark
+    public byte[] serializarCompra() throws IOException {
+        return objectMapper.writeValueAsBytes(compra);
+    }
+
+    @Benchmark
+    public Compra deserializarCompra() throws IOException {
+        return objectMapper.readValue(compraJson, Compra.class);
+    }
+
+    @Benchmark
+    public byte[] serializarAlquiler() throws IOException {
+        return objectMapper.writeValueAsBytes(alquiler);
+    }
+
+    @Benchmark
+    public Alquiler deserializarAlquiler() throws IOException {
+        return objectMapper.readValue(alquilerJson, Alquiler.class);
+    }
+
+    @Benchmark
+    public byte[] serializarMovie() throws IOException {
+        return objectMapper.writeValueAsBytes(movie);
+    }
+
+    @Benchmark
+    public MovieDto deserializarMovie() throws IOException {
+        return objectMapper.readValue(movieJson, MovieDto.class);
+    }
+
+    @Benchmark
+    public byte[] serializarCompras10k() throws IOException {
+        return objectMapper.writeValueAsBytes(compras);
+    }
+
+    @Benchmark
+    public List<Compra> deserializarCompras10k() throws IOException {
+        return objectMapper.readValue(comprasJson, new TypeReference<>() {
+        });
+    }
+
+    @Benchmark
+    public byte[] serializarAlquileres10k() throws IOException {
+        return objectMapper.writeValueAsBytes(alquileres);
+    }
+
+    @Benchmark
+    public List<Alquiler> deserializarAlquileres10k() throws IOException {
+        return objectMapper.readValue(alquileresJson, new TypeReference<>() {
+        });
+    }
+
+    @Benchmark
+    public byte[] serializarMovies10k() throws IOException {
+        return objectMapper.writeValueAsBytes(movies);
+    }
+
+    @Benchmark
+    public List<MovieDto> deserializarMovies10k() throws IOException {
+        return objectMapper.readValue(moviesJson, new TypeReference<>() {
+        });
+    }
+}
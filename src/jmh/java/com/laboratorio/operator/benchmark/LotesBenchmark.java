@@ -0,0 +1,89 @@
+package com.laboratorio.operator.benchmark;
+
+import com.laboratorio.operator.model.Compra;
+import com.laboratorio.operator.model.ResultadoLote;
+import com.laboratorio.operator.repository.CompraRepository;
+import com.laboratorio.operator.service.CompraService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alta de N compras con POST /compras/batch (una consulta al inventario e inserts en batch JDBC)
+ * frente a N altas individuales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LotesBenchmark {
+
+    @Param({"100", "1000"})
+    private int tamano;
+
+    private ConfigurableApplicationContext contexto;
+    private CompraService compraService;
+    private CompraRepository compraRepository;
+
+    @Setup(Level.Trial)
+    public void arrancar() {
+        contexto = ContextoBenchmark.arrancar();
+        compraService = contexto.getBean(CompraService.class);
+        compraRepository = contexto.getBean(CompraRepository.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void vaciar() {
+        compraRepository.deleteAllInBatch();
+    }
+
+    @TearDown(Level.Trial)
+    public void parar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public List<ResultadoLote> porLotes() {
+        return compraService.createCompras(compras());
+    }
+
+    @Benchmark
+    public List<Compra> unoAUno() {
+        List<Compra> guardadas = new ArrayList<>(tamano);
+        for (Compra compra : compras()) {
+            guardadas.add(compraService.createCompra(compra));
+        }
+        return guardadas;
+    }
+
+    private List<Compra> compras() {
+        List<Compra> compras = new ArrayList<>(tamano);
+        for (int i = 0; i < tamano; i++) {
+            Compra compra = new Compra();
+            compra.setIdPelicula(i % 100);
+            compra.setFechaCompra(new Date(1_700_000_000_000L + i * 60_000L));
+            compra.setPrecioTotal(9.99 + i % 10);
+            compra.setTipoPago("TARJETA");
+            compras.add(compra);
+        }
+        return compras;
+    }
+}
@@ -0,0 +1,86 @@
+package com.laboratorio.operator.benchmark;
+
+import com.laboratorio.operator.model.Compra;
+import com.laboratorio.operator.repository.CompraRepository;
+import com.laboratorio.operator.service.GuardadoPorLotes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * save y findById del repositorio de compras contra la H2 embebida, con 10.000 filas cargadas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositorioBenchmark {
+
+    private static final int FILAS = 10_000;
+
+    private ConfigurableApplicationContext contexto;
+    private CompraRepository compraRepository;
+    private GuardadoPorLotes guardadoPorLotes;
+    private long[] ids;
+
+    @Setup(Level.Trial)
+    public void arrancar() {
+        contexto = ContextoBenchmark.arrancar();
+        compraRepository = contexto.getBean(CompraRepository.class);
+        guardadoPorLotes = contexto.getBean(GuardadoPorLotes.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void cargar() {
+        compraRepository.deleteAllInBatch();
+        List<Compra> compras = new ArrayList<>(FILAS);
+        for (int i = 0; i < FILAS; i++) {
+            compras.add(compra(i));
+        }
+        guardadoPorLotes.guardar(compras, compraRepository);
+        ids = compras.stream().mapToLong(Compra::getId).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void parar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public Compra save() {
+        return compraRepository.save(compra(ThreadLocalRandom.current().nextInt(FILAS)));
+    }
+
+    @Benchmark
+    public Optional<Compra> findById() {
+        return compraRepository.findById(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+
+    private static Compra compra(int i) {
+        Compra compra = new Compra();
+        compra.setIdPelicula(i % 100);
+        compra.setFechaCompra(new Date(1_700_000_000_000L + i * 60_000L));
+        compra.setPrecioTotal(9.99 + i % 10);
+        compra.setTipoPago("TARJETA");
+        return compra;
+    }
+}
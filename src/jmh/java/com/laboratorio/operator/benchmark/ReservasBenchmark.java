@@ -0,0 +1,110 @@
+package com.laboratorio.operator.benchmark;
+
+import com.laboratorio.operator.indice.IndiceAlquileres;
+import com.laboratorio.operator.model.Alquiler;
+import com.laboratorio.operator.repository.AlquilerRepository;
+import com.laboratorio.operator.service.AlquilerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Altas de alquileres con rechazo de solapes desde {@value #HILOS} hilos a la vez, todas sobre una
+ * pelicula (caliente) o repartidas entre {@value #PELICULAS_FRIAS} (frias), con una sola franja de
+ * bloqueo para todas las peliculas o con las franjas por defecto. Los periodos nunca se solapan: se
+ * mide la espera por el bloqueo, no los rechazos. "reservar" solo reserva y libera el periodo en el
+ * indice; "alta" hace el alta completa, con la comprobacion de la pelicula y el guardado en H2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(ReservasBenchmark.HILOS)
+@Fork(1)
+public class ReservasBenchmark {
+
+    static final int HILOS = 16;
+
+    private static final int PELICULAS_FRIAS = 10_000;
+
+    private static final long HORA = 3_600_000L;
+
+    @Param({"caliente", "frias"})
+    private String peliculas;
+
+    @Param({"1", "256"})
+    private int franjas;
+
+    private ConfigurableApplicationContext contexto;
+    private AlquilerService alquilerService;
+    private AlquilerRepository alquilerRepository;
+    private IndiceAlquileres indiceAlquileres;
+
+    // Hora de inicio del siguiente periodo, comun a todas las peliculas
+    private final AtomicLong siguiente = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void arrancar() {
+        contexto = ContextoBenchmark.arrancar(
+                "alquileres.rechazar-solapes=true",
+                "alquileres.franjas-bloqueo=" + franjas);
+        alquilerService = contexto.getBean(AlquilerService.class);
+        alquilerRepository = contexto.getBean(AlquilerRepository.class);
+        indiceAlquileres = contexto.getBean(IndiceAlquileres.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void vaciar() {
+        alquilerRepository.deleteAllInBatch();
+        indiceAlquileres.reconstruir();
+    }
+
+    @TearDown(Level.Trial)
+    public void parar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public IndiceAlquileres.Reserva reservar() {
+        long n = siguiente.getAndIncrement();
+        IndiceAlquileres.Reserva reserva = indiceAlquileres.reservar(pelicula(),
+                new Date(n * HORA), new Date(n * HORA + HORA), null);
+        reserva.liberar();
+        return reserva;
+    }
+
+    @Benchmark
+    public Alquiler alta() {
+        long n = siguiente.getAndIncrement();
+        Alquiler alquiler = new Alquiler();
+        alquiler.setIdPelicula(pelicula());
+        alquiler.setFechaDesde(new Date(n * HORA));
+        alquiler.setFechaHasta(new Date(n * HORA + HORA));
+        alquiler.setPrecioFinal(3);
+        alquiler.setTipoRecibo("FACTURA");
+        return alquilerService.createAlquiler(alquiler);
+    }
+
+    private String pelicula() {
+        return peliculas.equals("caliente") ? "1"
+                : String.valueOf(ThreadLocalRandom.current().nextInt(PELICULAS_FRIAS) + 1);
+    }
+}
@@ -0,0 +1,94 @@
+package com.laboratorio.operator.benchmark;
+
+import com.laboratorio.operator.indice.IndiceAlquileres;
+import com.laboratorio.operator.model.Alquiler;
+import com.laboratorio.operator.model.Compra;
+import com.laboratorio.operator.repository.AlquilerRepository;
+import com.laboratorio.operator.repository.CompraRepository;
+import com.laboratorio.operator.service.AlquilerService;
+import com.laboratorio.operator.service.CompraService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Altas individuales de compras y alquileres a traves de los servicios, con el inventario
+ * simulado: validacion, insert en H2, indice de alquileres y agregados de ingresos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiciosBenchmark {
+
+    private static final long HORA = 3_600_000L;
+
+    private ConfigurableApplicationContext contexto;
+    private CompraService compraService;
+    private AlquilerService alquilerService;
+    private CompraRepository compraRepository;
+    private AlquilerRepository alquilerRepository;
+    private IndiceAlquileres indiceAlquileres;
+    private long siguiente;
+
+    @Setup(Level.Trial)
+    public void arrancar() {
+        contexto = ContextoBenchmark.arrancar();
+        compraService = contexto.getBean(CompraService.class);
+        alquilerService = contexto.getBean(AlquilerService.class);
+        compraRepository = contexto.getBean(CompraRepository.class);
+        alquilerRepository = contexto.getBean(AlquilerRepository.class);
+        indiceAlquileres = contexto.getBean(IndiceAlquileres.class);
+    }
+
+    // Cada iteracion parte de tablas vacias para que su tamaño no crezca durante la medicion
+    @Setup(Level.Iteration)
+    public void vaciar() {
+        compraRepository.deleteAllInBatch();
+        alquilerRepository.deleteAllInBatch();
+        indiceAlquileres.reconstruir();
+    }
+
+    @TearDown(Level.Trial)
+    public void parar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public Compra createCompra() {
+        long n = siguiente++;
+        Compra compra = new Compra();
+        compra.setIdPelicula((int) (n % 100) + 1);
+        compra.setFechaCompra(new Date(n * HORA));
+        compra.setPrecioTotal(10 + n % 7);
+        compra.setTipoPago("TARJETA");
+        return compraService.createCompra(compra);
+    }
+
+    @Benchmark
+    public Alquiler createAlquiler() {
+        long n = siguiente++;
+        Alquiler alquiler = new Alquiler();
+        alquiler.setIdPelicula(String.valueOf(n % 100 + 1));
+        alquiler.setFechaDesde(new Date(n * HORA));
+        alquiler.setFechaHasta(new Date(n * HORA + HORA));
+        alquiler.setPrecioFinal(3 + n % 5);
+        alquiler.setTipoRecibo("FACTURA");
+        return alquilerService.createAlquiler(alquiler);
+    }
+}
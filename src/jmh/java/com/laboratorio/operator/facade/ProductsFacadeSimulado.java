@@ -0,0 +1,60 @@
+package com.laboratorio.operator.facade;
+
+import com.laboratorio.operator.model.MovieDto;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inventario en memoria para los benchmarks: todas las peliculas existen y se responden sin
+ * cache, pool ni llamadas HTTP, de forma que solo se mide el servicio. Con latencia, cada consulta
+ * responde pasado ese tiempo sin ocupar ningun hilo mientras tanto, como una llamada remota.
+ */
+public class ProductsFacadeSimulado extends ProductsFacade {
+
+  private final MovieDto movie = MovieDto.builder().name("Pelicula").price(10L).build();
+
+  private final Duration latency;
+
+  public ProductsFacadeSimulado() {
+    this(Duration.ZERO);
+  }
+
+  public ProductsFacadeSimulado(Duration latency) {
+    super(null, null, null, null);
+    this.latency = latency;
+  }
+
+  @Override
+  void initCache() {
+  }
+
+  @Override
+  void shutdown() {
+  }
+
+  @Override
+  public MovieDto getMovie(String id) {
+    return getMovieAsync(id).join();
+  }
+
+  @Override
+  public CompletableFuture<MovieDto> getMovieAsync(String id) {
+    if (latency.isZero()) {
+      return CompletableFuture.completedFuture(movie);
+    }
+    return new CompletableFuture<MovieDto>().completeOnTimeout(movie, latency.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public Map<String, Optional<MovieDto>> getMovies(Collection<String> ids) {
+    Map<String, Optional<MovieDto>> movies = new HashMap<>();
+    ids.forEach(id -> movies.put(id, Optional.of(movie)));
+    return movies;
+  }
+}
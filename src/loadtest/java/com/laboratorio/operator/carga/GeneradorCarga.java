@@ -0,0 +1,210 @@
+package com.laboratorio.operator.carga;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generador de carga en lazo abierto: las peticiones salen a la tasa fijada aunque la aplicacion
+ * tarde en responder, y la latencia se mide desde el instante en que la peticion deberia haber
+ * salido. Asi un atasco del servidor se refleja en los percentiles en lugar de frenar al cliente
+ * (omision coordinada).
+ */
+final class GeneradorCarga {
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"(\\d+)\"");
+
+    // Latencias en microsegundos, hasta 5 minutos con 3 cifras significativas
+    private static final long LATENCIA_MAXIMA = TimeUnit.MINUTES.toMicros(5);
+
+    private final URI base;
+
+    private final HttpClient cliente;
+
+    private final Duration timeout;
+
+    private final int peliculas;
+
+    private final int maximoEnVuelo;
+
+    private final Operacion.Ids ids = new Operacion.Ids();
+
+    private final Map<Operacion, Resultados> resultados = new EnumMap<>(Operacion.class);
+
+    private final AtomicInteger enVuelo = new AtomicInteger();
+
+    private volatile long inicioMedida = Long.MAX_VALUE;
+
+    GeneradorCarga(URI base, Duration timeout, int peliculas, int maximoEnVuelo) {
+        this.base = base;
+        this.timeout = timeout;
+        this.peliculas = peliculas;
+        this.maximoEnVuelo = maximoEnVuelo;
+        this.cliente = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .build();
+        for (Operacion operacion : Operacion.values()) {
+            resultados.put(operacion, new Resultados());
+        }
+    }
+
+    /**
+     * Crea compras y alquileres de forma secuencial para que las lecturas y modificaciones
+     * encuentren datos desde el primer momento.
+     */
+    void precargar(int cantidad) throws InterruptedException {
+        for (int i = 0; i < cantidad; i++) {
+            for (Operacion operacion : new Operacion[] {Operacion.POST_COMPRA, Operacion.POST_ALQUILER}) {
+                try {
+                    HttpResponse<String> respuesta = cliente.send(
+                            operacion.peticion(base, ids, peliculas), HttpResponse.BodyHandlers.ofString());
+                    registrarAlta(operacion, respuesta);
+                } catch (IOException e) {
+                    throw new IllegalStateException("La precarga ha fallado contra " + base, e);
+                }
+            }
+        }
+        if (ids.compras() == 0 || ids.alquileres() == 0) {
+            System.out.println("Aviso: la precarga no ha creado compras o alquileres; las lecturas y modificaciones daran 404");
+        }
+    }
+
+    /**
+     * Lanza peticiones a la tasa indicada durante el calentamiento y la medida; solo las
+     * programadas despues del calentamiento cuentan en los resultados.
+     */
+    void ejecutar(Mezcla mezcla, double tasa, Duration calentamiento, Duration duracion) throws InterruptedException {
+        long intervalo = (long) (TimeUnit.SECONDS.toNanos(1) / tasa);
+        long inicio = System.nanoTime();
+        inicioMedida = inicio + calentamiento.toNanos();
+        long fin = inicioMedida + duracion.toNanos();
+        for (long i = 0; ; i++) {
+            long programada = inicio + i * intervalo;
+            if (programada >= fin) {
+                break;
+            }
+            long espera = programada - System.nanoTime();
+            if (espera > 0) {
+                LockSupport.parkNanos(espera);
+            }
+            lanzar(mezcla.elegir(ThreadLocalRandom.current()), programada);
+        }
+        // Las peticiones pendientes terminan o agotan su timeout
+        long limite = System.nanoTime() + timeout.toNanos() + TimeUnit.SECONDS.toNanos(1);
+        while (enVuelo.get() > 0 && System.nanoTime() < limite) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void lanzar(Operacion operacion, long programada) {
+        Resultados r = programada >= inicioMedida ? resultados.get(operacion) : null;
+        if (enVuelo.incrementAndGet() > maximoEnVuelo) {
+            enVuelo.decrementAndGet();
+            if (r != null) {
+                r.omitidas.increment();
+            }
+            return;
+        }
+        HttpRequest peticion = HttpRequest.newBuilder(operacion.peticion(base, ids, peliculas), (k, v) -> true)
+                .timeout(timeout)
+                .build();
+        cliente.sendAsync(peticion, HttpResponse.BodyHandlers.ofString()).whenComplete((respuesta, error) -> {
+            long latencia = System.nanoTime() - programada;
+            enVuelo.decrementAndGet();
+            if (respuesta != null) {
+                registrarAlta(operacion, respuesta);
+            }
+            if (r != null) {
+                r.registrar(latencia, respuesta != null ? respuesta.statusCode() : -1);
+            }
+        });
+    }
+
+    private void registrarAlta(Operacion operacion, HttpResponse<String> respuesta) {
+        if ((operacion == Operacion.POST_COMPRA || operacion == Operacion.POST_ALQUILER)
+                && respuesta.statusCode() / 100 == 2) {
+            Matcher m = ID.matcher(respuesta.body());
+            if (m.find()) {
+                ids.creada(operacion, Long.parseLong(m.group(1)));
+            }
+        }
+    }
+
+    void informar(Duration duracion, PrintStream salida) {
+        double segundos = duracion.toNanos() / 1e9;
+        salida.printf(Locale.ROOT, "%-15s %9s %9s %7s %7s %7s %7s %10s %10s %10s %10s%n",
+                "operacion", "total", "req/s", "2xx/3xx", "4xx", "5xx", "error", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        Resultados total = new Resultados();
+        resultados.forEach((operacion, r) -> {
+            r.imprimir(operacion.nombre(), segundos, salida);
+            total.sumar(r);
+        });
+        total.imprimir("TOTAL", segundos, salida);
+    }
+
+    private static final class Resultados {
+
+        private final Histogram latencias = new ConcurrentHistogram(LATENCIA_MAXIMA, 3);
+
+        private final LongAdder correctas = new LongAdder();
+
+        private final LongAdder errores4xx = new LongAdder();
+
+        private final LongAdder errores5xx = new LongAdder();
+
+        // Sin respuesta: timeout o conexion rechazada
+        private final LongAdder fallidas = new LongAdder();
+
+        // No enviadas por superar el maximo de peticiones en vuelo
+        private final LongAdder omitidas = new LongAdder();
+
+        void registrar(long latenciaNanos, int estado) {
+            latencias.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latenciaNanos), LATENCIA_MAXIMA));
+            switch (estado / 100) {
+                case 2, 3 -> correctas.increment();
+                case 4 -> errores4xx.increment();
+                case 5 -> errores5xx.increment();
+                default -> fallidas.increment();
+            }
+        }
+
+        void sumar(Resultados otros) {
+            latencias.add(otros.latencias);
+            correctas.add(otros.correctas.sum());
+            errores4xx.add(otros.errores4xx.sum());
+            errores5xx.add(otros.errores5xx.sum());
+            fallidas.add(otros.fallidas.sum());
+            omitidas.add(otros.omitidas.sum());
+        }
+
+        void imprimir(String nombre, double segundos, PrintStream salida) {
+            long total = latencias.getTotalCount();
+            salida.printf(Locale.ROOT, "%-15s %9d %9.1f %7d %7d %7d %7d %10.2f %10.2f %10.2f %10.2f%n",
+                    nombre, total, total / segundos, correctas.sum(), errores4xx.sum(), errores5xx.sum(),
+                    fallidas.sum() + omitidas.sum(), ms(latencias.getValueAtPercentile(50)),
+                    ms(latencias.getValueAtPercentile(99)), ms(latencias.getValueAtPercentile(99.9)),
+                    ms(latencias.getMaxValue()));
+        }
+
+        private static double ms(long micros) {
+            return micros / 1000.0;
+        }
+    }
+}
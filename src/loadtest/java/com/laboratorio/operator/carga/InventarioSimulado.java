@@ -0,0 +1,70 @@
+package com.laboratorio.operator.carga;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sustituto local de ms-movies-inventory: responde a GET /movies/{id} con una pelicula tras la
+ * latencia configurada, o con un 500 en la proporcion de errores indicada.
+ */
+final class InventarioSimulado implements AutoCloseable {
+
+    private final HttpServer servidor;
+
+    private final ExecutorService hilos = Executors.newCachedThreadPool();
+
+    private final long latenciaNanos;
+
+    private final double errores;
+
+    InventarioSimulado(Duration latencia, double errores) throws IOException {
+        this.latenciaNanos = latencia.toNanos();
+        this.errores = errores;
+        servidor = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        servidor.createContext("/movies/", this::responder);
+        servidor.setExecutor(hilos);
+        servidor.start();
+    }
+
+    URI uri() {
+        return URI.create("http://127.0.0.1:" + servidor.getAddress().getPort());
+    }
+
+    private void responder(HttpExchange intercambio) throws IOException {
+        try (intercambio) {
+            if (latenciaNanos > 0) {
+                Thread.sleep(Duration.ofNanos(latenciaNanos));
+            }
+            if (ThreadLocalRandom.current().nextDouble() < errores) {
+                intercambio.sendResponseHeaders(500, -1);
+                return;
+            }
+            String path = intercambio.getRequestURI().getPath();
+            String id = path.substring(path.lastIndexOf('/') + 1);
+            byte[] cuerpo = ("{\"name\":\"Pelicula " + id + "\",\"price\":10}").getBytes(StandardCharsets.UTF_8);
+            intercambio.getResponseHeaders().set("Content-Type", "application/json");
+            intercambio.sendResponseHeaders(200, cuerpo.length);
+            try (OutputStream salida = intercambio.getResponseBody()) {
+                salida.write(cuerpo);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        servidor.stop(0);
+        hilos.shutdownNow();
+    }
+}
@@ -0,0 +1,57 @@
+package com.laboratorio.operator.carga;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Proporcion de cada operacion en el trafico, con el formato
+ * {@code post-compra=20,get-compra=40,patch-compra=10,...}. Los pesos son relativos.
+ */
+final class Mezcla {
+
+    private final Operacion[] operaciones;
+
+    private final int[] acumulados;
+
+    private Mezcla(Operacion[] operaciones, int[] acumulados) {
+        this.operaciones = operaciones;
+        this.acumulados = acumulados;
+    }
+
+    static Mezcla parse(String texto) {
+        String[] partes = texto.split(",");
+        Operacion[] operaciones = new Operacion[partes.length];
+        int[] acumulados = new int[partes.length];
+        int suma = 0;
+        for (int i = 0; i < partes.length; i++) {
+            String[] par = partes[i].trim().split("=");
+            if (par.length != 2) {
+                throw new IllegalArgumentException("Mezcla no valida: " + texto);
+            }
+            operaciones[i] = Operacion.deNombre(par[0].trim());
+            int peso = Integer.parseInt(par[1].trim());
+            if (peso < 0) {
+                throw new IllegalArgumentException("Peso negativo en la mezcla: " + partes[i]);
+            }
+            suma += peso;
+            acumulados[i] = suma;
+        }
+        if (suma == 0) {
+            throw new IllegalArgumentException("La mezcla no tiene ninguna operacion con peso: " + texto);
+        }
+        return new Mezcla(operaciones, acumulados);
+    }
+
+    Operacion elegir(RandomGenerator azar) {
+        int valor = azar.nextInt(acumulados[acumulados.length - 1]);
+        int i = Arrays.binarySearch(acumulados, valor + 1);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        // Con pesos 0 puede haber acumulados repetidos: se toma la primera operacion con peso
+        while (i > 0 && acumulados[i - 1] == acumulados[i]) {
+            i--;
+        }
+        return operaciones[i];
+    }
+}
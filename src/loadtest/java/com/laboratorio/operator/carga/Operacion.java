@@ -0,0 +1,162 @@
+package com.laboratorio.operator.carga;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Peticiones que componen la mezcla de trafico. Las lecturas y modificaciones eligen al azar un id
+ * entre los ya creados por la precarga y por las altas de la propia prueba.
+ */
+enum Operacion {
+
+    POST_COMPRA("post-compra") {
+        @Override
+        HttpRequest peticion(URI base, Ids ids, int peliculas) {
+            return json(base.resolve("/compras"), "POST", String.format(Locale.ROOT,
+                    "{\"idPelicula\":%d,\"fechaCompra\":\"%s\",\"precioTotal\":%.2f,\"tipoPago\":\"%s\"}",
+                    pelicula(peliculas), fecha(), importe(), TIPOS_PAGO[azar().nextInt(TIPOS_PAGO.length)]));
+        }
+    },
+    GET_COMPRA("get-compra") {
+        @Override
+        HttpRequest peticion(URI base, Ids ids, int peliculas) {
+            return HttpRequest.newBuilder(base.resolve("/compras/" + ids.compra())).GET().build();
+        }
+    },
+    PATCH_COMPRA("patch-compra") {
+        @Override
+        HttpRequest peticion(URI base, Ids ids, int peliculas) {
+            return mergePatch(base.resolve("/compras/" + ids.compra()),
+                    String.format(Locale.ROOT, "{\"precioTotal\":%.2f}", importe()));
+        }
+    },
+    POST_ALQUILER("post-alquiler") {
+        @Override
+        HttpRequest peticion(URI base, Ids ids, int peliculas) {
+            return json(base.resolve("/alquileres"), "POST", String.format(Locale.ROOT,
+                    "{\"idPelicula\":\"%d\",\"fechaDesde\":\"%s\",\"precioFinal\":%.2f,\"tipoRecibo\":\"%s\"}",
+                    pelicula(peliculas), fecha(), importe(), TIPOS_RECIBO[azar().nextInt(TIPOS_RECIBO.length)]));
+        }
+    },
+    GET_ALQUILER("get-alquiler") {
+        @Override
+        HttpRequest peticion(URI base, Ids ids, int peliculas) {
+            return HttpRequest.newBuilder(base.resolve("/alquileres/" + ids.alquiler())).GET().build();
+        }
+    },
+    PATCH_ALQUILER("patch-alquiler") {
+        @Override
+        HttpRequest peticion(URI base, Ids ids, int peliculas) {
+            return mergePatch(base.resolve("/alquileres/" + ids.alquiler()),
+                    String.format(Locale.ROOT, "{\"precioFinal\":%.2f}", importe()));
+        }
+    };
+
+    private static final String[] TIPOS_PAGO = {"TARJETA", "EFECTIVO", "BIZUM"};
+
+    private static final String[] TIPOS_RECIBO = {"A", "B"};
+
+    private final String nombre;
+
+    Operacion(String nombre) {
+        this.nombre = nombre;
+    }
+
+    String nombre() {
+        return nombre;
+    }
+
+    abstract HttpRequest peticion(URI base, Ids ids, int peliculas);
+
+    static Operacion deNombre(String nombre) {
+        for (Operacion operacion : values()) {
+            if (operacion.nombre.equals(nombre)) {
+                return operacion;
+            }
+        }
+        throw new IllegalArgumentException("Operacion desconocida: " + nombre);
+    }
+
+    /** Ultimos ids creados de cada recurso; los ids no son consecutivos, asi que se guardan. */
+    static final class Ids {
+
+        private final Creados compras = new Creados();
+
+        private final Creados alquileres = new Creados();
+
+        void creada(Operacion operacion, long id) {
+            (operacion == POST_COMPRA ? compras : alquileres).anotar(id);
+        }
+
+        long compras() {
+            return compras.total.get();
+        }
+
+        long alquileres() {
+            return alquileres.total.get();
+        }
+
+        long compra() {
+            return compras.alAzar();
+        }
+
+        long alquiler() {
+            return alquileres.alAzar();
+        }
+    }
+
+    private static final class Creados {
+
+        private static final int MAXIMO = 1 << 16;
+
+        private final AtomicLongArray ids = new AtomicLongArray(MAXIMO);
+
+        private final AtomicLong total = new AtomicLong();
+
+        void anotar(long id) {
+            ids.set((int) (total.getAndIncrement() % MAXIMO), id);
+        }
+
+        long alAzar() {
+            long creados = total.get();
+            return creados == 0 ? 1 : ids.get(azar().nextInt((int) Math.min(creados, MAXIMO)));
+        }
+    }
+
+    private static HttpRequest json(URI uri, String metodo, String cuerpo) {
+        return HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .method(metodo, HttpRequest.BodyPublishers.ofString(cuerpo))
+                .build();
+    }
+
+    private static HttpRequest mergePatch(URI uri, String cuerpo) {
+        return HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/merge-patch+json")
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(cuerpo))
+                .build();
+    }
+
+    private static ThreadLocalRandom azar() {
+        return ThreadLocalRandom.current();
+    }
+
+    private static int pelicula(int peliculas) {
+        return 1 + azar().nextInt(peliculas);
+    }
+
+    private static double importe() {
+        return 1 + azar().nextInt(2000) / 100.0;
+    }
+
+    // Fechas repartidas en el ultimo año para que /ingresos agrupe por muchos dias
+    private static Instant fecha() {
+        return Instant.now().truncatedTo(ChronoUnit.SECONDS).minus(azar().nextInt(365 * 24), ChronoUnit.HOURS);
+    }
+}
@@ -0,0 +1,120 @@
+package com.laboratorio.operator.carga;
+
+import com.laboratorio.operator.OperatorApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.CommandLinePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Prueba de carga de extremo a extremo. Arranca un inventario de peliculas simulado y la
+ * aplicacion (sin Eureka, en un puerto libre y apuntando al simulado), precarga datos, lanza la
+ * mezcla de peticiones a la tasa indicada e imprime rendimiento y percentiles de latencia.
+ * <p>
+ * Opciones (con sus valores por defecto):
+ * <pre>
+ * --carga.tasa=200                 peticiones por segundo
+ * --carga.duracion=60s             duracion de la medida
+ * --carga.calentamiento=15s        trafico previo que no cuenta en los resultados
+ * --carga.precarga=500             compras y alquileres creados antes de empezar
+ * --carga.mezcla=post-compra=15,get-compra=40,patch-compra=10,post-alquiler=10,get-alquiler=20,patch-alquiler=5
+ * --carga.peliculas=1000           ids de pelicula distintos (afecta al acierto de la cache)
+ * --carga.timeout=10s              timeout de cada peticion
+ * --carga.max-en-vuelo=5000        peticiones simultaneas maximas; las que excedan no se envian
+ * --carga.url=                     aplicacion ya desplegada; si se indica no se arranca nada
+ * --inventario.latencia=20ms       latencia del inventario simulado
+ * --inventario.errores=0           proporcion de respuestas 500 del inventario simulado
+ * </pre>
+ * El resto de argumentos se pasan a la aplicacion, p. ej. {@code --getMovies.batch.enabled=true}.
+ */
+public final class PruebaCarga {
+
+    private PruebaCarga() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLinePropertySource opciones = new SimpleCommandLinePropertySource(args);
+        double tasa = Double.parseDouble(opcion(opciones, "carga.tasa", "200"));
+        Duration duracion = DurationStyle.detectAndParse(opcion(opciones, "carga.duracion", "60s"));
+        Duration calentamiento = DurationStyle.detectAndParse(opcion(opciones, "carga.calentamiento", "15s"));
+        int precarga = Integer.parseInt(opcion(opciones, "carga.precarga", "500"));
+        Mezcla mezcla = Mezcla.parse(opcion(opciones, "carga.mezcla",
+                "post-compra=15,get-compra=40,patch-compra=10,post-alquiler=10,get-alquiler=20,patch-alquiler=5"));
+        int peliculas = Integer.parseInt(opcion(opciones, "carga.peliculas", "1000"));
+        Duration timeout = DurationStyle.detectAndParse(opcion(opciones, "carga.timeout", "10s"));
+        int maximoEnVuelo = Integer.parseInt(opcion(opciones, "carga.max-en-vuelo", "5000"));
+        String url = opcion(opciones, "carga.url", "");
+        Duration latencia = DurationStyle.detectAndParse(opcion(opciones, "inventario.latencia", "20ms"));
+        double errores = Double.parseDouble(opcion(opciones, "inventario.errores", "0"));
+
+        InventarioSimulado inventario = null;
+        ConfigurableApplicationContext aplicacion = null;
+        GeneradorCarga generador;
+        try {
+            URI base;
+            if (url.isEmpty()) {
+                inventario = new InventarioSimulado(latencia, errores);
+                aplicacion = arrancar(inventario.uri(), args);
+                base = URI.create("http://127.0.0.1:" + aplicacion.getEnvironment().getProperty("local.server.port"));
+                System.out.printf(Locale.ROOT, "Inventario simulado en %s (latencia %d ms, errores %.1f%%)%n",
+                        inventario.uri(), latencia.toMillis(), errores * 100);
+            } else {
+                base = URI.create(url);
+            }
+            System.out.printf(Locale.ROOT, "Aplicacion en %s: %d altas de precarga, %.0f req/s durante %ds tras %ds de calentamiento%n",
+                    base, precarga * 2, tasa, duracion.toSeconds(), calentamiento.toSeconds());
+
+            generador = new GeneradorCarga(base, timeout, peliculas, maximoEnVuelo);
+            generador.precargar(precarga);
+            generador.ejecutar(mezcla, tasa, calentamiento, duracion);
+        } finally {
+            if (aplicacion != null) {
+                aplicacion.close();
+            }
+            if (inventario != null) {
+                inventario.close();
+            }
+        }
+        // Despues de parar la aplicacion, para que sus logs no se mezclen con el informe
+        generador.informar(duracion, System.out);
+    }
+
+    private static ConfigurableApplicationContext arrancar(URI inventario, String[] args) {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        // Por encima de application.yml y por debajo de los argumentos, que pueden cambiarlas
+        Map<String, Object> propiedades = Map.of(
+                "server.port", "0",
+                "eureka.client.enabled", "false",
+                "spring.cloud.discovery.client.simple.instances.movies[0].uri", inventario.toString(),
+                "getMovies.url", "http://movies/movies/%s");
+        return new SpringApplicationBuilder(OperatorApplication.class)
+                .properties(
+                        "spring.main.banner-mode=off",
+                        // devtools esta en el classpath de test: sin su apagado de la H2 al cerrar el contexto
+                        "spring.autoconfigure.exclude=org.springframework.boot.devtools.autoconfigure.DevToolsDataSourceAutoConfiguration",
+                        "logging.level.root=warn")
+                .initializers(contexto -> {
+                    MutablePropertySources fuentes = contexto.getEnvironment().getPropertySources();
+                    MapPropertySource prueba = new MapPropertySource("pruebaCarga", propiedades);
+                    if (fuentes.contains(CommandLinePropertySource.COMMAND_LINE_PROPERTY_SOURCE_NAME)) {
+                        fuentes.addAfter(CommandLinePropertySource.COMMAND_LINE_PROPERTY_SOURCE_NAME, prueba);
+                    } else {
+                        fuentes.addFirst(prueba);
+                    }
+                })
+                .run(args);
+    }
+
+    private static String opcion(SimpleCommandLinePropertySource opciones, String nombre, String porDefecto) {
+        String valor = opciones.getProperty(nombre);
+        return valor != null ? valor : porDefecto;
+    }
+}
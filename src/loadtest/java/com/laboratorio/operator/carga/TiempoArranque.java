@@ -0,0 +1,169 @@
+package com.laboratorio.operator.carga;
+
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Tiempo hasta la primera peticion atendida: arranca la aplicacion varias veces, cada vez en una
+ * JVM nueva, y mide desde el lanzamiento del proceso hasta el primer POST /compras con respuesta
+ * 2xx (contra un inventario simulado). Compara el jar de {@code mvn package} con el arranque rapido
+ * de {@code mvn -Parranque package} (Spring AOT y archivo CDS), alternando los modos en cada
+ * repeticion para que los dos sufran igual el ruido de la maquina.
+ * <p>
+ * Opciones (con sus valores por defecto):
+ * <pre>
+ * --arranque.modos=normal,rapido   modos a medir
+ * --arranque.repeticiones=5        arranques de cada modo
+ * --arranque.timeout=60s           espera maxima a la primera respuesta
+ * --arranque.jar=target/inventory-products-0.0.1-SNAPSHOT.jar
+ * --arranque.directorio=target/arranque
+ * --inventario.latencia=20ms       latencia del inventario simulado
+ * </pre>
+ * El resto de argumentos se pasan a la aplicacion.
+ */
+public final class TiempoArranque {
+
+    private static final Duration SONDEO = Duration.ofMillis(10);
+
+    private TiempoArranque() {
+    }
+
+    enum Modo {
+        NORMAL, RAPIDO
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLinePropertySource opciones = new SimpleCommandLinePropertySource(args);
+        List<Modo> modos = Arrays.stream(opcion(opciones, "arranque.modos", "normal,rapido").split(","))
+                .map(modo -> Modo.valueOf(modo.trim().toUpperCase(Locale.ROOT)))
+                .toList();
+        int repeticiones = Integer.parseInt(opcion(opciones, "arranque.repeticiones", "5"));
+        Duration timeout = DurationStyle.detectAndParse(opcion(opciones, "arranque.timeout", "60s"));
+        Path jar = Path.of(opcion(opciones, "arranque.jar", "target/inventory-products-0.0.1-SNAPSHOT.jar"));
+        Path directorio = Path.of(opcion(opciones, "arranque.directorio", "target/arranque"));
+        Duration latencia = DurationStyle.detectAndParse(opcion(opciones, "inventario.latencia", "20ms"));
+        List<String> argumentosAplicacion = Arrays.stream(args)
+                .filter(arg -> !arg.startsWith("--arranque.") && !arg.startsWith("--inventario."))
+                .toList();
+
+        Map<Modo, List<Duration>> tiempos = new EnumMap<>(Modo.class);
+        HttpClient cliente = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        try (InventarioSimulado inventario = new InventarioSimulado(latencia, 0)) {
+            for (int i = 1; i <= repeticiones; i++) {
+                for (Modo modo : modos) {
+                    int puerto = puertoLibre();
+                    List<String> comando = comando(modo, jar, puerto, inventario.uri(), argumentosAplicacion);
+                    Duration tiempo = medir(cliente, modo, comando, puerto, directorio, timeout);
+                    System.out.printf(Locale.ROOT, "%-6s #%d: %d ms%n", nombre(modo), i, tiempo.toMillis());
+                    tiempos.computeIfAbsent(modo, m -> new ArrayList<>()).add(tiempo);
+                }
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%n%-6s %9s %8s %8s%n", "modo", "min", "mediana", "max");
+        tiempos.forEach((modo, medidas) -> {
+            List<Long> ms = medidas.stream().map(Duration::toMillis).sorted().toList();
+            System.out.printf(Locale.ROOT, "%-6s %6d ms %5d ms %5d ms%n",
+                    nombre(modo), ms.get(0), ms.get(ms.size() / 2), ms.get(ms.size() - 1));
+        });
+    }
+
+    private static List<String> comando(Modo modo, Path jar, int puerto, URI inventario,
+                                        List<String> argumentosAplicacion) {
+        List<String> comando = new ArrayList<>();
+        comando.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (modo == Modo.RAPIDO) {
+            // El archivo CDS solo vale con el mismo classpath con el que se creo: operator.jar, desde su directorio
+            comando.addAll(List.of("-XX:SharedArchiveFile=operator.jsa", "-Dspring.aot.enabled=true",
+                    "-jar", "operator.jar", "--spring.profiles.active=arranque"));
+        } else {
+            comando.addAll(List.of("-jar", jar.toAbsolutePath().toString()));
+        }
+        comando.addAll(List.of(
+                "--server.port=" + puerto,
+                "--spring.main.banner-mode=off",
+                // Con Spring AOT el cliente de Eureka no se puede quitar al ejecutar: solo se aisla
+                "--eureka.client.register-with-eureka=false",
+                "--eureka.client.fetch-registry=false",
+                "--spring.cloud.discovery.client.simple.instances.movies[0].uri=" + inventario,
+                "--getMovies.url=http://movies/movies/%s"));
+        comando.addAll(argumentosAplicacion);
+        return comando;
+    }
+
+    private static Duration medir(HttpClient cliente, Modo modo, List<String> comando, int puerto,
+                                  Path directorio, Duration timeout) throws IOException, InterruptedException {
+        URI base = URI.create("http://127.0.0.1:" + puerto);
+        Path log = Files.createTempFile("arranque-" + nombre(modo) + "-", ".log");
+        ProcessBuilder constructor = new ProcessBuilder(comando)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile());
+        if (modo == Modo.RAPIDO) {
+            constructor.directory(directorio.toFile());
+        }
+
+        long inicio = System.nanoTime();
+        Process proceso = constructor.start();
+        try {
+            long limite = inicio + timeout.toNanos();
+            while (System.nanoTime() < limite) {
+                if (!proceso.isAlive()) {
+                    throw new IllegalStateException("La aplicacion ha terminado con codigo " + proceso.exitValue()
+                            + " (log en " + log + ")");
+                }
+                if (atendida(cliente, base)) {
+                    Duration tiempo = Duration.ofNanos(System.nanoTime() - inicio);
+                    Files.delete(log);
+                    return tiempo;
+                }
+                Thread.sleep(SONDEO);
+            }
+            throw new IllegalStateException("Sin respuesta en " + timeout.toSeconds() + "s (log en " + log + ")");
+        } finally {
+            proceso.destroy();
+            proceso.waitFor();
+        }
+    }
+
+    private static boolean atendida(HttpClient cliente, URI base) throws InterruptedException {
+        try {
+            HttpResponse<Void> respuesta = cliente.send(
+                    Operacion.POST_COMPRA.peticion(base, new Operacion.Ids(), 100),
+                    HttpResponse.BodyHandlers.discarding());
+            return respuesta.statusCode() / 100 == 2;
+        } catch (IOException e) {
+            // Aun no escucha
+            return false;
+        }
+    }
+
+    private static int puertoLibre() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String nombre(Modo modo) {
+        return modo.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String opcion(SimpleCommandLinePropertySource opciones, String nombre, String porDefecto) {
+        String valor = opciones.getProperty(nombre);
+        return valor != null ? valor : porDefecto;
+    }
+}
@@ -2,16 +2,20 @@ package com.laboratorio.operator;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 @SpringBootApplication
 public class OperatorApplication {
 	@LoadBalanced
 	@Bean
-	public RestTemplate restTemplate() {
-		return new RestTemplate();
+	public RestTemplate restTemplate(RestTemplateBuilder builder, ClientHttpRequestFactory moviesRequestFactory) {
+		// El builder registra la observacion de cada llamada (metricas http.client.requests y
+		// propagacion de la traza al inventario)
+		return builder.requestFactory(() -> moviesRequestFactory).build();
 	}
 	public static void main(String[] args) {
 		SpringApplication.run(OperatorApplication.class, args);
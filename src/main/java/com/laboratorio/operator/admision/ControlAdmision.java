@@ -0,0 +1,124 @@
+package com.laboratorio.operator.admision;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Control de admision de /compras y /alquileres (admision.enabled). Lecturas y escrituras tienen
+ * cada una su {@link LimiteAdaptativo} de peticiones concurrentes: al alcanzarlo, la peticion se
+ * rechaza en el acto con un 503 y Retry-After en lugar de esperar en la cola de Tomcat, y las de la
+ * otra clase siguen entrando. Las escrituras esperan al inventario y se saturan antes; asi no se
+ * llevan por delante a las lecturas.
+ * <p>
+ * Metricas admision.limite, admision.en-vuelo y admision.rechazadas, con la etiqueta clase.
+ */
+@Component
+@ConditionalOnProperty(prefix = "admision", name = "enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class ControlAdmision implements HandlerInterceptor, SmartInitializingSingleton {
+
+    enum Clase {
+        LECTURA, ESCRITURA
+    }
+
+    private record Admitida(LimiteAdaptativo limite, int enVuelo, long inicio) {
+    }
+
+    private static final String ATRIBUTO = ControlAdmision.class.getName();
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${admision.tolerancia:1.5}")
+    private double tolerancia;
+
+    @Value("${admision.reintento:1s}")
+    private Duration reintento;
+
+    @Value("${admision.lectura.limite-inicial:50}")
+    private int lecturaInicial;
+
+    @Value("${admision.lectura.limite-minimo:5}")
+    private int lecturaMinimo;
+
+    @Value("${admision.lectura.limite-maximo:200}")
+    private int lecturaMaximo;
+
+    @Value("${admision.escritura.limite-inicial:20}")
+    private int escrituraInicial;
+
+    @Value("${admision.escritura.limite-minimo:2}")
+    private int escrituraMinimo;
+
+    @Value("${admision.escritura.limite-maximo:200}")
+    private int escrituraMaximo;
+
+    private final Map<Clase, LimiteAdaptativo> limites = new EnumMap<>(Clase.class);
+
+    private final Map<Clase, Counter> rechazadas = new EnumMap<>(Clase.class);
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        limites.put(Clase.LECTURA, new LimiteAdaptativo(lecturaInicial, lecturaMinimo, lecturaMaximo, tolerancia));
+        limites.put(Clase.ESCRITURA,
+                new LimiteAdaptativo(escrituraInicial, escrituraMinimo, escrituraMaximo, tolerancia));
+        limites.forEach((clase, limite) -> {
+            Tags tags = Tags.of("clase", clase.name().toLowerCase(Locale.ROOT));
+            meterRegistry.gauge("admision.limite", tags, limite, LimiteAdaptativo::limite);
+            meterRegistry.gauge("admision.en-vuelo", tags, limite, LimiteAdaptativo::enVuelo);
+            rechazadas.put(clase, meterRegistry.counter("admision.rechazadas", tags));
+        });
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        Clase clase = clase(request);
+        LimiteAdaptativo limite = limites.get(clase);
+        int enVuelo = limite.adquirir();
+        if (enVuelo < 0) {
+            rechazadas.get(clase).increment();
+            // Entre reintento y el doble, para que los clientes rechazados no vuelvan todos a la vez
+            long segundos = Math.max(1, reintento.toSeconds());
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(segundos + ThreadLocalRandom.current().nextLong(segundos + 1)));
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Servicio saturado, reintentar mas tarde");
+            return false;
+        }
+        request.setAttribute(ATRIBUTO, new Admitida(limite, enVuelo, System.nanoTime()));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(ATRIBUTO) instanceof Admitida admitida) {
+            request.removeAttribute(ATRIBUTO);
+            admitida.limite().liberar(System.nanoTime() - admitida.inicio(), admitida.enVuelo());
+        }
+    }
+
+    private static Clase clase(HttpServletRequest request) {
+        HttpMethod metodo = HttpMethod.valueOf(request.getMethod());
+        return metodo == HttpMethod.GET || metodo == HttpMethod.HEAD || metodo == HttpMethod.OPTIONS
+                ? Clase.LECTURA : Clase.ESCRITURA;
+    }
+}
@@ -0,0 +1,108 @@
+package com.laboratorio.operator.admision;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limite de peticiones concurrentes que se ajusta con la latencia observada (gradiente). Se comparan
+ * dos medias moviles de la latencia: una corta, que sigue a las ultimas peticiones, y una larga, que
+ * hace de referencia de la latencia sin cola. Mientras la corta no supere a la larga en mas de la
+ * tolerancia el limite crece (mas o menos la raiz del limite por ajuste); cuando la supera, se reduce
+ * en proporcion, como mucho a la mitad. Los ajustes se suavizan para que un pico aislado no desplome
+ * el limite.
+ * <p>
+ * Solo se ajusta con carga: si en vuelo habia menos de la mitad del limite, la latencia no dice nada
+ * sobre cuantas peticiones caben.
+ */
+final class LimiteAdaptativo {
+
+    // Muestras que abarca cada media movil
+    private static final int VENTANA_CORTA = 10;
+
+    private static final int VENTANA_LARGA = 600;
+
+    private static final double SUAVIZADO = 0.2;
+
+    private final int minimo;
+
+    private final int maximo;
+
+    private final double tolerancia;
+
+    private final AtomicInteger enVuelo = new AtomicInteger();
+
+    private volatile int limite;
+
+    // Limite sin redondear y medias en nanosegundos
+    private double estimado;
+
+    private double corta;
+
+    private double larga;
+
+    LimiteAdaptativo(int inicial, int minimo, int maximo, double tolerancia) {
+        if (minimo < 1 || minimo > maximo || inicial < minimo || inicial > maximo) {
+            throw new IllegalArgumentException("Limites de admision incoherentes: inicial " + inicial
+                    + ", minimo " + minimo + ", maximo " + maximo);
+        }
+        this.minimo = minimo;
+        this.maximo = maximo;
+        this.tolerancia = tolerancia;
+        this.estimado = inicial;
+        this.limite = inicial;
+    }
+
+    /**
+     * Reserva un hueco si quedan por debajo del limite.
+     *
+     * @return las peticiones en vuelo antes de esta, o -1 si se ha alcanzado el limite
+     */
+    int adquirir() {
+        while (true) {
+            int actuales = enVuelo.get();
+            if (actuales >= limite) {
+                return -1;
+            }
+            if (enVuelo.compareAndSet(actuales, actuales + 1)) {
+                return actuales;
+            }
+        }
+    }
+
+    /**
+     * Libera el hueco de una peticion terminada y ajusta el limite con su latencia.
+     *
+     * @param enVueloAlEntrar el valor devuelto por {@link #adquirir()}
+     */
+    void liberar(long duracionNanos, int enVueloAlEntrar) {
+        enVuelo.decrementAndGet();
+        observar(duracionNanos, enVueloAlEntrar + 1);
+    }
+
+    int limite() {
+        return limite;
+    }
+
+    int enVuelo() {
+        return enVuelo.get();
+    }
+
+    private synchronized void observar(double duracion, int concurrentes) {
+        if (larga == 0) {
+            corta = duracion;
+            larga = duracion;
+        }
+        corta += (duracion - corta) * 2 / (VENTANA_CORTA + 1);
+        larga += (duracion - larga) * 2 / (VENTANA_LARGA + 1);
+        // Tras una bajada sostenida de la latencia la referencia se adapta antes
+        if (larga > 2 * corta) {
+            larga *= 0.95;
+        }
+        if (concurrentes < estimado / 2) {
+            return;
+        }
+        double gradiente = Math.max(0.5, Math.min(1.0, tolerancia * larga / corta));
+        double nuevo = estimado * gradiente + Math.sqrt(estimado);
+        estimado = Math.max(minimo, Math.min(maximo, estimado * (1 - SUAVIZADO) + nuevo * SUAVIZADO));
+        limite = (int) estimado;
+    }
+}
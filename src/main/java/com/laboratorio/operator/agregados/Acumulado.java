@@ -0,0 +1,71 @@
+package com.laboratorio.operator.agregados;
+
+import com.laboratorio.operator.model.ResumenIngresos;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Totales de un grupo que admiten sumar y restar importes. La suma se lleva en BigDecimal para
+ * que restar un importe deshaga exactamente su suma; los importes se guardan con su numero de
+ * apariciones para poder recalcular minimo y maximo al quitar uno.
+ * <p>
+ * Sumar y restar conmutan: los cambios de dos transacciones pueden llegar en distinto orden al de
+ * sus commits, asi que restar un importe que aun no se ha sumado deja una aparicion negativa
+ * pendiente que se compensa al llegar la suma.
+ * <p>
+ * No es seguro para uso concurrente: las modificaciones se serializan por clave desde
+ * {@link Dimensiones}. El resumen se publica en cada cambio y se lee sin bloquear.
+ */
+final class Acumulado {
+
+    private long operaciones;
+    private BigDecimal total = BigDecimal.ZERO;
+    private final TreeMap<Double, Integer> importes = new TreeMap<>();
+    private volatile ResumenIngresos resumen = ResumenIngresos.VACIO;
+
+    void sumar(double importe) {
+        aplicar(importe, 1);
+    }
+
+    void restar(double importe) {
+        aplicar(importe, -1);
+    }
+
+    // Sin importes pendientes ni registrados: el grupo se puede descartar
+    boolean vacio() {
+        return importes.isEmpty();
+    }
+
+    ResumenIngresos resumen() {
+        return resumen;
+    }
+
+    private void aplicar(double importe, int signo) {
+        operaciones += signo;
+        total = signo > 0 ? total.add(BigDecimal.valueOf(importe)) : total.subtract(BigDecimal.valueOf(importe));
+        importes.merge(importe, signo, (veces, cambio) -> veces + cambio == 0 ? null : veces + cambio);
+        publicar();
+    }
+
+    private void publicar() {
+        Double minimo = null;
+        for (Map.Entry<Double, Integer> entrada : importes.entrySet()) {
+            if (entrada.getValue() > 0) {
+                minimo = entrada.getKey();
+                break;
+            }
+        }
+        Double maximo = null;
+        for (Map.Entry<Double, Integer> entrada : importes.descendingMap().entrySet()) {
+            if (entrada.getValue() > 0) {
+                maximo = entrada.getKey();
+                break;
+            }
+        }
+        resumen = operaciones == 0 && importes.isEmpty()
+                ? ResumenIngresos.VACIO
+                : new ResumenIngresos(operaciones, total, minimo, maximo);
+    }
+}
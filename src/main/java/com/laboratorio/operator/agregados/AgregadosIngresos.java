@@ -0,0 +1,164 @@
+package com.laboratorio.operator.agregados;
+
+import com.laboratorio.operator.archivo.Archivo;
+import com.laboratorio.operator.evento.CambioAlquiler;
+import com.laboratorio.operator.evento.CambioCompra;
+import com.laboratorio.operator.fragmentos.Fragmentos;
+import com.laboratorio.operator.model.Alquiler;
+import com.laboratorio.operator.model.Compra;
+import com.laboratorio.operator.model.ResumenIngresos;
+import com.laboratorio.operator.model.VerificacionIngresos;
+import com.laboratorio.operator.repository.AlquilerRepository;
+import com.laboratorio.operator.repository.CompraRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Totales de ingresos de compras (precioTotal) y alquileres (precioFinal) por pelicula, por dia
+ * y por tipo de pago o recibo, mantenidos en cada alta, modificacion y borrado para que las
+ * consultas no recorran las tablas. Una modificacion resta los valores anteriores y suma los
+ * nuevos. Se calculan desde las tablas y el archivo al arrancar.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AgregadosIngresos implements SmartInitializingSingleton {
+
+    private final CompraRepository compraRepository;
+
+    private final AlquilerRepository alquilerRepository;
+
+    private final Fragmentos fragmentos;
+
+    private final Archivo archivo;
+
+    // Zona en la que se agrupan las operaciones por dia
+    @Value("${ingresos.zona-horaria:UTC}")
+    private ZoneId zona;
+
+    private volatile Dimensiones compras = new Dimensiones();
+
+    private volatile Dimensiones alquileres = new Dimensiones();
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        long inicio = System.nanoTime();
+        Dimensiones[] calculadas = calcular();
+        compras = calculadas[0];
+        alquileres = calculadas[1];
+        log.info("Agregados de ingresos calculados: {} compras y {} alquileres en {} ms",
+                compras.total().operaciones(), alquileres.total().operaciones(),
+                (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    // Tras el commit, para no contar operaciones que acaban deshaciendose. Fuera de una
+    // transaccion se aplica al publicarse.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCambioCompra(CambioCompra cambio) {
+        if (cambio.anterior() != null) {
+            restar(compras, cambio.anterior());
+        }
+        if (cambio.actual() != null) {
+            sumar(compras, cambio.actual());
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCambioAlquiler(CambioAlquiler cambio) {
+        if (cambio.anterior() != null) {
+            restar(alquileres, cambio.anterior());
+        }
+        if (cambio.actual() != null) {
+            sumar(alquileres, cambio.actual());
+        }
+    }
+
+    public ResumenIngresos compras() {
+        return compras.total();
+    }
+
+    public ResumenIngresos comprasPorPelicula(String idPelicula) {
+        return compras.pelicula(idPelicula);
+    }
+
+    public ResumenIngresos comprasPorDia(LocalDate dia) {
+        return compras.dia(dia.toString());
+    }
+
+    public ResumenIngresos comprasPorTipoPago(String tipoPago) {
+        return compras.tipo(tipoPago);
+    }
+
+    public ResumenIngresos alquileres() {
+        return alquileres.total();
+    }
+
+    public ResumenIngresos alquileresPorPelicula(String idPelicula) {
+        return alquileres.pelicula(idPelicula);
+    }
+
+    // Un alquiler cuenta en el dia de su fechaDesde
+    public ResumenIngresos alquileresPorDia(LocalDate dia) {
+        return alquileres.dia(dia.toString());
+    }
+
+    public ResumenIngresos alquileresPorTipoRecibo(String tipoRecibo) {
+        return alquileres.tipo(tipoRecibo);
+    }
+
+    /**
+     * Recalcula los agregados desde las tablas y los compara con los mantenidos en memoria. Con
+     * escrituras en curso puede informar de diferencias transitorias.
+     */
+    public VerificacionIngresos verificar() {
+        Dimensiones[] esperadas = calcular();
+        List<String> diferencias = new ArrayList<>(compras.diferencias("compras", esperadas[0]));
+        diferencias.addAll(alquileres.diferencias("alquileres", esperadas[1]));
+        if (!diferencias.isEmpty()) {
+            log.warn("Agregados de ingresos inconsistentes: {}", diferencias);
+        }
+        return new VerificacionIngresos(diferencias.isEmpty(), diferencias);
+    }
+
+    private Dimensiones[] calcular() {
+        Dimensiones nuevasCompras = new Dimensiones();
+        Dimensiones nuevosAlquileres = new Dimensiones();
+        // Los registros archivados siguen contando
+        fragmentos.recorrer(compraRepository::streamAll,
+                todas -> archivo.compras().unir(todas).forEach(c -> sumar(nuevasCompras, c)));
+        fragmentos.recorrer(alquilerRepository::streamAll,
+                todos -> archivo.alquileres().unir(todos).forEach(a -> sumar(nuevosAlquileres, a)));
+        return new Dimensiones[]{nuevasCompras, nuevosAlquileres};
+    }
+
+    private void sumar(Dimensiones dimensiones, Compra c) {
+        dimensiones.sumar(String.valueOf(c.getIdPelicula()), dia(c.getFechaCompra()), c.getTipoPago(), c.getPrecioTotal());
+    }
+
+    private void sumar(Dimensiones dimensiones, Alquiler a) {
+        dimensiones.sumar(a.getIdPelicula(), dia(a.getFechaDesde()), a.getTipoRecibo(), a.getPrecioFinal());
+    }
+
+    private void restar(Dimensiones dimensiones, Compra c) {
+        dimensiones.restar(String.valueOf(c.getIdPelicula()), dia(c.getFechaCompra()), c.getTipoPago(), c.getPrecioTotal());
+    }
+
+    private void restar(Dimensiones dimensiones, Alquiler a) {
+        dimensiones.restar(a.getIdPelicula(), dia(a.getFechaDesde()), a.getTipoRecibo(), a.getPrecioFinal());
+    }
+
+    private String dia(Date fecha) {
+        return fecha != null ? LocalDate.ofInstant(Instant.ofEpochMilli(fecha.getTime()), zona).toString() : null;
+    }
+}
@@ -0,0 +1,115 @@
+package com.laboratorio.operator.agregados;
+
+import com.laboratorio.operator.model.ResumenIngresos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Agregados de un tipo de operacion (compras o alquileres): el total general y los totales por
+ * pelicula, por dia y por tipo de pago o recibo. Los grupos que se quedan sin operaciones ni
+ * importes pendientes se eliminan para que los mapas no crezcan con los dias.
+ */
+final class Dimensiones {
+
+    private final Acumulado total = new Acumulado();
+    private final Map<String, Acumulado> porPelicula = new ConcurrentHashMap<>();
+    private final Map<String, Acumulado> porDia = new ConcurrentHashMap<>();
+    private final Map<String, Acumulado> porTipo = new ConcurrentHashMap<>();
+
+    void sumar(String idPelicula, String dia, String tipo, double importe) {
+        synchronized (total) {
+            total.sumar(importe);
+        }
+        sumar(porPelicula, idPelicula, importe);
+        sumar(porDia, dia, importe);
+        sumar(porTipo, tipo, importe);
+    }
+
+    void restar(String idPelicula, String dia, String tipo, double importe) {
+        synchronized (total) {
+            total.restar(importe);
+        }
+        restar(porPelicula, idPelicula, importe);
+        restar(porDia, dia, importe);
+        restar(porTipo, tipo, importe);
+    }
+
+    ResumenIngresos total() {
+        return total.resumen();
+    }
+
+    ResumenIngresos pelicula(String idPelicula) {
+        return resumen(porPelicula, idPelicula);
+    }
+
+    ResumenIngresos dia(String dia) {
+        return resumen(porDia, dia);
+    }
+
+    ResumenIngresos tipo(String tipo) {
+        return resumen(porTipo, tipo);
+    }
+
+    /**
+     * Describe los grupos cuyo resumen no coincide con el de {@code otras}.
+     */
+    List<String> diferencias(String nombre, Dimensiones otras) {
+        List<String> diferencias = new ArrayList<>();
+        comparar(nombre, total(), otras.total(), diferencias);
+        diferencias(nombre + ".pelicula", porPelicula, otras.porPelicula, diferencias);
+        diferencias(nombre + ".dia", porDia, otras.porDia, diferencias);
+        diferencias(nombre + ".tipo", porTipo, otras.porTipo, diferencias);
+        return diferencias;
+    }
+
+    private static void sumar(Map<String, Acumulado> grupos, String clave, double importe) {
+        if (clave == null) {
+            return;
+        }
+        // compute serializa las modificaciones de una misma clave y permite quitar el grupo vacio
+        grupos.compute(clave, (k, acumulado) -> {
+            Acumulado destino = acumulado != null ? acumulado : new Acumulado();
+            destino.sumar(importe);
+            return destino.vacio() ? null : destino;
+        });
+    }
+
+    private static void restar(Map<String, Acumulado> grupos, String clave, double importe) {
+        if (clave == null) {
+            return;
+        }
+        grupos.compute(clave, (k, acumulado) -> {
+            Acumulado destino = acumulado != null ? acumulado : new Acumulado();
+            destino.restar(importe);
+            return destino.vacio() ? null : destino;
+        });
+    }
+
+    private static ResumenIngresos resumen(Map<String, Acumulado> grupos, String clave) {
+        Acumulado acumulado = clave != null ? grupos.get(clave) : null;
+        return acumulado != null ? acumulado.resumen() : ResumenIngresos.VACIO;
+    }
+
+    private static void diferencias(String nombre, Map<String, Acumulado> actuales, Map<String, Acumulado> esperados,
+                                    List<String> diferencias) {
+        TreeSet<String> claves = new TreeSet<>(actuales.keySet());
+        claves.addAll(esperados.keySet());
+        for (String clave : claves) {
+            comparar(nombre + "[" + clave + "]", resumen(actuales, clave), resumen(esperados, clave), diferencias);
+        }
+    }
+
+    private static void comparar(String nombre, ResumenIngresos actual, ResumenIngresos esperado, List<String> diferencias) {
+        if (actual.operaciones() != esperado.operaciones()
+                || actual.total().compareTo(esperado.total()) != 0
+                || !Objects.equals(actual.minimo(), esperado.minimo())
+                || !Objects.equals(actual.maximo(), esperado.maximo())) {
+            diferencias.add(nombre + ": " + actual + " en memoria, " + esperado + " en base de datos");
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.laboratorio.operator.archivo;
+
+import com.laboratorio.operator.fragmentos.Fragmentable;
+import com.laboratorio.operator.fragmentos.Fragmentos;
+import com.laboratorio.operator.repository.AlquilerRepository;
+import com.laboratorio.operator.repository.CompraRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Archivado en segundo plano (archivo.enabled): cada archivo.intervalo pasa al {@link Archivo} las
+ * compras con fechaCompra y los alquileres con fechaHasta anteriores a archivo.horizonte y los
+ * borra de las tablas. Cada segmento se escribe y se fuerza a disco con un nombre temporal, con sus
+ * filas bloqueadas en la transaccion que las borra, y se publica al confirmarla: si la transaccion
+ * falla se descarta y las filas siguen solo en la tabla. Un segmento temporal que queda de una caida
+ * se publica en la siguiente pasada si sus filas ya no estan en la tabla y se descarta si siguen.
+ * <p>
+ * El borrado no es un cambio: no se publica en /cambios ni resta de los agregados de ingresos, que
+ * siguen contando los registros archivados. Con varias instancias sobre las mismas bases basta con
+ * activarlo en una, con el directorio del archivo compartido por todas.
+ */
+@Component
+@ConditionalOnProperty(prefix = "archivo", name = "enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class Archivador {
+
+    private final Archivo archivo;
+
+    private final CompraRepository compraRepository;
+
+    private final AlquilerRepository alquilerRepository;
+
+    private final Fragmentos fragmentos;
+
+    private final TransactionTemplate transaccion;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${archivo.horizonte:365d}")
+    private Duration horizonte;
+
+    @Value("${archivo.intervalo:1h}")
+    private Duration intervalo;
+
+    @Value("${archivo.filas-por-segmento:10000}")
+    private int filasPorSegmento;
+
+    private ScheduledExecutorService pasadas;
+
+    // Con el contexto completo, para que los agregados y el indice ya incluyan el archivo
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancar() {
+        pasadas = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("archivador").daemon().factory());
+        pasadas.scheduleWithFixedDelay(this::pasada, 0, intervalo.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void parar() {
+        if (pasadas != null) {
+            pasadas.shutdownNow();
+        }
+    }
+
+    /**
+     * Archiva todo lo anterior al horizonte, en segmentos de archivo.filas-por-segmento filas como mucho.
+     */
+    public void pasada() {
+        Date antesDe = Date.from(Instant.now().minus(horizonte));
+        long inicio = System.nanoTime();
+        try {
+            int compras = archivar("compras", archivo.compras(), compraRepository,
+                    limite -> compraRepository.findParaArchivar(antesDe, limite));
+            int alquileres = archivar("alquileres", archivo.alquileres(), alquilerRepository,
+                    limite -> alquilerRepository.findParaArchivar(antesDe, limite));
+            if (compras + alquileres > 0) {
+                log.info("Archivadas {} compras y {} alquileres anteriores a {} en {} ms", compras, alquileres,
+                        antesDe.toInstant(), (System.nanoTime() - inicio) / 1_000_000);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Pasada del archivador interrumpida: {}", e.getMessage(), e);
+        }
+    }
+
+    private <T extends Fragmentable> int archivar(String tabla, ArchivoSegmentos<T> segmentos,
+                                                  JpaRepository<T, Long> repositorio,
+                                                  Function<PageRequest, List<T>> antiguos) {
+        Counter archivados = meterRegistry.counter("archivo.archivados", "tabla", tabla);
+        PageRequest limite = PageRequest.ofSize(filasPorSegmento);
+        recuperar(tabla, segmentos, repositorio);
+        int total = 0;
+        for (int i = 0; i < fragmentos.cantidad(); i++) {
+            int fragmento = i;
+            int lote;
+            do {
+                lote = Fragmentos.en(fragmento, () -> transaccion.execute(status -> {
+                    List<T> filas = antiguos.apply(limite);
+                    if (filas.isEmpty()) {
+                        return 0;
+                    }
+                    ArchivoSegmentos<T>.Pendiente pendiente;
+                    try {
+                        pendiente = segmentos.preparar(filas);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("No se puede escribir un segmento de " + tabla, e);
+                    }
+                    alTerminar(tabla, pendiente);
+                    // Borrado de cada entidad y no en bloque, para no vaciar la cache de segundo nivel
+                    repositorio.deleteAll(filas);
+                    return filas.size();
+                }));
+                archivados.increment(lote);
+                total += lote;
+            } while (lote == filasPorSegmento);
+        }
+        return total;
+    }
+
+    // Todas las filas de un segmento salen de un fragmento y se borran en la transaccion que lo
+    // preparo: si no queda ninguna en la tabla esa transaccion se confirmo
+    private <T extends Fragmentable> void recuperar(String tabla, ArchivoSegmentos<T> segmentos,
+                                                    JpaRepository<T, Long> repositorio) {
+        List<ArchivoSegmentos<T>.Pendiente> pendientes;
+        try {
+            pendientes = segmentos.pendientes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pueden listar los segmentos pendientes de " + tabla, e);
+        }
+        for (ArchivoSegmentos<T>.Pendiente pendiente : pendientes) {
+            try {
+                List<Long> ids;
+                try {
+                    ids = pendiente.ids();
+                } catch (IOException e) {
+                    // A medio escribir: la transaccion no llego a confirmarse
+                    log.warn("Segmento pendiente de {} incompleto, se descarta: {}", tabla, pendiente.fichero());
+                    pendiente.descartar();
+                    continue;
+                }
+                boolean borradas = Fragmentos.en(fragmentos.deId(ids.get(0)),
+                        () -> transaccion.execute(status -> repositorio.findAllById(ids).isEmpty()));
+                if (borradas) {
+                    log.info("Se publica el segmento pendiente de {} {}", tabla, pendiente.fichero());
+                    pendiente.publicar();
+                } else {
+                    log.info("Se descarta el segmento pendiente de {} {}", tabla, pendiente.fichero());
+                    pendiente.descartar();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se puede recuperar el segmento " + pendiente.fichero(), e);
+            }
+        }
+    }
+
+    // Publica el segmento al confirmar la transaccion en curso y lo descarta si se deshace. Si la
+    // publicacion falla el temporal queda para la siguiente pasada
+    private static void alTerminar(String tabla, ArchivoSegmentos<?>.Pendiente pendiente) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    pendiente.publicar();
+                } catch (IOException e) {
+                    log.error("No se puede publicar el segmento {} de {}: {}", pendiente.fichero(), tabla,
+                            e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                // Con un resultado desconocido se queda para que lo resuelva la siguiente pasada
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                try {
+                    pendiente.descartar();
+                } catch (IOException e) {
+                    log.warn("No se puede borrar el segmento {} de {}: {}", pendiente.fichero(), tabla, e.getMessage());
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package com.laboratorio.operator.archivo;
+
+import com.laboratorio.operator.model.Alquiler;
+import com.laboratorio.operator.model.Compra;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archivo de compras y alquileres antiguos, que el {@link Archivador} saca de las tablas y guarda
+ * en segmentos por columnas comprimidos en disco (archivo.directorio). Las lecturas por id, las
+ * paginas, las exportaciones y los agregados los unen con las tablas. Los registros archivados son
+ * de solo lectura.
+ * <p>
+ * Se lee aunque el archivador este desactivado en esta instancia. La lista de segmentos se
+ * refresca cada archivo.refresco para ver los que escriben otras instancias sobre el mismo
+ * directorio compartido; hasta entonces, los registros que acaban de archivar no aparecen aqui.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class Archivo {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${archivo.directorio:archivo}")
+    private Path directorio;
+
+    // Segmentos descomprimidos en memoria, de cada tabla
+    @Value("${archivo.segmentos-en-cache:16}")
+    private int segmentosEnCache;
+
+    @Value("${archivo.refresco:1m}")
+    private Duration refresco;
+
+    private ArchivoSegmentos<Compra> compras;
+
+    private ArchivoSegmentos<Alquiler> alquileres;
+
+    private ScheduledExecutorService refrescos;
+
+    // Antes de que los agregados y el indice de alquileres se calculen con el archivo
+    @PostConstruct
+    public void abrir() {
+        compras = new ArchivoSegmentos<>("compras", directorio.resolve("compras"), segmentosEnCache,
+                Archivo::registro, Archivo::compra, meterRegistry);
+        alquileres = new ArchivoSegmentos<>("alquileres", directorio.resolve("alquileres"), segmentosEnCache,
+                Archivo::registro, Archivo::alquiler, meterRegistry);
+        try {
+            compras.refrescar();
+            alquileres.refrescar();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se puede leer el archivo en " + directorio, e);
+        }
+        refrescos = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("archivo-refresco").daemon().factory());
+        refrescos.scheduleWithFixedDelay(this::refrescar, refresco.toMillis(), refresco.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        refrescos.shutdownNow();
+    }
+
+    public ArchivoSegmentos<Compra> compras() {
+        return compras;
+    }
+
+    public ArchivoSegmentos<Alquiler> alquileres() {
+        return alquileres;
+    }
+
+    private void refrescar() {
+        try {
+            compras.refrescar();
+            alquileres.refrescar();
+        } catch (IOException | RuntimeException e) {
+            log.warn("No se ha podido refrescar el archivo en {}: {}", directorio, e.getMessage());
+        }
+    }
+
+    private static RegistroArchivado registro(Compra compra) {
+        Long fecha = milisegundos(compra.getFechaCompra());
+        return new RegistroArchivado(compra.getId(), compra.getVersion(), String.valueOf(compra.getIdPelicula()),
+                fecha, fecha, compra.getPrecioTotal(), compra.getTipoPago());
+    }
+
+    private static Compra compra(RegistroArchivado registro) {
+        Compra compra = new Compra();
+        compra.setId(registro.id());
+        compra.setVersion(registro.version());
+        compra.setIdPelicula(Integer.parseInt(registro.idPelicula()));
+        compra.setFechaCompra(fecha(registro.desde()));
+        compra.setPrecioTotal(registro.importe());
+        compra.setTipoPago(registro.tipo());
+        return compra;
+    }
+
+    private static RegistroArchivado registro(Alquiler alquiler) {
+        return new RegistroArchivado(alquiler.getId(), alquiler.getVersion(), alquiler.getIdPelicula(),
+                milisegundos(alquiler.getFechaDesde()), milisegundos(alquiler.getFechaHasta()),
+                alquiler.getPrecioFinal(), alquiler.getTipoRecibo());
+    }
+
+    private static Alquiler alquiler(RegistroArchivado registro) {
+        Alquiler alquiler = new Alquiler();
+        alquiler.setId(registro.id());
+        alquiler.setVersion(registro.version());
+        alquiler.setIdPelicula(registro.idPelicula());
+        alquiler.setFechaDesde(fecha(registro.desde()));
+        alquiler.setFechaHasta(fecha(registro.hasta()));
+        alquiler.setPrecioFinal(registro.importe());
+        alquiler.setTipoRecibo(registro.tipo());
+        return alquiler;
+    }
+
+    private static Long milisegundos(Date fecha) {
+        return fecha != null ? fecha.getTime() : null;
+    }
+
+    private static Date fecha(Long milisegundos) {
+        return milisegundos != null ? new Date(milisegundos) : null;
+    }
+}
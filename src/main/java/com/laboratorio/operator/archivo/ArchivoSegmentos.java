@@ -0,0 +1,446 @@
+package com.laboratorio.operator.archivo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.laboratorio.operator.fragmentos.Fragmentable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Segmentos archivados de una tabla, en su directorio. Las consultas descartan con las estadisticas
+ * de cada segmento los que no pueden tener filas que les interesen y solo leen el resto; los
+ * segmentos leidos se guardan descomprimidos en una cache.
+ * <p>
+ * Un segmento se prepara con un nombre temporal y solo se publica, y se ve en las consultas, cuando
+ * se confirma el borrado de sus filas. Si aun asi un registro esta a la vez en la tabla y en el
+ * archivo, o en varios segmentos, gana la tabla y, entre segmentos, el mas reciente.
+ */
+@Slf4j
+public final class ArchivoSegmentos<T extends Fragmentable> {
+
+    private static final Pattern NOMBRE = Pattern.compile("segmento-(\\d+)\\.col");
+
+    private static final Pattern PENDIENTE = Pattern.compile("pendiente-[0-9a-f-]+\\.col");
+
+    private record Segmento(long numero, Path fichero, SegmentoColumnar.Estadisticas estadisticas, long bytes) {
+    }
+
+    private final String tabla;
+
+    private final Path directorio;
+
+    private final Function<T, RegistroArchivado> aRegistro;
+
+    private final Function<RegistroArchivado, T> aEntidad;
+
+    private final Cache<Path, SegmentoColumnar.Columnas> leidos;
+
+    private final Counter descartados;
+
+    private final Counter consultados;
+
+    // Por numero, del mas antiguo al mas reciente; se sustituye entera al cambiar
+    private volatile List<Segmento> segmentos = List.of();
+
+    ArchivoSegmentos(String tabla, Path directorio, int segmentosEnCache, Function<T, RegistroArchivado> aRegistro,
+                     Function<RegistroArchivado, T> aEntidad, MeterRegistry meterRegistry) {
+        this.tabla = tabla;
+        this.directorio = directorio;
+        this.aRegistro = aRegistro;
+        this.aEntidad = aEntidad;
+        this.leidos = Caffeine.newBuilder().maximumSize(segmentosEnCache).build();
+        this.descartados = meterRegistry.counter("archivo.segmentos.consultados", "tabla", tabla, "resultado", "descartado");
+        this.consultados = meterRegistry.counter("archivo.segmentos.consultados", "tabla", tabla, "resultado", "leido");
+        Gauge.builder("archivo.segmentos", this, a -> a.segmentos.size()).tag("tabla", tabla).register(meterRegistry);
+        Gauge.builder("archivo.filas", this, a -> a.segmentos.stream().mapToLong(s -> s.estadisticas().filas()).sum())
+                .tag("tabla", tabla).register(meterRegistry);
+        Gauge.builder("archivo.tamano", this, a -> a.segmentos.stream().mapToLong(Segmento::bytes).sum())
+                .tag("tabla", tabla).baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * Vuelve a leer la lista de segmentos del directorio, con los que hayan escrito otras instancias.
+     */
+    synchronized void refrescar() throws IOException {
+        if (!Files.isDirectory(directorio)) {
+            segmentos = List.of();
+            return;
+        }
+        Map<Path, Segmento> conocidos = new HashMap<>();
+        segmentos.forEach(segmento -> conocidos.put(segmento.fichero(), segmento));
+        List<Segmento> encontrados = new ArrayList<>();
+        try (Stream<Path> listado = Files.list(directorio)) {
+            for (Path fichero : listado.toList()) {
+                Matcher nombre = NOMBRE.matcher(fichero.getFileName().toString());
+                if (!nombre.matches()) {
+                    continue;
+                }
+                Segmento segmento = conocidos.get(fichero);
+                if (segmento == null) {
+                    try {
+                        segmento = new Segmento(Long.parseLong(nombre.group(1)), fichero,
+                                SegmentoColumnar.leerEstadisticas(fichero), Files.size(fichero));
+                    } catch (IOException e) {
+                        log.warn("Segmento de {} ignorado: {}", tabla, e.getMessage());
+                        continue;
+                    }
+                }
+                encontrados.add(segmento);
+            }
+        }
+        encontrados.sort(Comparator.comparingLong(Segmento::numero));
+        segmentos = List.copyOf(encontrados);
+        leidos.asMap().keySet().retainAll(encontrados.stream().map(Segmento::fichero).toList());
+    }
+
+    /**
+     * Escribe las entidades, ordenadas por id, en un segmento nuevo. Al volver ya esta en disco.
+     */
+    void archivar(List<T> entidades) throws IOException {
+        Pendiente pendiente = preparar(entidades);
+        try {
+            pendiente.publicar();
+        } finally {
+            pendiente.descartar();
+        }
+    }
+
+    /**
+     * Escribe las entidades, ordenadas por id, en un segmento que las consultas no ven hasta que se
+     * publica. Al volver ya esta en disco.
+     */
+    Pendiente preparar(List<T> entidades) throws IOException {
+        List<RegistroArchivado> registros = entidades.stream().map(aRegistro).toList();
+        Files.createDirectories(directorio);
+        Path temporal = directorio.resolve("pendiente-" + UUID.randomUUID() + ".col");
+        SegmentoColumnar.escribirTemporal(temporal, registros);
+        return new Pendiente(temporal);
+    }
+
+    /**
+     * Segmentos preparados que no se publicaron ni se descartaron, por una caida entre la escritura y
+     * el final de su transaccion.
+     */
+    List<Pendiente> pendientes() throws IOException {
+        if (!Files.isDirectory(directorio)) {
+            return List.of();
+        }
+        try (Stream<Path> listado = Files.list(directorio)) {
+            return listado.filter(fichero -> PENDIENTE.matcher(fichero.getFileName().toString()).matches())
+                    .map(Pendiente::new)
+                    .toList();
+        }
+    }
+
+    public Optional<T> buscar(long id) {
+        return registro(id).map(aEntidad);
+    }
+
+    public Optional<Long> version(long id) {
+        return registro(id).map(RegistroArchivado::version);
+    }
+
+    public boolean contiene(long id) {
+        return registro(id).isPresent();
+    }
+
+    /**
+     * Completa una pagina de la tabla con las filas archivadas que cumplen los mismos filtros: une
+     * las dos en orden de id y se queda con las primeras. El rango de fechas selecciona los
+     * periodos que se solapan con [desde, hasta); en las compras, su fecha. Una copia archivada
+     * solo cuenta si es la version vigente de su id: se descarta si el id sigue en la tabla o en un
+     * segmento mas reciente, cumpla o no esa otra copia los filtros.
+     *
+     * @param vivos pagina de la tabla, ordenada por id
+     * @param enTabla cuales de los ids dados siguen en la tabla
+     */
+    public List<T> completarPagina(List<T> vivos, Function<Collection<Long>, Collection<Long>> enTabla,
+                                   long despuesDe, String idPelicula, String tipo, Date desde, Date hasta,
+                                   int limite) {
+        List<Segmento> actuales = segmentos;
+        if (actuales.isEmpty()) {
+            return vivos;
+        }
+        SegmentoColumnar.Filtro filtro = new SegmentoColumnar.Filtro(idPelicula, tipo,
+                desde != null ? desde.getTime() : null, hasta != null ? hasta.getTime() : null);
+        TreeMap<Long, T> pagina = new TreeMap<>();
+        for (int i = 0; i < actuales.size(); i++) {
+            Segmento segmento = actuales.get(i);
+            if (!segmento.estadisticas().puedeContener(despuesDe, filtro)) {
+                descartados.increment();
+                continue;
+            }
+            SegmentoColumnar.Columnas columnas = columnas(segmento);
+            int fila = columnas.primeraDespuesDe(despuesDe);
+            int encontradas = 0;
+            // Por lotes de las que faltan, hasta tener el limite de copias vigentes o acabar el segmento
+            while (fila < columnas.filas() && encontradas < limite) {
+                Map<Long, Integer> lote = new LinkedHashMap<>();
+                for (; fila < columnas.filas() && lote.size() < limite - encontradas; fila++) {
+                    long id = columnas.id(fila);
+                    if (columnas.cumple(fila, filtro) && !hayCopiaPosterior(actuales, i, id)) {
+                        lote.put(id, fila);
+                    }
+                }
+                if (lote.isEmpty()) {
+                    continue;
+                }
+                lote.keySet().removeAll(enTabla.apply(List.copyOf(lote.keySet())));
+                lote.forEach((id, vigente) -> pagina.put(id, aEntidad.apply(columnas.registro(vigente))));
+                encontradas += lote.size();
+            }
+        }
+        vivos.forEach(vivo -> pagina.put(vivo.getId(), vivo));
+        return pagina.values().stream().limit(limite).toList();
+    }
+
+    /**
+     * Une un recorrido completo de la tabla con todas las filas archivadas, en orden de id. Los
+     * segmentos se leen sin pasar por la cache y solo estan en memoria a la vez los que comparten
+     * rango de ids.
+     *
+     * @param vivos recorrido de la tabla, ordenado por id
+     */
+    public Stream<T> unir(Stream<T> vivos) {
+        List<Segmento> actuales = segmentos;
+        if (actuales.isEmpty()) {
+            return vivos;
+        }
+        Iterator<T> enTabla = vivos.iterator();
+        Iterator<RegistroArchivado> enArchivo = new Recorrido(actuales);
+        Iterator<T> union = new Iterator<>() {
+
+            private T vivo = siguiente(enTabla);
+
+            private RegistroArchivado archivado = siguiente(enArchivo);
+
+            @Override
+            public boolean hasNext() {
+                return vivo != null || archivado != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (archivado == null || (vivo != null && vivo.getId() <= archivado.id())) {
+                    if (archivado != null && vivo.getId() == archivado.id()) {
+                        archivado = siguiente(enArchivo);
+                    }
+                    T fila = vivo;
+                    vivo = siguiente(enTabla);
+                    return fila;
+                }
+                T fila = aEntidad.apply(archivado);
+                archivado = siguiente(enArchivo);
+                return fila;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(union,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(vivos::close);
+    }
+
+    private Optional<RegistroArchivado> registro(long id) {
+        List<Segmento> actuales = segmentos;
+        for (int i = actuales.size() - 1; i >= 0; i--) {
+            Segmento segmento = actuales.get(i);
+            if (!segmento.estadisticas().puedeContener(id)) {
+                descartados.increment();
+                continue;
+            }
+            SegmentoColumnar.Columnas columnas = columnas(segmento);
+            int fila = columnas.buscar(id);
+            if (fila >= 0) {
+                return Optional.of(columnas.registro(fila));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private boolean hayCopiaPosterior(List<Segmento> actuales, int segmento, long id) {
+        for (int i = segmento + 1; i < actuales.size(); i++) {
+            Segmento posterior = actuales.get(i);
+            if (posterior.estadisticas().puedeContener(id) && columnas(posterior).buscar(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private SegmentoColumnar.Columnas columnas(Segmento segmento) {
+        consultados.increment();
+        return leidos.get(segmento.fichero(), fichero -> leer(segmento));
+    }
+
+    private SegmentoColumnar.Columnas leer(Segmento segmento) {
+        try {
+            return SegmentoColumnar.leer(segmento.fichero());
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se puede leer el segmento " + segmento.fichero() + " de " + tabla, e);
+        }
+    }
+
+    private static <E> E siguiente(Iterator<E> iterador) {
+        return iterador.hasNext() ? iterador.next() : null;
+    }
+
+    /**
+     * Segmento escrito con un nombre temporal: se publica con su nombre definitivo o se descarta.
+     */
+    final class Pendiente {
+
+        private final Path temporal;
+
+        private Pendiente(Path temporal) {
+            this.temporal = temporal;
+        }
+
+        Path fichero() {
+            return temporal;
+        }
+
+        /**
+         * Lee los ids del segmento; falla si no llego a escribirse entero.
+         */
+        List<Long> ids() throws IOException {
+            SegmentoColumnar.Columnas columnas = SegmentoColumnar.leer(temporal);
+            List<Long> ids = new ArrayList<>(columnas.filas());
+            for (int fila = 0; fila < columnas.filas(); fila++) {
+                ids.add(columnas.id(fila));
+            }
+            return ids;
+        }
+
+        /**
+         * Lo enlaza con el primer numero libre, lo anade a los segmentos consultados y borra el temporal.
+         */
+        void publicar() throws IOException {
+            synchronized (ArchivoSegmentos.this) {
+                long numero = Math.max(System.currentTimeMillis(),
+                        segmentos.isEmpty() ? 0 : segmentos.get(segmentos.size() - 1).numero() + 1);
+                while (true) {
+                    Path fichero = directorio.resolve(String.format("segmento-%016d.col", numero));
+                    try {
+                        SegmentoColumnar.publicar(temporal, fichero);
+                        List<Segmento> nuevos = new ArrayList<>(segmentos);
+                        nuevos.add(new Segmento(numero, fichero, SegmentoColumnar.leerEstadisticas(fichero),
+                                Files.size(fichero)));
+                        segmentos = List.copyOf(nuevos);
+                        break;
+                    } catch (FileAlreadyExistsException e) {
+                        numero++;
+                    }
+                }
+            }
+            Files.deleteIfExists(temporal);
+        }
+
+        void descartar() throws IOException {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Filas de todos los segmentos en orden de id, sin repetir. Un segmento se abre cuando el
+     * recorrido llega a su id minimo y se suelta al terminarlo.
+     */
+    private final class Recorrido implements Iterator<RegistroArchivado> {
+
+        private final class Cursor {
+            final SegmentoColumnar.Columnas columnas;
+            final long numero;
+            int fila;
+
+            Cursor(SegmentoColumnar.Columnas columnas, long numero) {
+                this.columnas = columnas;
+                this.numero = numero;
+            }
+
+            long id() {
+                return columnas.id(fila);
+            }
+        }
+
+        // Por id minimo, en el orden en que se abren
+        private final List<Segmento> pendientes;
+
+        private int siguiente;
+
+        // Con un mismo id, primero el segmento mas reciente
+        private final PriorityQueue<Cursor> abiertos = new PriorityQueue<>(
+                Comparator.comparingLong(Cursor::id).thenComparingLong(cursor -> -cursor.numero));
+
+        Recorrido(List<Segmento> segmentos) {
+            pendientes = segmentos.stream()
+                    .sorted(Comparator.comparingLong(segmento -> segmento.estadisticas().idMinimo()))
+                    .toList();
+        }
+
+        @Override
+        public boolean hasNext() {
+            abrir();
+            return !abiertos.isEmpty();
+        }
+
+        @Override
+        public RegistroArchivado next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Cursor cursor = abiertos.poll();
+            long id = cursor.id();
+            RegistroArchivado registro = cursor.columnas.registro(cursor.fila);
+            avanzar(cursor);
+            // Copias anteriores del mismo id
+            while (hasNext() && abiertos.peek().id() == id) {
+                avanzar(abiertos.poll());
+            }
+            return registro;
+        }
+
+        // Abre los segmentos que pueden tener un id menor o igual que el siguiente a devolver
+        private void abrir() {
+            while (siguiente < pendientes.size() && (abiertos.isEmpty()
+                    || pendientes.get(siguiente).estadisticas().idMinimo() <= abiertos.peek().id())) {
+                Segmento segmento = pendientes.get(siguiente++);
+                abiertos.add(new Cursor(leer(segmento), segmento.numero()));
+            }
+        }
+
+        private void avanzar(Cursor cursor) {
+            if (++cursor.fila < cursor.columnas.filas()) {
+                abiertos.add(cursor);
+            }
+        }
+    }
+}
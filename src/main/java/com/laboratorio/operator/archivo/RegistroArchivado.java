@@ -0,0 +1,10 @@
+package com.laboratorio.operator.archivo;
+
+/**
+ * Fila de un segmento del archivo, comun a compras y alquileres. El periodo [desde, hasta] es el
+ * del alquiler; una compra tiene las dos fechas iguales, la de compra. Las fechas en milisegundos,
+ * null si no tienen valor.
+ */
+record RegistroArchivado(long id, Long version, String idPelicula, Long desde, Long hasta, double importe,
+                         String tipo) {
+}
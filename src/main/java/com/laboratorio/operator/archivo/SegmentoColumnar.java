@@ -0,0 +1,447 @@
+package com.laboratorio.operator.archivo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Formato de un segmento del archivo: filas ordenadas por id y guardadas por columnas, cada una
+ * comprimida por separado. Los ids y las fechas se guardan como diferencias con el valor anterior,
+ * las peliculas y los tipos como indices en un diccionario. La cabecera lleva el numero de filas y
+ * los minimos y maximos de id, fechas y pelicula, que se leen sin descomprimir nada para descartar
+ * el segmento en una consulta. Un CRC final detecta un fichero dañado o incompleto.
+ * <p>
+ * Un segmento se escribe en un fichero temporal, se fuerza a disco y despues aparece con su nombre
+ * definitivo: o esta completo o no existe. Despues no se modifica.
+ */
+final class SegmentoColumnar {
+
+    private static final int MAGICO = 0x41524348;
+
+    private static final byte VERSION = 1;
+
+    private static final long NULO = Long.MIN_VALUE;
+
+    private SegmentoColumnar() {
+    }
+
+    /**
+     * Minimos y maximos de la cabecera. Las fechas y peliculas son null si ninguna fila tiene valor.
+     * Si alguna fila tiene desde y no hasta, hastaMaximo es Long.MAX_VALUE: su periodo no termina.
+     */
+    record Estadisticas(int filas, long idMinimo, long idMaximo, Long desdeMinimo, Long desdeMaximo,
+                        Long hastaMinimo, Long hastaMaximo, String peliculaMinima, String peliculaMaxima) {
+
+        /**
+         * Indica si alguna fila del segmento puede cumplir el filtro; con false no hace falta leerlo.
+         */
+        boolean puedeContener(long despuesDe, Filtro filtro) {
+            if (idMaximo <= despuesDe) {
+                return false;
+            }
+            if (filtro.idPelicula() != null && (peliculaMinima == null
+                    || filtro.idPelicula().compareTo(peliculaMinima) < 0
+                    || filtro.idPelicula().compareTo(peliculaMaxima) > 0)) {
+                return false;
+            }
+            if (filtro.desde() != null && (hastaMaximo == null || hastaMaximo < filtro.desde())) {
+                return false;
+            }
+            return filtro.hasta() == null || (desdeMinimo != null && desdeMinimo < filtro.hasta());
+        }
+
+        boolean puedeContener(long id) {
+            return id >= idMinimo && id <= idMaximo;
+        }
+    }
+
+    /**
+     * Consulta sobre las filas archivadas; los campos a null no se aplican. El rango de fechas
+     * selecciona los periodos [desde, hasta] que se solapan con [desde, hasta) del filtro; un
+     * periodo sin hasta no termina, como en AlquilerRepository.findPagina.
+     */
+    record Filtro(String idPelicula, String tipo, Long desde, Long hasta) {
+
+        boolean cumple(String idPelicula, String tipo, long desde, long hasta) {
+            return (this.idPelicula == null || this.idPelicula.equals(idPelicula))
+                    && (this.tipo == null || this.tipo.equals(tipo))
+                    && (this.desde == null || hasta == NULO || hasta >= this.desde)
+                    && (this.hasta == null || (desde != NULO && desde < this.hasta));
+        }
+    }
+
+    /** Contenido de un segmento ya descomprimido. */
+    static final class Columnas {
+
+        private final long[] ids;
+        private final long[] versiones;
+        private final String[] peliculas;
+        private final long[] desdes;
+        private final long[] hastas;
+        private final double[] importes;
+        private final String[] tipos;
+
+        private Columnas(int filas) {
+            ids = new long[filas];
+            versiones = new long[filas];
+            peliculas = new String[filas];
+            desdes = new long[filas];
+            hastas = new long[filas];
+            importes = new double[filas];
+            tipos = new String[filas];
+        }
+
+        int filas() {
+            return ids.length;
+        }
+
+        long id(int fila) {
+            return ids[fila];
+        }
+
+        /** Posicion de la fila con el id, o -1. */
+        int buscar(long id) {
+            int posicion = Arrays.binarySearch(ids, id);
+            return posicion >= 0 ? posicion : -1;
+        }
+
+        /** Posicion de la primera fila con id mayor que el indicado. */
+        int primeraDespuesDe(long id) {
+            int posicion = Arrays.binarySearch(ids, id);
+            return posicion >= 0 ? posicion + 1 : -posicion - 1;
+        }
+
+        boolean cumple(int fila, Filtro filtro) {
+            return filtro.cumple(peliculas[fila], tipos[fila], desdes[fila], hastas[fila]);
+        }
+
+        RegistroArchivado registro(int fila) {
+            return new RegistroArchivado(ids[fila], nulo(versiones[fila]), peliculas[fila], nulo(desdes[fila]),
+                    nulo(hastas[fila]), importes[fila], tipos[fila]);
+        }
+    }
+
+    /**
+     * Escribe el segmento con los registros, que deben estar ordenados por id sin repetir.
+     */
+    static Estadisticas escribir(Path fichero, List<RegistroArchivado> registros) throws IOException {
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        Estadisticas estadisticas = escribirTemporal(temporal, registros);
+        try {
+            publicar(temporal, fichero);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+        return estadisticas;
+    }
+
+    /**
+     * Escribe el segmento en un fichero nuevo y lo fuerza a disco, sin darle su nombre definitivo.
+     */
+    static Estadisticas escribirTemporal(Path temporal, List<RegistroArchivado> registros) throws IOException {
+        int filas = registros.size();
+        long desdeMinimo = Long.MAX_VALUE;
+        long desdeMaximo = NULO;
+        long hastaMinimo = Long.MAX_VALUE;
+        long hastaMaximo = NULO;
+        String peliculaMinima = null;
+        String peliculaMaxima = null;
+        for (RegistroArchivado registro : registros) {
+            if (registro.desde() != null) {
+                desdeMinimo = Math.min(desdeMinimo, registro.desde());
+                desdeMaximo = Math.max(desdeMaximo, registro.desde());
+            }
+            if (registro.hasta() != null) {
+                hastaMinimo = Math.min(hastaMinimo, registro.hasta());
+                hastaMaximo = Math.max(hastaMaximo, registro.hasta());
+            } else if (registro.desde() != null) {
+                hastaMaximo = Long.MAX_VALUE;
+            }
+            String pelicula = registro.idPelicula();
+            if (pelicula != null) {
+                peliculaMinima = peliculaMinima == null || pelicula.compareTo(peliculaMinima) < 0 ? pelicula : peliculaMinima;
+                peliculaMaxima = peliculaMaxima == null || pelicula.compareTo(peliculaMaxima) > 0 ? pelicula : peliculaMaxima;
+            }
+        }
+        Estadisticas estadisticas = new Estadisticas(filas, registros.get(0).id(), registros.get(filas - 1).id(),
+                desdeMaximo == NULO ? null : desdeMinimo, desdeMaximo == NULO ? null : desdeMaximo,
+                hastaMaximo == NULO ? null : hastaMinimo, hastaMaximo == NULO ? null : hastaMaximo,
+                peliculaMinima, peliculaMaxima);
+
+        ByteArrayOutputStream contenido = new ByteArrayOutputStream();
+        DataOutputStream salida = new DataOutputStream(contenido);
+        escribirCabecera(salida, estadisticas);
+        columna(salida, datos -> {
+            long anterior = 0;
+            for (RegistroArchivado registro : registros) {
+                escribirVarLong(datos, registro.id() - anterior);
+                anterior = registro.id();
+            }
+        });
+        columna(salida, datos -> {
+            for (RegistroArchivado registro : registros) {
+                escribirOpcional(datos, registro.version(), 0);
+            }
+        });
+        columna(salida, datos -> escribirDiccionario(datos, registros.stream().map(RegistroArchivado::idPelicula).toList()));
+        // Fechas de inicio como diferencia con la anterior, de fin como diferencia con su inicio:
+        // en las compras son iguales y la columna se reduce a ceros
+        columna(salida, datos -> {
+            long anterior = 0;
+            for (RegistroArchivado registro : registros) {
+                escribirOpcional(datos, registro.desde(), anterior);
+                anterior = registro.desde() != null ? registro.desde() : anterior;
+            }
+        });
+        columna(salida, datos -> {
+            for (RegistroArchivado registro : registros) {
+                escribirOpcional(datos, registro.hasta(), registro.desde() != null ? registro.desde() : 0);
+            }
+        });
+        columna(salida, datos -> {
+            for (RegistroArchivado registro : registros) {
+                datos.writeDouble(registro.importe());
+            }
+        });
+        columna(salida, datos -> escribirDiccionario(datos, registros.stream().map(RegistroArchivado::tipo).toList()));
+        salida.flush();
+        CRC32C crc = new CRC32C();
+        crc.update(contenido.toByteArray());
+        salida.writeInt((int) crc.getValue());
+
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contenido.toByteArray());
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            canal.force(true);
+        }
+        return estadisticas;
+    }
+
+    /**
+     * Da su nombre definitivo a un segmento escrito con {@link #escribirTemporal}. El temporal no se borra.
+     */
+    static void publicar(Path temporal, Path fichero) throws IOException {
+        // Un enlace y no un renombrado, que reemplazaria un segmento con el mismo nombre de otra
+        // instancia: si ya existe falla con FileAlreadyExistsException
+        Files.createLink(fichero, temporal);
+    }
+
+    /**
+     * Lee solo la cabecera.
+     */
+    static Estadisticas leerEstadisticas(Path fichero) throws IOException {
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(fichero), 512))) {
+            return leerCabecera(entrada, fichero);
+        }
+    }
+
+    /**
+     * Lee y descomprime todas las columnas, comprobando el CRC.
+     */
+    static Columnas leer(Path fichero) throws IOException {
+        byte[] contenido = Files.readAllBytes(fichero);
+        if (contenido.length < 4) {
+            throw new IOException("Segmento " + fichero + " incompleto");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(contenido, 0, contenido.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(contenido, contenido.length - 4, 4).getInt()) {
+            throw new IOException("Segmento " + fichero + " dañado: el CRC no coincide");
+        }
+        DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(contenido, 0, contenido.length - 4));
+        int filas = leerCabecera(entrada, fichero).filas();
+        Columnas columnas = new Columnas(filas);
+        try (DataInputStream datos = columna(entrada)) {
+            long anterior = 0;
+            for (int i = 0; i < filas; i++) {
+                columnas.ids[i] = anterior += leerVarLong(datos);
+            }
+        }
+        try (DataInputStream datos = columna(entrada)) {
+            for (int i = 0; i < filas; i++) {
+                columnas.versiones[i] = leerOpcional(datos, 0);
+            }
+        }
+        try (DataInputStream datos = columna(entrada)) {
+            leerDiccionario(datos, columnas.peliculas);
+        }
+        try (DataInputStream datos = columna(entrada)) {
+            long anterior = 0;
+            for (int i = 0; i < filas; i++) {
+                columnas.desdes[i] = leerOpcional(datos, anterior);
+                anterior = columnas.desdes[i] != NULO ? columnas.desdes[i] : anterior;
+            }
+        }
+        try (DataInputStream datos = columna(entrada)) {
+            for (int i = 0; i < filas; i++) {
+                columnas.hastas[i] = leerOpcional(datos, columnas.desdes[i] != NULO ? columnas.desdes[i] : 0);
+            }
+        }
+        try (DataInputStream datos = columna(entrada)) {
+            for (int i = 0; i < filas; i++) {
+                columnas.importes[i] = datos.readDouble();
+            }
+        }
+        try (DataInputStream datos = columna(entrada)) {
+            leerDiccionario(datos, columnas.tipos);
+        }
+        return columnas;
+    }
+
+    private static void escribirCabecera(DataOutputStream salida, Estadisticas estadisticas) throws IOException {
+        salida.writeInt(MAGICO);
+        salida.writeByte(VERSION);
+        salida.writeInt(estadisticas.filas());
+        salida.writeLong(estadisticas.idMinimo());
+        salida.writeLong(estadisticas.idMaximo());
+        salida.writeLong(Objects.requireNonNullElse(estadisticas.desdeMinimo(), NULO));
+        salida.writeLong(Objects.requireNonNullElse(estadisticas.desdeMaximo(), NULO));
+        salida.writeLong(Objects.requireNonNullElse(estadisticas.hastaMinimo(), NULO));
+        salida.writeLong(Objects.requireNonNullElse(estadisticas.hastaMaximo(), NULO));
+        salida.writeBoolean(estadisticas.peliculaMinima() != null);
+        if (estadisticas.peliculaMinima() != null) {
+            salida.writeUTF(estadisticas.peliculaMinima());
+            salida.writeUTF(estadisticas.peliculaMaxima());
+        }
+    }
+
+    private static Estadisticas leerCabecera(DataInputStream entrada, Path fichero) throws IOException {
+        if (entrada.readInt() != MAGICO || entrada.readByte() != VERSION) {
+            throw new IOException(fichero + " no es un segmento del archivo");
+        }
+        int filas = entrada.readInt();
+        long idMinimo = entrada.readLong();
+        long idMaximo = entrada.readLong();
+        Long desdeMinimo = nulo(entrada.readLong());
+        Long desdeMaximo = nulo(entrada.readLong());
+        Long hastaMinimo = nulo(entrada.readLong());
+        Long hastaMaximo = nulo(entrada.readLong());
+        boolean peliculas = entrada.readBoolean();
+        String peliculaMinima = peliculas ? entrada.readUTF() : null;
+        String peliculaMaxima = peliculas ? entrada.readUTF() : null;
+        return new Estadisticas(filas, idMinimo, idMaximo, desdeMinimo, desdeMaximo, hastaMinimo, hastaMaximo,
+                peliculaMinima, peliculaMaxima);
+    }
+
+    @FunctionalInterface
+    private interface Escritura {
+        void escribir(DataOutputStream datos) throws IOException;
+    }
+
+    // Longitud comprimida y datos de la columna
+    private static void columna(DataOutputStream salida, Escritura escritura) throws IOException {
+        ByteArrayOutputStream comprimida = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DataOutputStream datos = new DataOutputStream(new DeflaterOutputStream(comprimida, deflater, 8192))) {
+            escritura.escribir(datos);
+        } finally {
+            deflater.end();
+        }
+        salida.writeInt(comprimida.size());
+        comprimida.writeTo(salida);
+    }
+
+    private static DataInputStream columna(DataInputStream entrada) throws IOException {
+        byte[] comprimida = new byte[entrada.readInt()];
+        entrada.readFully(comprimida);
+        InputStream datos = new InflaterInputStream(new ByteArrayInputStream(comprimida), new Inflater(), 8192) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+        return new DataInputStream(new BufferedInputStream(datos, 8192));
+    }
+
+    // Valores distintos y, por fila, su posicion + 1 (0 es null)
+    private static void escribirDiccionario(DataOutputStream datos, List<String> valores) throws IOException {
+        Map<String, Integer> posiciones = new HashMap<>();
+        List<String> distintos = new ArrayList<>();
+        for (String valor : valores) {
+            if (valor != null && posiciones.putIfAbsent(valor, distintos.size()) == null) {
+                distintos.add(valor);
+            }
+        }
+        escribirVarLong(datos, distintos.size());
+        for (String valor : distintos) {
+            datos.writeUTF(valor);
+        }
+        for (String valor : valores) {
+            escribirVarLong(datos, valor == null ? 0 : posiciones.get(valor) + 1);
+        }
+    }
+
+    private static void leerDiccionario(DataInputStream datos, String[] valores) throws IOException {
+        String[] distintos = new String[(int) leerVarLong(datos)];
+        for (int i = 0; i < distintos.length; i++) {
+            distintos[i] = datos.readUTF();
+        }
+        for (int i = 0; i < valores.length; i++) {
+            int posicion = (int) leerVarLong(datos);
+            valores[i] = posicion == 0 ? null : distintos[posicion - 1];
+        }
+    }
+
+    // Marca de presencia y diferencia con la base en zigzag
+    private static void escribirOpcional(DataOutputStream datos, Long valor, long base) throws IOException {
+        datos.writeBoolean(valor != null);
+        if (valor != null) {
+            long diferencia = valor - base;
+            escribirVarLong(datos, (diferencia << 1) ^ (diferencia >> 63));
+        }
+    }
+
+    private static long leerOpcional(DataInputStream datos, long base) throws IOException {
+        if (!datos.readBoolean()) {
+            return NULO;
+        }
+        long zigzag = leerVarLong(datos);
+        return base + ((zigzag >>> 1) ^ -(zigzag & 1));
+    }
+
+    private static void escribirVarLong(DataOutputStream datos, long valor) throws IOException {
+        while ((valor & ~0x7FL) != 0) {
+            datos.writeByte((int) (valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        datos.writeByte((int) valor);
+    }
+
+    private static long leerVarLong(DataInputStream datos) throws IOException {
+        long valor = 0;
+        for (int desplazamiento = 0; ; desplazamiento += 7) {
+            byte b = datos.readByte();
+            valor |= (long) (b & 0x7F) << desplazamiento;
+            if (b >= 0) {
+                return valor;
+            }
+        }
+    }
+
+    private static Long nulo(long valor) {
+        return valor == NULO ? null : valor;
+    }
+}
@@ -0,0 +1,184 @@
+package com.laboratorio.operator.balanceo;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.client.loadbalancer.TimedRequestContext;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Balanceo por latencia entre las instancias de un servicio: se eligen dos instancias al azar y se
+ * envia la peticion a la de menor carga, la latencia media ({@link EstadisticasInstancia}) por las
+ * peticiones en vuelo. Una instancia lenta, por ejemplo recien arrancada, recibe menos trafico en
+ * cuanto responde despacio, sin que todas las peticiones acaben en la instancia mas rapida.
+ * <p>
+ * Una instancia con varios fallos seguidos (sin respuesta o 5xx) se aparta durante un tiempo; si
+ * todas estan apartadas se usan todas. Las medidas llegan por {@link LoadBalancerLifecycle} al
+ * terminar cada llamada del RestTemplate balanceado.
+ * <p>
+ * Las peticiones con la misma cabecera {@link #CABECERA_CONSULTA} son intentos de una misma
+ * consulta (peticiones de respaldo): mientras el primero sigue en curso, los siguientes se envian
+ * a otra instancia si la hay.
+ */
+@Slf4j
+public class BalanceadorLatencia implements ReactorServiceInstanceLoadBalancer,
+        LoadBalancerLifecycle<Object, Object, ServiceInstance> {
+
+    public static final String CABECERA_CONSULTA = "X-Consulta";
+
+    private final String servicio;
+
+    private final ObjectProvider<ServiceInstanceListSupplier> instancias;
+
+    private final MeterRegistry meterRegistry;
+
+    private final long decaimientoNanos;
+
+    private final int fallosExpulsion;
+
+    private final long expulsionNanos;
+
+    private final Map<String, EstadisticasInstancia> estadisticas = new ConcurrentHashMap<>();
+
+    // Instancia del primer intento en curso de cada consulta
+    private final Map<String, String> consultas = new ConcurrentHashMap<>();
+
+    public BalanceadorLatencia(String servicio, ObjectProvider<ServiceInstanceListSupplier> instancias,
+                               MeterRegistry meterRegistry, Duration decaimiento, int fallosExpulsion,
+                               Duration expulsion) {
+        this.servicio = servicio;
+        this.instancias = instancias;
+        this.meterRegistry = meterRegistry;
+        this.decaimientoNanos = decaimiento.toNanos();
+        this.fallosExpulsion = fallosExpulsion;
+        this.expulsionNanos = expulsion.toNanos();
+        meterRegistry.gauge("balanceo.instancias.expulsadas", Tags.of("servicio", servicio), estadisticas,
+                e -> e.values().stream().filter(s -> s.expulsada(System.nanoTime())).count());
+    }
+
+    @Override
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        ServiceInstanceListSupplier supplier = instancias.getIfAvailable();
+        if (supplier == null) {
+            return Mono.just(new EmptyResponse());
+        }
+        String consulta = consulta(request);
+        return supplier.get(request).next().map(candidatas -> {
+            Response<ServiceInstance> elegida = elegir(candidatas, consulta == null ? null : consultas.get(consulta));
+            if (consulta != null && elegida.hasServer()) {
+                consultas.putIfAbsent(consulta, clave(elegida.getServer()));
+            }
+            return elegida;
+        });
+    }
+
+    private Response<ServiceInstance> elegir(List<ServiceInstance> candidatas, String excluida) {
+        if (candidatas.isEmpty()) {
+            log.warn("Sin instancias disponibles de {}", servicio);
+            return new EmptyResponse();
+        }
+        if (estadisticas.size() > candidatas.size()) {
+            olvidarRetiradas(candidatas);
+        }
+        long ahora = System.nanoTime();
+        List<ServiceInstance> disponibles = candidatas.stream()
+                .filter(instancia -> !estadisticas(instancia).expulsada(ahora) && !clave(instancia).equals(excluida))
+                .toList();
+        if (disponibles.isEmpty()) {
+            disponibles = candidatas;
+        }
+        if (disponibles.size() == 1) {
+            return new DefaultResponse(disponibles.get(0));
+        }
+        ThreadLocalRandom azar = ThreadLocalRandom.current();
+        int a = azar.nextInt(disponibles.size());
+        int b = azar.nextInt(disponibles.size() - 1);
+        if (b >= a) {
+            b++;
+        }
+        ServiceInstance primera = disponibles.get(a);
+        ServiceInstance segunda = disponibles.get(b);
+        return new DefaultResponse(estadisticas(primera).carga(ahora) <= estadisticas(segunda).carga(ahora)
+                ? primera : segunda);
+    }
+
+    @Override
+    public void onStart(Request<Object> request) {
+    }
+
+    @Override
+    public void onStartRequest(Request<Object> request, Response<ServiceInstance> lbResponse) {
+        if (request.getContext() instanceof TimedRequestContext contexto) {
+            contexto.setRequestStartTime(System.nanoTime());
+        }
+        if (lbResponse.hasServer()) {
+            estadisticas(lbResponse.getServer()).inicio();
+        }
+    }
+
+    @Override
+    public void onComplete(CompletionContext<Object, ServiceInstance, Object> completion) {
+        Response<ServiceInstance> lbResponse = completion.getLoadBalancerResponse();
+        if (completion.status() == CompletionContext.Status.DISCARD || lbResponse == null || !lbResponse.hasServer()
+                || !(completion.getLoadBalancerRequest().getContext() instanceof TimedRequestContext contexto)) {
+            return;
+        }
+        long ahora = System.nanoTime();
+        boolean fallo = completion.status() == CompletionContext.Status.FAILED
+                || completion.getClientResponse() instanceof ResponseData respuesta
+                && respuesta.getHttpStatus() != null && respuesta.getHttpStatus().is5xxServerError();
+        ServiceInstance instancia = lbResponse.getServer();
+        String consulta = consulta(completion.getLoadBalancerRequest());
+        if (consulta != null) {
+            consultas.remove(consulta, clave(instancia));
+        }
+        if (estadisticas(instancia).fin(ahora - contexto.getRequestStartTime(), fallo, fallosExpulsion,
+                expulsionNanos, ahora)) {
+            log.warn("Instancia {} de {} apartada durante {} ms tras {} fallos seguidos", clave(instancia), servicio,
+                    expulsionNanos / 1_000_000, fallosExpulsion);
+            meterRegistry.counter("balanceo.expulsiones", "servicio", servicio).increment();
+        }
+    }
+
+    private EstadisticasInstancia estadisticas(ServiceInstance instancia) {
+        return estadisticas.computeIfAbsent(clave(instancia), clave -> new EstadisticasInstancia(decaimientoNanos));
+    }
+
+    // Instancias que ya no estan registradas y sin peticiones en vuelo
+    private void olvidarRetiradas(List<ServiceInstance> candidatas) {
+        Set<String> vigentes = candidatas.stream().map(BalanceadorLatencia::clave).collect(Collectors.toSet());
+        estadisticas.entrySet().removeIf(e -> !vigentes.contains(e.getKey()) && e.getValue().enVuelo() == 0);
+    }
+
+    private static String consulta(Request<?> request) {
+        if (request != null && request.getContext() instanceof RequestDataContext contexto
+                && contexto.getClientRequest() != null) {
+            return contexto.getClientRequest().getHeaders().getFirst(CABECERA_CONSULTA);
+        }
+        return null;
+    }
+
+    private static String clave(ServiceInstance instancia) {
+        return instancia.getHost() + ":" + instancia.getPort();
+    }
+}
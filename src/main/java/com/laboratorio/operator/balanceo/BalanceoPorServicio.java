@@ -0,0 +1,40 @@
+package com.laboratorio.operator.balanceo;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+/**
+ * Beans del contexto de cada servicio balanceado (ver config.BalanceoConfig). Sin @Configuration
+ * para que el escaneo de componentes no los registre en el contexto principal. Ese contexto no
+ * convierte duraciones en las propiedades: se leen como texto.
+ */
+public class BalanceoPorServicio {
+
+    @Bean
+    public ServiceInstanceListSupplier instanciasEnSegundoPlano(
+            ConfigurableApplicationContext context,
+            @Value("${getMovies.balanceo.refresco-instancias:15s}") String refresco) {
+        return ServiceInstanceListSupplier.builder()
+                .withBlockingDiscoveryClient()
+                .with((ctx, delegate) -> new InstanciasEnSegundoPlano(delegate, DurationStyle.detectAndParse(refresco)))
+                .build(context);
+    }
+
+    @Bean
+    public BalanceadorLatencia balanceadorLatencia(
+            Environment environment, LoadBalancerClientFactory factory, MeterRegistry meterRegistry,
+            @Value("${getMovies.balanceo.decaimiento:10s}") String decaimiento,
+            @Value("${getMovies.balanceo.fallos-expulsion:5}") int fallosExpulsion,
+            @Value("${getMovies.balanceo.expulsion:30s}") String expulsion) {
+        String servicio = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        return new BalanceadorLatencia(servicio, factory.getLazyProvider(servicio, ServiceInstanceListSupplier.class),
+                meterRegistry, DurationStyle.detectAndParse(decaimiento), fallosExpulsion,
+                DurationStyle.detectAndParse(expulsion));
+    }
+}
@@ -0,0 +1,86 @@
+package com.laboratorio.operator.balanceo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latencia y carga observadas de una instancia. La latencia es una media movil exponencial con
+ * pico: una respuesta mas lenta que la media se adopta de inmediato y las rapidas la bajan poco a
+ * poco, con un decaimiento que depende del tiempo transcurrido y no del numero de respuestas. Sin
+ * trafico la media tiende a cero, de forma que una instancia apartada por lenta vuelve a recibir
+ * alguna peticion con la que medirse de nuevo.
+ */
+final class EstadisticasInstancia {
+
+    // Carga de una instancia sin medidas con peticiones en vuelo: no se le envian mas hasta que responda
+    private static final double PENALIZACION = 1e12;
+
+    private final double decaimientoNanos;
+
+    private final AtomicInteger enVuelo = new AtomicInteger();
+
+    // Latencia media en nanosegundos y momento en que se calculo
+    private double latencia;
+
+    private long marca = System.nanoTime();
+
+    private int fallosSeguidos;
+
+    private volatile long expulsadaHasta;
+
+    EstadisticasInstancia(long decaimientoNanos) {
+        this.decaimientoNanos = decaimientoNanos;
+        this.expulsadaHasta = marca;
+    }
+
+    void inicio() {
+        enVuelo.incrementAndGet();
+    }
+
+    /**
+     * Registra el final de una peticion.
+     *
+     * @return true si con este fallo la instancia queda expulsada
+     */
+    synchronized boolean fin(long duracion, boolean fallo, int fallosExpulsion, long expulsionNanos, long ahora) {
+        enVuelo.decrementAndGet();
+        observar(duracion, ahora);
+        if (!fallo) {
+            fallosSeguidos = 0;
+            return false;
+        }
+        // Tras una expulsion basta un fallo mas para volver a apartarla
+        if (++fallosSeguidos >= fallosExpulsion && !expulsada(ahora)) {
+            expulsadaHasta = ahora + expulsionNanos;
+            return true;
+        }
+        return false;
+    }
+
+    /** Latencia media por peticiones en vuelo (contando la que se va a enviar). */
+    double carga(long ahora) {
+        int pendientes = enVuelo.get();
+        double media;
+        synchronized (this) {
+            observar(0, ahora);
+            media = latencia;
+        }
+        if (media == 0 && pendientes > 0) {
+            return PENALIZACION + pendientes;
+        }
+        return media * (pendientes + 1);
+    }
+
+    boolean expulsada(long ahora) {
+        return expulsadaHasta - ahora > 0;
+    }
+
+    int enVuelo() {
+        return enVuelo.get();
+    }
+
+    private void observar(double duracion, long ahora) {
+        double peso = Math.exp(-Math.max(ahora - marca, 0) / decaimientoNanos);
+        marca = ahora;
+        latencia = duracion > latencia ? duracion : latencia * peso + duracion * (1 - peso);
+    }
+}
@@ -0,0 +1,60 @@
+package com.laboratorio.operator.balanceo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.DelegatingServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Lista de instancias consultada al registro (Eureka) en segundo plano cada cierto tiempo. Cada
+ * peticion usa la ultima lista obtenida, sin esperar al registro salvo la primera vez; si una
+ * consulta falla se sigue usando la lista anterior.
+ */
+@Slf4j
+public class InstanciasEnSegundoPlano extends DelegatingServiceInstanceListSupplier {
+
+    private final Duration intervalo;
+
+    private volatile List<ServiceInstance> instancias;
+
+    private Disposable refresco;
+
+    public InstanciasEnSegundoPlano(ServiceInstanceListSupplier delegate, Duration intervalo) {
+        super(delegate);
+        this.intervalo = intervalo;
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        List<ServiceInstance> actuales = instancias;
+        return actuales != null ? Flux.just(actuales) : consultar();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        super.afterPropertiesSet();
+        refresco = Flux.interval(Duration.ZERO, intervalo)
+                .concatMap(tick -> consultar().onErrorResume(error -> {
+                    log.warn("No se han podido consultar las instancias de {}: {}", getServiceId(), error.getMessage());
+                    return Flux.empty();
+                }))
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (refresco != null) {
+            refresco.dispose();
+        }
+        super.destroy();
+    }
+
+    private Flux<List<ServiceInstance>> consultar() {
+        return getDelegate().get().take(1).doOnNext(lista -> instancias = lista);
+    }
+}
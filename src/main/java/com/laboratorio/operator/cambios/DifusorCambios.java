@@ -0,0 +1,269 @@
+package com.laboratorio.operator.cambios;
+
+import com.laboratorio.operator.evento.CambioAlquiler;
+import com.laboratorio.operator.evento.CambioCompra;
+import com.laboratorio.operator.fragmentos.Fragmentos;
+import com.laboratorio.operator.model.EventoCambio;
+import com.laboratorio.operator.repository.EventoCambioRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publica los eventos de cambio guardados por {@link RegistroCambios} y los reparte a los
+ * suscriptores de /cambios. Un unico hilo recoge los eventos confirmados aun sin publicar y les
+ * asigna posiciones consecutivas en el orden en que los encuentra: la posicion es el id del evento
+ * SSE y un cliente que se reconecta con Last-Event-ID recibe desde la tabla lo que se ha perdido,
+ * sin huecos aunque las transacciones se confirmen en otro orden que el de sus ids.
+ * <p>
+ * Cada suscriptor tiene una cola acotada (cambios.buffer-suscriptor). Un cliente que no lee al
+ * ritmo de los cambios llena su cola y se desconecta; al reconectarse recupera los eventos desde
+ * la tabla, sin frenar al resto de suscriptores ni a las escrituras.
+ * <p>
+ * Con varios fragmentos cada uno tiene su tabla de eventos, confirmados junto a sus compras y
+ * alquileres. El hilo de publicacion las recorre todas y las posiciones son comunes a todas.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DifusorCambios implements SmartInitializingSingleton {
+
+    private static final int LOTE = 500;
+
+    private static final Comparator<EventoCambio> POR_POSICION = Comparator.comparing(EventoCambio::getPosicion);
+
+    private final EventoCambioRepository eventoCambioRepository;
+
+    private final PlatformTransactionManager transactionManager;
+
+    private final Fragmentos fragmentos;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${cambios.buffer-suscriptor:1000}")
+    private int bufferSuscriptor;
+
+    @Value("${cambios.sse-timeout:30m}")
+    private Duration sseTimeout;
+
+    @Value("${cambios.latido:15s}")
+    private Duration latido;
+
+    @Value("${cambios.retencion:7d}")
+    private Duration retencion;
+
+    private final List<Suscriptor> suscriptores = new CopyOnWriteArrayList<>();
+
+    private final Semaphore pendientes = new Semaphore(0);
+
+    private TransactionTemplate transaccion;
+
+    private Counter desbordados;
+
+    // Ultima posicion repartida; solo la modifica el hilo de publicacion, con el monitor tomado
+    private volatile long ultimaPosicion;
+
+    private long siguientePurga;
+
+    private Thread publicador;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        transaccion = new TransactionTemplate(transactionManager);
+        ultimaPosicion = fragmentos.enTodos(eventoCambioRepository::findUltimaPosicion).stream()
+                .flatMap(Optional::stream)
+                .max(Long::compare)
+                .orElse(0L);
+        meterRegistry.gaugeCollectionSize("cambios.suscriptores", List.of(), suscriptores);
+        desbordados = meterRegistry.counter("cambios.desbordados");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancar() {
+        publicador = Thread.ofPlatform().name("difusor-cambios").daemon().start(this::publicar);
+    }
+
+    @PreDestroy
+    void parar() throws InterruptedException {
+        if (publicador != null) {
+            publicador.interrupt();
+            publicador.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        suscriptores.forEach(s -> s.emisor.complete());
+    }
+
+    // Tras el commit el evento ya es visible para el hilo de publicacion
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCambioCompra(CambioCompra cambio) {
+        pendientes.release();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCambioAlquiler(CambioAlquiler cambio) {
+        pendientes.release();
+    }
+
+    /**
+     * Abre un flujo SSE de eventos de cambio.
+     *
+     * @param desde   posicion del ultimo evento recibido, o null para recibir solo los nuevos
+     * @param recurso "compra", "alquiler" o null para ambos
+     */
+    public SseEmitter suscribir(Long desde, String recurso) {
+        SseEmitter emisor = new SseEmitter(sseTimeout.toMillis());
+        Suscriptor suscriptor = new Suscriptor(emisor, recurso, bufferSuscriptor);
+        long hasta;
+        synchronized (this) {
+            hasta = ultimaPosicion;
+            suscriptores.add(suscriptor);
+        }
+        Runnable cerrar = () -> {
+            suscriptor.cerrado = true;
+            suscriptores.remove(suscriptor);
+        };
+        emisor.onCompletion(cerrar);
+        emisor.onTimeout(cerrar);
+        emisor.onError(e -> cerrar.run());
+        // Una posicion futura (la tabla se ha vaciado desde entonces) se trata como una suscripcion nueva
+        long inicio = desde == null || desde > hasta ? hasta : desde;
+        Thread.ofVirtual().name("cambios-suscriptor").start(() -> enviar(suscriptor, inicio, hasta));
+        return emisor;
+    }
+
+    private void publicar() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // Sin aviso se revisa la tabla cada segundo, por si un aviso se ha perdido
+                pendientes.tryAcquire(1, TimeUnit.SECONDS);
+                pendientes.drainPermits();
+                for (int fragmento = 0; fragmento < fragmentos.cantidad(); fragmento++) {
+                    while (publicarLote(fragmento) == LOTE) {
+                        // Quedan eventos sin publicar
+                    }
+                }
+                purgar();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.error("Error publicando eventos de cambio", e);
+            }
+        }
+    }
+
+    private int publicarLote(int fragmento) {
+        long[] posicion = {ultimaPosicion};
+        List<EventoCambio> lote = Fragmentos.en(fragmento, () -> transaccion.execute(status -> {
+            List<EventoCambio> sinPublicar = eventoCambioRepository.findSinPublicar(PageRequest.ofSize(LOTE));
+            sinPublicar.forEach(evento -> evento.setPosicion(++posicion[0]));
+            return sinPublicar;
+        }));
+        if (!lote.isEmpty()) {
+            repartir(lote);
+        }
+        return lote.size();
+    }
+
+    // Con el monitor tomado, para que un suscriptor nuevo lea de la tabla justo hasta donde
+    // empiezan los eventos de su cola
+    private synchronized void repartir(List<EventoCambio> lote) {
+        ultimaPosicion = lote.get(lote.size() - 1).getPosicion();
+        for (Suscriptor suscriptor : suscriptores) {
+            for (EventoCambio evento : lote) {
+                if (suscriptor.acepta(evento) && !suscriptor.cola.offer(evento)) {
+                    suscriptor.desbordado = true;
+                    suscriptores.remove(suscriptor);
+                    desbordados.increment();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void purgar() {
+        if (System.nanoTime() - siguientePurga < 0) {
+            return;
+        }
+        siguientePurga = System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+        Date limite = Date.from(Instant.now().minus(retencion));
+        int borrados = 0;
+        for (int fragmento = 0; fragmento < fragmentos.cantidad(); fragmento++) {
+            borrados += Fragmentos.en(fragmento,
+                    () -> transaccion.execute(status -> eventoCambioRepository.deleteAnteriores(limite)));
+        }
+        if (borrados > 0) {
+            log.info("Borrados {} eventos de cambio anteriores a {}", borrados, limite.toInstant());
+        }
+    }
+
+    // Primero el historico (desde, hasta] desde la tabla y despues lo que llega a la cola
+    private void enviar(Suscriptor suscriptor, long desde, long hasta) {
+        try {
+            long enviado = desde;
+            while (enviado < hasta) {
+                long despuesDe = enviado;
+                List<EventoCambio> pagina = fragmentos.unir(() -> eventoCambioRepository.findPublicados(despuesDe,
+                        hasta, suscriptor.recurso, PageRequest.ofSize(LOTE)), POR_POSICION, LOTE);
+                if (pagina.isEmpty()) {
+                    break;
+                }
+                for (EventoCambio evento : pagina) {
+                    enviar(suscriptor, evento);
+                }
+                enviado = pagina.get(pagina.size() - 1).getPosicion();
+            }
+            while (!suscriptor.cerrado) {
+                if (suscriptor.desbordado) {
+                    log.debug("Suscriptor de cambios desbordado; se cierra la conexion");
+                    suscriptor.emisor.complete();
+                    return;
+                }
+                EventoCambio evento = suscriptor.cola.poll(latido.toMillis(), TimeUnit.MILLISECONDS);
+                if (evento == null) {
+                    suscriptor.emisor.send(SseEmitter.event().comment("latido"));
+                } else {
+                    enviar(suscriptor, evento);
+                }
+            }
+        } catch (IOException e) {
+            // Cliente desconectado
+            suscriptores.remove(suscriptor);
+        } catch (InterruptedException e) {
+            suscriptor.emisor.complete();
+        } catch (RuntimeException e) {
+            log.warn("Error enviando eventos de cambio", e);
+            suscriptores.remove(suscriptor);
+            suscriptor.emisor.completeWithError(e);
+        }
+    }
+
+    private static void enviar(Suscriptor suscriptor, EventoCambio evento) throws IOException {
+        suscriptor.emisor.send(SseEmitter.event()
+                .id(String.valueOf(evento.getPosicion()))
+                .name(evento.getRecurso())
+                .data(evento, MediaType.APPLICATION_JSON));
+    }
+}
@@ -0,0 +1,48 @@
+package com.laboratorio.operator.cambios;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.laboratorio.operator.evento.CambioAlquiler;
+import com.laboratorio.operator.evento.CambioCompra;
+import com.laboratorio.operator.model.EventoCambio;
+import com.laboratorio.operator.repository.EventoCambioRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Guarda cada alta, modificacion y borrado de compras y alquileres en la tabla de eventos de
+ * cambio. Se ejecuta al publicarse el cambio, dentro de la transaccion que lo produce: el evento
+ * se confirma o se deshace junto con el registro modificado.
+ */
+@Component
+@RequiredArgsConstructor
+public class RegistroCambios {
+
+    private final EventoCambioRepository eventoCambioRepository;
+
+    private final ObjectMapper objectMapper;
+
+    @EventListener
+    public void onCambioCompra(CambioCompra cambio) {
+        registrar(EventoCambio.COMPRA, cambio.anterior(), cambio.actual(),
+                (cambio.actual() != null ? cambio.actual() : cambio.anterior()).getId());
+    }
+
+    @EventListener
+    public void onCambioAlquiler(CambioAlquiler cambio) {
+        registrar(EventoCambio.ALQUILER, cambio.anterior(), cambio.actual(),
+                (cambio.actual() != null ? cambio.actual() : cambio.anterior()).getId());
+    }
+
+    private void registrar(String recurso, Object anterior, Object actual, Long id) {
+        EventoCambio.Tipo tipo = anterior == null ? EventoCambio.Tipo.ALTA
+                : actual == null ? EventoCambio.Tipo.BAJA : EventoCambio.Tipo.MODIFICACION;
+        try {
+            String datos = objectMapper.writeValueAsString(actual != null ? actual : anterior);
+            eventoCambioRepository.save(new EventoCambio(recurso, tipo, id, datos));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se puede serializar el cambio de " + recurso + " " + id, e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.laboratorio.operator.cambios;
+
+import com.laboratorio.operator.model.EventoCambio;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Conexion abierta a /cambios. Los eventos publicados esperan en una cola acotada a que el hilo
+ * de envio del suscriptor los escriba; si la cola se llena el suscriptor queda desbordado.
+ */
+final class Suscriptor {
+
+    final SseEmitter emisor;
+
+    // Solo eventos de este recurso, o todos si es null
+    final String recurso;
+
+    final BlockingQueue<EventoCambio> cola;
+
+    volatile boolean desbordado;
+
+    volatile boolean cerrado;
+
+    Suscriptor(SseEmitter emisor, String recurso, int capacidad) {
+        this.emisor = emisor;
+        this.recurso = recurso;
+        this.cola = new ArrayBlockingQueue<>(capacidad);
+    }
+
+    boolean acepta(EventoCambio evento) {
+        return recurso == null || recurso.equals(evento.getRecurso());
+    }
+}
@@ -0,0 +1,28 @@
+package com.laboratorio.operator.config;
+
+import com.laboratorio.operator.admision.ControlAdmision;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Control de admision delante de los controladores de compras y alquileres. Las exportaciones
+ * NDJSON quedan fuera: son largas y asincronas, y su duracion no dice nada de la saturacion.
+ */
+@Configuration
+public class AdmisionConfig implements WebMvcConfigurer {
+
+    private final ObjectProvider<ControlAdmision> controlAdmision;
+
+    public AdmisionConfig(ObjectProvider<ControlAdmision> controlAdmision) {
+        this.controlAdmision = controlAdmision;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        controlAdmision.ifAvailable(control -> registry.addInterceptor(control)
+                .addPathPatterns("/compras", "/compras/**", "/alquileres", "/alquileres/**")
+                .excludePathPatterns("/compras/export", "/alquileres/export"));
+    }
+}
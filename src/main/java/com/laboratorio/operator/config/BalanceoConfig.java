@@ -0,0 +1,14 @@
+package com.laboratorio.operator.config;
+
+import com.laboratorio.operator.balanceo.BalanceoPorServicio;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Balanceo por latencia con lista de instancias refrescada en segundo plano para todos los
+ * servicios llamados con el RestTemplate balanceado (el inventario de peliculas).
+ */
+@Configuration
+@LoadBalancerClients(defaultConfiguration = BalanceoPorServicio.class)
+public class BalanceoConfig {
+}
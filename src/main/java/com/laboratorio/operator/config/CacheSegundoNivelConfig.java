@@ -0,0 +1,66 @@
+package com.laboratorio.operator.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Cache de segundo nivel de Hibernate sobre Caffeine (JCache). Cada region se declara en
+ * cache-segundo-nivel.regiones con su tamaño maximo y su expiracion; Hibernate falla al arrancar
+ * si una entidad o consulta usa una region no declarada. Las estadisticas de cada region se
+ * publican como cache.gets, cache.puts, cache.evictions y cache.removals con la etiqueta cache.
+ */
+@Configuration
+public class CacheSegundoNivelConfig {
+
+    /**
+     * @param maximo     entradas como maximo; 0 sin limite
+     * @param expiracion tiempo desde la escritura tras el que se descarta una entrada; null sin expiracion
+     */
+    public record Region(long maximo, Duration expiracion) {
+    }
+
+    @Bean(destroyMethod = "close")
+    public CacheManager cacheSegundoNivel(Environment environment, MeterRegistry meterRegistry) {
+        Map<String, Region> regiones = Binder.get(environment)
+                .bind("cache-segundo-nivel.regiones", Bindable.mapOf(String.class, Region.class))
+                .orElse(Map.of());
+        CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+        CacheManager cacheManager = provider.getCacheManager(provider.getDefaultURI(), getClass().getClassLoader());
+        regiones.forEach((nombre, region) -> {
+            CaffeineConfiguration<Object, Object> configuracion = new CaffeineConfiguration<>();
+            if (region.maximo() > 0) {
+                configuracion.setMaximumSize(OptionalLong.of(region.maximo()));
+            }
+            if (region.expiracion() != null) {
+                configuracion.setExpireAfterWrite(OptionalLong.of(region.expiracion().toNanos()));
+            }
+            configuracion.setStatisticsEnabled(true);
+            Cache<Object, Object> cache = cacheManager.createCache(nombre, configuracion);
+            JCacheMetrics.monitor(meterRegistry, cache, List.of());
+        });
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer cacheSegundoNivelHibernate(CacheManager cacheSegundoNivel) {
+        return propiedades -> propiedades.put(ConfigSettings.CACHE_MANAGER, cacheSegundoNivel);
+    }
+}
@@ -0,0 +1,75 @@
+package com.laboratorio.operator.config;
+
+import com.laboratorio.operator.fragmentos.DataSourceFragmentado;
+import com.laboratorio.operator.fragmentos.EsquemaFragmentos;
+import com.laboratorio.operator.fragmentos.GeneradorIds;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bases de datos de los fragmentos (fragmentos.bases), cada una con su pool. Sin bases
+ * configuradas hay un unico fragmento con spring.datasource. Las metricas de cada pool se
+ * publican como hikaricp.* con la etiqueta pool=fragmento-N.
+ */
+@Configuration
+public class FragmentosConfig {
+
+    /**
+     * @param username sin usuario, "sa"
+     */
+    public record Base(String url, String username, String password) {
+    }
+
+    @Bean
+    public DataSourceFragmentado dataSource(Environment environment, DataSourceProperties propiedades,
+                                            MeterRegistry meterRegistry) {
+        List<Base> bases = Binder.get(environment)
+                .bind("fragmentos.bases", Bindable.listOf(Base.class))
+                .orElse(List.of());
+        if (bases.size() > GeneradorIds.MAXIMO_FRAGMENTOS) {
+            throw new IllegalArgumentException("Como mucho " + GeneradorIds.MAXIMO_FRAGMENTOS + " fragmentos");
+        }
+        List<HikariDataSource> pools = new ArrayList<>();
+        if (bases.isEmpty()) {
+            pools.add(propiedades.initializeDataSourceBuilder().type(HikariDataSource.class).build());
+        }
+        for (Base base : bases) {
+            pools.add(DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(base.url())
+                    .username(base.username() != null ? base.username() : "sa")
+                    .password(base.password())
+                    .build());
+        }
+        for (int i = 0; i < pools.size(); i++) {
+            pools.get(i).setPoolName("fragmento-" + i);
+            pools.get(i).setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        }
+        return new DataSourceFragmentado(pools);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer fragmentosHibernate(DataSourceFragmentado dataSource,
+                                                             @Value("${fragmentos.nodo:0}") int nodo) {
+        return propiedades -> {
+            propiedades.put(GeneradorIds.NODO, nodo);
+            propiedades.put(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER,
+                    (IntegratorProvider) () -> List.of(new EsquemaFragmentos(dataSource.cantidad())));
+        };
+    }
+}
@@ -0,0 +1,81 @@
+package com.laboratorio.operator.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.time.Duration;
+
+/**
+ * Cliente HTTP con pool de conexiones para las llamadas al inventario de peliculas.
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Value("${getMovies.client.max-total:50}")
+    private int maxTotal;
+
+    @Value("${getMovies.client.max-per-route:20}")
+    private int maxPerRoute;
+
+    @Value("${getMovies.client.connect-timeout:2s}")
+    private Duration connectTimeout;
+
+    @Value("${getMovies.client.read-timeout:3s}")
+    private Duration readTimeout;
+
+    @Value("${getMovies.client.pool-timeout:1s}")
+    private Duration poolTimeout;
+
+    @Value("${getMovies.client.keep-alive:30s}")
+    private Duration keepAlive;
+
+    @Value("${getMovies.client.idle-timeout:30s}")
+    private Duration idleTimeout;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager moviesConnectionManager(MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setTimeToLive(TimeValue.of(keepAlive))
+                        .build())
+                .build();
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "movies").bindTo(meterRegistry);
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient moviesHttpClient(PoolingHttpClientConnectionManager moviesConnectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(moviesConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(poolTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .setConnectionKeepAlive(TimeValue.of(keepAlive))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleTimeout))
+                .build();
+    }
+
+    @Bean
+    public ClientHttpRequestFactory moviesRequestFactory(CloseableHttpClient moviesHttpClient) {
+        return new HttpComponentsClientHttpRequestFactory(moviesHttpClient);
+    }
+}
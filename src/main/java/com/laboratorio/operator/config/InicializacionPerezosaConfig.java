@@ -0,0 +1,51 @@
+package com.laboratorio.operator.config;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.List;
+
+/**
+ * Beans que no hacen falta para atender las primeras peticiones y se crean con su primer uso en
+ * lugar de al arrancar: los de las clases cuyo nombre empieza por alguno de arranque.perezosos
+ * (por ejemplo org.springdoc., la documentacion OpenAPI y Swagger UI). Con Spring AOT se aplica al
+ * construir y queda en las definiciones de beans generadas.
+ */
+@Configuration
+public class InicializacionPerezosaConfig {
+
+    @Bean
+    public static BeanFactoryPostProcessor inicializacionPerezosa(Environment environment) {
+        List<String> perezosos = Binder.get(environment)
+                .bind("arranque.perezosos", Bindable.listOf(String.class))
+                .orElse(List.of());
+        return beanFactory -> {
+            if (perezosos.isEmpty()) {
+                return;
+            }
+            for (String nombre : beanFactory.getBeanDefinitionNames()) {
+                BeanDefinition definicion = beanFactory.getBeanDefinition(nombre);
+                String clase = clase(beanFactory, definicion);
+                if (clase != null && perezosos.stream().anyMatch(clase::startsWith)) {
+                    definicion.setLazyInit(true);
+                }
+            }
+        };
+    }
+
+    // Los beans de metodos @Bean no tienen clase en la definicion: cuenta la de su configuracion
+    private static String clase(ConfigurableListableBeanFactory beanFactory, BeanDefinition definicion) {
+        if (definicion.getBeanClassName() != null) {
+            return definicion.getBeanClassName();
+        }
+        String factoria = definicion.getFactoryBeanName();
+        return factoria != null && beanFactory.containsBeanDefinition(factoria)
+                ? beanFactory.getBeanDefinition(factoria).getBeanClassName() : null;
+    }
+}
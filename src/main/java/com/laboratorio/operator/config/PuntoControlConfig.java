@@ -0,0 +1,118 @@
+package com.laboratorio.operator.config;
+
+import com.laboratorio.operator.fragmentos.DataSourceFragmentado;
+import com.netflix.discovery.EurekaClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.util.TimeValue;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnCheckpointRestore;
+import org.springframework.boot.jdbc.HikariCheckpointRestoreLifecycle;
+import org.springframework.cloud.context.scope.refresh.RefreshScope;
+import org.springframework.context.Lifecycle;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Checkpoint y restauracion con CRaC (con org.crac en el classpath): Spring para los beans con
+ * ciclo de vida antes del checkpoint y los vuelve a arrancar al restaurar. Aqui se cierran las
+ * conexiones que la imagen no puede conservar (las de cada fragmento, las del inventario de
+ * peliculas y el cliente de Eureka, que se da de baja) y se reabren al restaurar.
+ * <p>
+ * La ingesta asincrona y el diagnostico de hilos virtuales mantienen ficheros abiertos: para hacer
+ * el checkpoint deben estar desactivados.
+ */
+@Configuration
+@ConditionalOnCheckpointRestore
+public class PuntoControlConfig {
+
+    @Bean
+    public Lifecycle fragmentosPuntoControl(DataSourceFragmentado dataSource) {
+        List<HikariCheckpointRestoreLifecycle> pools = dataSource.pools().stream()
+                .map(HikariCheckpointRestoreLifecycle::new)
+                .toList();
+        return new Lifecycle() {
+            @Override
+            public void start() {
+                pools.forEach(Lifecycle::start);
+            }
+
+            @Override
+            public void stop() {
+                pools.forEach(Lifecycle::stop);
+            }
+
+            @Override
+            public boolean isRunning() {
+                return pools.stream().anyMatch(Lifecycle::isRunning);
+            }
+        };
+    }
+
+    // Sin peticiones en curso (el servidor web para antes), todas las conexiones estan libres
+    @Bean
+    public Lifecycle moviesPuntoControl(PoolingHttpClientConnectionManager moviesConnectionManager) {
+        return new Lifecycle() {
+
+            private volatile boolean running = true;
+
+            @Override
+            public void start() {
+                running = true;
+            }
+
+            @Override
+            public void stop() {
+                moviesConnectionManager.closeIdle(TimeValue.ZERO_MILLISECONDS);
+                running = false;
+            }
+
+            @Override
+            public boolean isRunning() {
+                return running;
+            }
+        };
+    }
+
+    /**
+     * El registro en Eureka ya se da de baja y de alta con su propio ciclo de vida (fase 0). Tras la
+     * baja, en una fase anterior, el cliente se cierra con el refresh scope (se apagan sus hilos y
+     * conexiones) y se crea de nuevo antes del alta. Sin refresh scope (perfil arranque, Spring AOT)
+     * el cliente no se puede recrear y el checkpoint requiere eureka.client.enabled=false.
+     */
+    @Bean
+    public SmartLifecycle eurekaPuntoControl(ObjectProvider<RefreshScope> refreshScope,
+                                             ObjectProvider<EurekaClient> eurekaClient) {
+        return new SmartLifecycle() {
+
+            private volatile boolean running = true;
+
+            @Override
+            public void start() {
+                // Crea el cliente de nuevo
+                eurekaClient.ifAvailable(EurekaClient::getApplications);
+                running = true;
+            }
+
+            @Override
+            public void stop() {
+                if (eurekaClient.getIfAvailable() != null) {
+                    refreshScope.ifAvailable(scope -> scope.refresh("eurekaClient"));
+                }
+                running = false;
+            }
+
+            @Override
+            public boolean isRunning() {
+                return running;
+            }
+
+            @Override
+            public int getPhase() {
+                return -1;
+            }
+        };
+    }
+}
@@ -1,16 +1,31 @@
 package com.laboratorio.operator.controller;
 
+import com.github.fge.jsonpatch.mergepatch.JsonMergePatch;
+import com.laboratorio.operator.idempotencia.RegistroIdempotencia;
 import com.laboratorio.operator.model.Alquiler;
+import com.laboratorio.operator.model.Disponibilidad;
+import com.laboratorio.operator.model.IntervaloAlquiler;
+import com.laboratorio.operator.model.Pagina;
+import com.laboratorio.operator.model.ResultadoLote;
 import com.laboratorio.operator.service.AlquilerService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
@@ -22,16 +37,77 @@ public class AlquilerController {
     @Autowired
     private AlquilerService alquilerService;
 
+    @Autowired
+    private RegistroIdempotencia registroIdempotencia;
+
     @GetMapping
     @Operation(
             operationId = "Obtener alquileres",
             description = "Operacion de lectura",
-            summary = "Se devuelve una lista de todos los alquileres almacenados en la base de datos.")
+            summary = "Se devuelve una pagina de alquileres ordenados por identificador, con filtros opcionales.")
     @ApiResponse(
             responseCode = "200",
-            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Alquiler.class)))
-    public List<Alquiler> getAllAlquileres() {
-        return alquilerService.getAllAlquileres();
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Pagina.class)))
+    @ApiResponse(
+            responseCode = "400",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "Cursor no valido.")
+    public Pagina<Alquiler> getAlquileres(
+            @Parameter(description = "Cursor devuelto en siguienteCursor por la pagina anterior.")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Numero de alquileres por pagina (acotado por paginacion.tamano-maximo).")
+            @RequestParam(defaultValue = "50") int tamano,
+            @RequestParam(required = false) String idPelicula,
+            @RequestParam(required = false) String tipoRecibo,
+            @Parameter(description = "Inicio del periodo: alquileres que terminan en esta fecha o despues.")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME, fallbackPatterns = "yyyy-MM-dd") Date desde,
+            @Parameter(description = "Fin del periodo: alquileres que empiezan antes de esta fecha.")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME, fallbackPatterns = "yyyy-MM-dd") Date hasta) {
+        return alquilerService.getAlquileres(cursor, tamano, idPelicula, tipoRecibo, desde, hasta);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(
+            operationId = "Exportar alquileres",
+            description = "Operacion de lectura",
+            summary = "Se exportan todos los alquileres en streaming, uno por linea en formato JSON (NDJSON).")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = Alquiler.class)))
+    public ResponseEntity<StreamingResponseBody> exportAlquileres() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(alquilerService::exportarAlquileres);
+    }
+
+    @GetMapping("/disponibilidad")
+    @Operation(
+            operationId = "Consultar disponibilidad",
+            description = "Operacion de lectura",
+            summary = "Se indica si una pelicula esta libre en un instante y, si no, que alquileres la ocupan.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Disponibilidad.class)))
+    public Disponibilidad getDisponibilidad(
+            @RequestParam String idPelicula,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME, fallbackPatterns = "yyyy-MM-dd") Date fecha) {
+        return alquilerService.getDisponibilidad(idPelicula, fecha);
+    }
+
+    @GetMapping("/solapes")
+    @Operation(
+            operationId = "Consultar solapes",
+            description = "Operacion de lectura",
+            summary = "Se devuelven los alquileres de una pelicula que se solapan con el periodo [desde, hasta).")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = IntervaloAlquiler.class))))
+    public List<IntervaloAlquiler> getSolapes(
+            @RequestParam String idPelicula,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME, fallbackPatterns = "yyyy-MM-dd") Date desde,
+            @Parameter(description = "Fin del periodo (excluido). Sin valor, el periodo no tiene fin.")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME, fallbackPatterns = "yyyy-MM-dd") Date hasta) {
+        return alquilerService.getSolapes(idPelicula, desde, hasta);
     }
 
     @GetMapping("/{id}")
@@ -42,13 +118,29 @@ public class AlquilerController {
     @ApiResponse(
             responseCode = "200",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Alquiler.class)))
+    @ApiResponse(
+            responseCode = "304",
+            description = "La version indicada en If-None-Match sigue vigente; se responde sin cuerpo.")
     @ApiResponse(
             responseCode = "404",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
             description = "No se ha encontrado el alquiler con el identificador indicado.")
-    public ResponseEntity<Alquiler> getAlquilerById( @PathVariable Long id) {
-        Optional<Alquiler> alquiler = alquilerService.getAlquilerById(id);
-        return alquiler.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+    public ResponseEntity<Alquiler> getAlquilerById(@PathVariable Long id, WebRequest request) {
+        // Con If-None-Match basta con leer la version para saber si se puede responder 304
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            Optional<Long> version = alquilerService.getVersionAlquiler(id);
+            if (version.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            String etag = ETags.de(version.get());
+            // checkNotModified ya añade el ETag a la respuesta
+            if (request.checkNotModified(etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+            }
+        }
+        return alquilerService.getAlquilerById(id)
+                .map(alquiler -> ResponseEntity.ok().eTag(ETags.de(alquiler.getVersion())).body(alquiler))
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     @PostMapping
@@ -63,8 +155,41 @@ public class AlquilerController {
     @ApiResponse(
             responseCode = "201",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Alquiler.class)))
-    public Alquiler createAlquiler( @RequestBody Alquiler alquiler) {
-        return alquilerService.createAlquiler(alquiler);
+    @ApiResponse(
+            responseCode = "409",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "El alquiler se solapa con otro de la misma pelicula (con alquileres.rechazar-solapes), tambien con el de una peticion con la misma clave de idempotencia que aun no ha terminado.")
+    @ApiResponse(
+            responseCode = "422",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "La clave de idempotencia ya se ha usado con otro alquiler.")
+    public Alquiler createAlquiler(
+            @Parameter(description = "Clave unica de la peticion: los reintentos con la misma clave devuelven el resultado original sin crear otro alquiler.")
+            @RequestHeader(value = RegistroIdempotencia.CABECERA, required = false) String claveIdempotencia,
+            @RequestBody Alquiler alquiler) {
+        return registroIdempotencia.ejecutar("alquiler", claveIdempotencia, alquiler, Alquiler.class,
+                () -> alquilerService.createAlquiler(alquiler));
+    }
+
+    @PostMapping("/batch")
+    @Operation(
+            operationId = "Insertar alquileres por lotes",
+            description = "Operacion de escritura",
+            summary = "Se crean varios alquileres en una sola peticion. Cada elemento se valida por separado.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "Alquileres a crear.",
+                    required = true,
+                    content = @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = Alquiler.class)))))
+    @ApiResponse(
+            responseCode = "200",
+            description = "Resultado de cada elemento, en el mismo orden de la peticion: id si se ha creado o motivo del rechazo.",
+            content = @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = ResultadoLote.class))))
+    @ApiResponse(
+            responseCode = "400",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "El lote supera el tamaño maximo.")
+    public List<ResultadoLote> createAlquileres(@RequestBody List<Alquiler> alquileres) {
+        return alquilerService.createAlquileres(alquileres);
     }
 
     @PutMapping("/{id}")
@@ -83,21 +208,29 @@ public class AlquilerController {
             responseCode = "404",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
             description = "Alquiler no encontrado.")
+    @ApiResponse(
+            responseCode = "412",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "El alquiler ha cambiado desde la version indicada en If-Match.")
     public ResponseEntity<Alquiler> updateAlquiler( @PathVariable Long id,
-                                                    @RequestBody Alquiler alquilerDetails) {
-        Alquiler updatedAlquiler = alquilerService.updateAlquiler(id, alquilerDetails);
-        return updatedAlquiler != null ? ResponseEntity.ok(updatedAlquiler) : ResponseEntity.notFound().build();
+                                                    @RequestBody Alquiler alquilerDetails,
+            @Parameter(description = "ETag de la version a modificar. Si el registro ha cambiado se responde 412.")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Alquiler updatedAlquiler = alquilerService.updateAlquiler(id, alquilerDetails, ETags.versiones(ifMatch));
+        return updatedAlquiler != null
+                ? ResponseEntity.ok().eTag(ETags.de(updatedAlquiler.getVersion())).body(updatedAlquiler)
+                : ResponseEntity.notFound().build();
     }
 
-    @PatchMapping("/{id}")
+    @PatchMapping(value = "/{id}", consumes = {"application/merge-patch+json", MediaType.APPLICATION_JSON_VALUE})
     @Operation(
             operationId = "Modificar parcialmente un alquiler",
             description = "RFC 7386. Operacion de escritura",
             summary = "RFC 7386. Se modifica parcialmente un alquiler.",
             requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
-                    description = "Datos del alquiler a crear.",
+                    description = "Campos a modificar. Un campo a null se borra; los ausentes no cambian.",
                     required = true,
-                    content = @Content(mediaType = "application/merge-patch+json", schema = @Schema(implementation = String.class))))
+                    content = @Content(mediaType = "application/merge-patch+json", schema = @Schema(implementation = Alquiler.class))))
     @ApiResponse(
             responseCode = "200",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Alquiler.class)))
@@ -105,28 +238,20 @@ public class AlquilerController {
             responseCode = "400",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
             description = "Alquiler inválido o datos incorrectos introducidos.")
-    public ResponseEntity<Alquiler> partialUpdateAlquiler(  @PathVariable Long id,
-                                                           @RequestBody Alquiler alquilerDetails) {
-        Alquiler existingAlquiler = alquilerService.getAlquilerById(id).orElse(null);
-        if (existingAlquiler == null) {
-            return ResponseEntity.notFound().build();
-        }
-
-        if (alquilerDetails.getFechaDesde() != null) {
-            existingAlquiler.setFechaDesde(alquilerDetails.getFechaDesde());
-        }
-        if (alquilerDetails.getFechaHasta() != null) {
-            existingAlquiler.setFechaHasta(alquilerDetails.getFechaHasta());
-        }
-        if (alquilerDetails.getPrecioFinal() != 0) {
-            existingAlquiler.setPrecioFinal(alquilerDetails.getPrecioFinal());
-        }
-        if (alquilerDetails.getTipoRecibo() != null) {
-            existingAlquiler.setTipoRecibo(alquilerDetails.getTipoRecibo());
-        }
-
-        Alquiler updatedAlquiler = alquilerService.updateAlquiler(id, existingAlquiler);
-        return ResponseEntity.ok(updatedAlquiler);
+    @ApiResponse(
+            responseCode = "404",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "Alquiler no encontrado.")
+    @ApiResponse(
+            responseCode = "412",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "El alquiler ha cambiado desde la version indicada en If-Match.")
+    public ResponseEntity<Alquiler> partialUpdateAlquiler(@PathVariable Long id, @RequestBody JsonMergePatch patch,
+            @Parameter(description = "ETag de la version a modificar. Si el registro ha cambiado se responde 412.")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return alquilerService.patchAlquiler(id, patch, ETags.versiones(ifMatch))
+                .map(alquiler -> ResponseEntity.ok().eTag(ETags.de(alquiler.getVersion())).body(alquiler))
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     @DeleteMapping("/{id}")
@@ -145,8 +270,14 @@ public class AlquilerController {
             responseCode = "400",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
             description = "alquiler inválido o datos incorrectos introducidos.")
-    public ResponseEntity<Void> deleteAlquiler( @PathVariable Long id) {
-        alquilerService.deleteAlquiler(id);
+    @ApiResponse(
+            responseCode = "412",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "El alquiler ha cambiado desde la version indicada en If-Match.")
+    public ResponseEntity<Void> deleteAlquiler( @PathVariable Long id,
+            @Parameter(description = "ETag de la version a borrar. Si el registro ha cambiado se responde 412.")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        alquilerService.deleteAlquiler(id, ETags.versiones(ifMatch));
         return ResponseEntity.noContent().build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package com.laboratorio.operator.controller;
+
+import com.laboratorio.operator.cambios.DifusorCambios;
+import com.laboratorio.operator.model.EventoCambio;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/cambios")
+@Tag(name = "Cambios Controller", description = "Flujo de altas, modificaciones y borrados de compras y alquileres en orden (Server-Sent Events).")
+public class CambiosController {
+
+    @Autowired
+    private DifusorCambios difusorCambios;
+
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(
+            operationId = "Suscribirse a cambios",
+            description = "Operacion de lectura. Cada evento lleva como id su posicion; al reconectar con Last-Event-ID se reciben los eventos perdidos.",
+            summary = "Se abre un flujo SSE con los cambios de compras y alquileres.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = EventoCambio.class)))
+    @ApiResponse(
+            responseCode = "400",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "Recurso no valido.")
+    public SseEmitter getCambios(
+            @Parameter(description = "Posicion del ultimo evento recibido; la envia el navegador al reconectar.")
+            @RequestHeader(value = "Last-Event-ID", required = false) Long ultimoEvento,
+            @Parameter(description = "Posicion desde la que empezar (excluida) si no hay Last-Event-ID. Sin ninguno de los dos solo se reciben los cambios nuevos.")
+            @RequestParam(required = false) Long desde,
+            @Parameter(description = "Solo cambios de \"compra\" o de \"alquiler\".")
+            @RequestParam(required = false) String recurso) {
+        if (recurso != null && !recurso.equals(EventoCambio.COMPRA) && !recurso.equals(EventoCambio.ALQUILER)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Recurso no valido: " + recurso);
+        }
+        return difusorCambios.suscribir(ultimoEvento != null ? ultimoEvento : desde, recurso);
+    }
+}
@@ -1,17 +1,36 @@
 package com.laboratorio.operator.controller;
 
+import com.github.fge.jsonpatch.mergepatch.JsonMergePatch;
+import com.laboratorio.operator.idempotencia.RegistroIdempotencia;
+import com.laboratorio.operator.ingesta.IngestaCompras;
 import com.laboratorio.operator.model.Compra;
+import com.laboratorio.operator.model.EstadoIngesta;
+import com.laboratorio.operator.model.Pagina;
+import com.laboratorio.operator.model.ResultadoLote;
 import com.laboratorio.operator.service.CompraService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.net.URI;
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/compras")
@@ -22,16 +41,51 @@ public class CompraController {
     @Autowired
     private CompraService compraService;
 
+    @Autowired
+    private RegistroIdempotencia registroIdempotencia;
+
+    // Solo con compras.ingesta-asincrona.enabled
+    @Autowired(required = false)
+    private IngestaCompras ingestaCompras;
+
     @GetMapping
     @Operation(
             operationId = "Obtener compras",
             description = "Operacion de lectura",
-            summary = "Se devuelve una lista de todas las compras almacenadas en la base de datos.")
+            summary = "Se devuelve una pagina de compras ordenadas por identificador, con filtros opcionales.")
     @ApiResponse(
             responseCode = "200",
-            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Compra.class)))
-    public List<Compra> getAllCompras() {
-        return compraService.getAllCompras();
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Pagina.class)))
+    @ApiResponse(
+            responseCode = "400",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "Cursor no valido.")
+    public Pagina<Compra> getCompras(
+            @Parameter(description = "Cursor devuelto en siguienteCursor por la pagina anterior.")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Numero de compras por pagina (acotado por paginacion.tamano-maximo).")
+            @RequestParam(defaultValue = "50") int tamano,
+            @RequestParam(required = false) Integer idPelicula,
+            @RequestParam(required = false) String tipoPago,
+            @Parameter(description = "Fecha de compra minima (incluida).")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME, fallbackPatterns = "yyyy-MM-dd") Date desde,
+            @Parameter(description = "Fecha de compra maxima (excluida).")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME, fallbackPatterns = "yyyy-MM-dd") Date hasta) {
+        return compraService.getCompras(cursor, tamano, idPelicula, tipoPago, desde, hasta);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(
+            operationId = "Exportar compras",
+            description = "Operacion de lectura",
+            summary = "Se exportan todas las compras en streaming, una por linea en formato JSON (NDJSON).")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = Compra.class)))
+    public ResponseEntity<StreamingResponseBody> exportCompras() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(compraService::exportarCompras);
     }
 
     @GetMapping("/{id}")
@@ -42,13 +96,28 @@ public class CompraController {
     @ApiResponse(
             responseCode = "200",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Compra.class)))
+    @ApiResponse(
+            responseCode = "304",
+            description = "La version indicada en If-None-Match sigue vigente; se responde sin cuerpo.")
     @ApiResponse(
             responseCode = "404",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
             description = "No se ha encontrado la compra con el identificador indicado.")
-    public ResponseEntity<Compra> getCompraById(@PathVariable Long id) {
+    public ResponseEntity<Compra> getCompraById(@PathVariable Long id, WebRequest request) {
+        // Con If-None-Match basta con leer la version para saber si se puede responder 304
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            Optional<Long> version = compraService.getVersionCompra(id);
+            if (version.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            String etag = ETags.de(version.get());
+            // checkNotModified ya añade el ETag a la respuesta
+            if (request.checkNotModified(etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+            }
+        }
         return compraService.getCompraById(id)
-                .map(ResponseEntity::ok)
+                .map(compra -> ResponseEntity.ok().eTag(ETags.de(compra.getVersion())).body(compra))
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -64,8 +133,74 @@ public class CompraController {
     @ApiResponse(
             responseCode = "201",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Compra.class)))
-    public Compra createCompra(  @RequestBody Compra compra) {
-        return compraService.createCompra(compra);
+    @ApiResponse(
+            responseCode = "202",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = EstadoIngesta.class)),
+            description = "Con la ingesta asincrona: compra anotada y pendiente de guardar. Location apunta a su estado.")
+    @ApiResponse(
+            responseCode = "400",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "Clave de idempotencia vacia o demasiado larga, o enviada con la ingesta asincrona activa.")
+    @ApiResponse(
+            responseCode = "422",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "La clave de idempotencia ya se ha usado con otra compra.")
+    public ResponseEntity<?> createCompra(
+            @Parameter(description = "Clave unica de la peticion: los reintentos con la misma clave devuelven el resultado original sin crear otra compra. No se admite con la ingesta asincrona.")
+            @RequestHeader(value = RegistroIdempotencia.CABECERA, required = false) String claveIdempotencia,
+            @RequestBody Compra compra) {
+        if (ingestaCompras != null) {
+            // La compra se guarda despues de responder: la clave no se puede confirmar con ella
+            if (claveIdempotencia != null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "La cabecera " + RegistroIdempotencia.CABECERA + " no se admite con la ingesta asincrona;"
+                                + " el estado de la compra se consulta con su id de seguimiento");
+            }
+            EstadoIngesta estado = ingestaCompras.aceptar(compra);
+            return ResponseEntity.accepted().location(URI.create("/compras/ingestas/" + estado.id())).body(estado);
+        }
+        return ResponseEntity.ok(registroIdempotencia.ejecutar("compra", claveIdempotencia, compra, Compra.class,
+                () -> compraService.createCompra(compra)));
+    }
+
+    @GetMapping("/ingestas/{id}")
+    @Operation(
+            operationId = "Obtener el estado de una ingesta",
+            description = "Operacion de lectura",
+            summary = "Se devuelve si una compra recibida con la ingesta asincrona esta pendiente, guardada o rechazada.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = EstadoIngesta.class)))
+    @ApiResponse(
+            responseCode = "404",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "Id de seguimiento desconocido o caducado, o ingesta asincrona desactivada.")
+    public ResponseEntity<EstadoIngesta> getEstadoIngesta(@PathVariable UUID id) {
+        if (ingestaCompras == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.of(ingestaCompras.estado(id));
+    }
+
+    @PostMapping("/batch")
+    @Operation(
+            operationId = "Insertar compras por lotes",
+            description = "Operacion de escritura",
+            summary = "Se crean varias compras en una sola peticion. Cada elemento se valida por separado.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "Compras a crear.",
+                    required = true,
+                    content = @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = Compra.class)))))
+    @ApiResponse(
+            responseCode = "200",
+            description = "Resultado de cada elemento, en el mismo orden de la peticion: id si se ha creada o motivo del rechazo.",
+            content = @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = ResultadoLote.class))))
+    @ApiResponse(
+            responseCode = "400",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "El lote supera el tamaño maximo.")
+    public List<ResultadoLote> createCompras(@RequestBody List<Compra> compras) {
+        return compraService.createCompras(compras);
     }
 
     @PutMapping("/{id}")
@@ -84,20 +219,27 @@ public class CompraController {
             responseCode = "404",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
             description = "Compra no encontrada.")
+    @ApiResponse(
+            responseCode = "412",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "La compra ha cambiado desde la version indicada en If-Match.")
     public ResponseEntity<Compra> updateCompra( @PathVariable Long id,
-                                               @RequestBody Compra compraDetails) {
-        return ResponseEntity.ok(compraService.updateCompra(id, compraDetails));
+                                               @RequestBody Compra compraDetails,
+            @Parameter(description = "ETag de la version a modificar. Si el registro ha cambiado se responde 412.")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Compra compra = compraService.updateCompra(id, compraDetails, ETags.versiones(ifMatch));
+        return ResponseEntity.ok().eTag(ETags.de(compra.getVersion())).body(compra);
     }
 
-    @PatchMapping("/{id}")
+    @PatchMapping(value = "/{id}", consumes = {"application/merge-patch+json", MediaType.APPLICATION_JSON_VALUE})
     @Operation(
             operationId = "Modificar parcialmente una compra",
             description = "RFC 7386. Operacion de escritura",
             summary = "RFC 7386. Se modifica parcialmente una compra.",
             requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
-                    description = "Datos de la compra a crear.",
+                    description = "Campos a modificar. Un campo a null se borra; los ausentes no cambian.",
                     required = true,
-                    content = @Content(mediaType = "application/merge-patch+json", schema = @Schema(implementation = String.class))))
+                    content = @Content(mediaType = "application/merge-patch+json", schema = @Schema(implementation = Compra.class))))
     @ApiResponse(
             responseCode = "200",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Compra.class)))
@@ -105,9 +247,20 @@ public class CompraController {
             responseCode = "400",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
             description = "Compra inválida o datos incorrectos introducidos.")
-    public ResponseEntity<Compra> patchCompra( @PathVariable Long id,
-                                               @RequestBody Compra compraDetails) {
-        return ResponseEntity.ok(compraService.patchCompra(id, compraDetails));
+    @ApiResponse(
+            responseCode = "404",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "Compra no encontrada.")
+    @ApiResponse(
+            responseCode = "412",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "La compra ha cambiado desde la version indicada en If-Match.")
+    public ResponseEntity<Compra> patchCompra(@PathVariable Long id, @RequestBody JsonMergePatch patch,
+            @Parameter(description = "ETag de la version a modificar. Si el registro ha cambiado se responde 412.")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return compraService.patchCompra(id, patch, ETags.versiones(ifMatch))
+                .map(compra -> ResponseEntity.ok().eTag(ETags.de(compra.getVersion())).body(compra))
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     @DeleteMapping("/{id}")
@@ -126,8 +279,14 @@ public class CompraController {
             responseCode = "400",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
             description = "alquiler inválido o datos incorrectos introducidos.")
-    public ResponseEntity<Void> deleteCompra(  @PathVariable Long id) {
-        compraService.deleteCompra(id);
+    @ApiResponse(
+            responseCode = "412",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = Void.class)),
+            description = "La compra ha cambiado desde la version indicada en If-Match.")
+    public ResponseEntity<Void> deleteCompra(  @PathVariable Long id,
+            @Parameter(description = "ETag de la version a borrar. Si el registro ha cambiado se responde 412.")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        compraService.deleteCompra(id, ETags.versiones(ifMatch));
         return ResponseEntity.noContent().build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.laboratorio.operator.controller;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ETags derivados de la columna de version de las entidades.
+ */
+final class ETags {
+
+    private ETags() {
+    }
+
+    static String de(Long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Versiones que acepta una cabecera If-Match, o null si no impone condicion (ausente o "*").
+     * Solo se admite comparacion fuerte: los ETags debiles o mal formados no coinciden con ninguna version.
+     */
+    static Set<Long> versiones(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        Set<Long> versiones = new HashSet<>();
+        for (String etag : ifMatch.split(",")) {
+            String valor = etag.trim();
+            if (valor.length() > 2 && valor.startsWith("\"") && valor.endsWith("\"")) {
+                try {
+                    versiones.add(Long.parseLong(valor.substring(1, valor.length() - 1)));
+                } catch (NumberFormatException e) {
+                    // No corresponde a ninguna version
+                }
+            }
+        }
+        return versiones;
+    }
+}
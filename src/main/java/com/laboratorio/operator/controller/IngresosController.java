@@ -0,0 +1,135 @@
+package com.laboratorio.operator.controller;
+
+import com.laboratorio.operator.agregados.AgregadosIngresos;
+import com.laboratorio.operator.model.ResumenIngresos;
+import com.laboratorio.operator.model.VerificacionIngresos;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+
+@RestController
+@RequestMapping("/ingresos")
+@Tag(name = "Ingresos Controller", description = "Totales de ingresos de compras y alquileres mantenidos en memoria en cada escritura.")
+public class IngresosController {
+
+    @Autowired
+    private AgregadosIngresos agregadosIngresos;
+
+    @GetMapping("/compras")
+    @Operation(
+            operationId = "Ingresos por compras",
+            description = "Operacion de lectura",
+            summary = "Se devuelve el numero de compras y el total, minimo y maximo de precioTotal.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = ResumenIngresos.class)))
+    public ResumenIngresos getCompras() {
+        return agregadosIngresos.compras();
+    }
+
+    @GetMapping("/compras/peliculas/{idPelicula}")
+    @Operation(
+            operationId = "Ingresos por compras de una pelicula",
+            description = "Operacion de lectura",
+            summary = "Se devuelve el resumen de las compras de una pelicula.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = ResumenIngresos.class)))
+    public ResumenIngresos getComprasPorPelicula(@PathVariable String idPelicula) {
+        return agregadosIngresos.comprasPorPelicula(idPelicula);
+    }
+
+    @GetMapping("/compras/dias/{dia}")
+    @Operation(
+            operationId = "Ingresos por compras de un dia",
+            description = "Operacion de lectura",
+            summary = "Se devuelve el resumen de las compras con fechaCompra en el dia indicado (yyyy-MM-dd).")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = ResumenIngresos.class)))
+    public ResumenIngresos getComprasPorDia(@PathVariable @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dia) {
+        return agregadosIngresos.comprasPorDia(dia);
+    }
+
+    @GetMapping("/compras/tipos-pago/{tipoPago}")
+    @Operation(
+            operationId = "Ingresos por compras de un tipo de pago",
+            description = "Operacion de lectura",
+            summary = "Se devuelve el resumen de las compras con el tipo de pago indicado.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = ResumenIngresos.class)))
+    public ResumenIngresos getComprasPorTipoPago(@PathVariable String tipoPago) {
+        return agregadosIngresos.comprasPorTipoPago(tipoPago);
+    }
+
+    @GetMapping("/alquileres")
+    @Operation(
+            operationId = "Ingresos por alquileres",
+            description = "Operacion de lectura",
+            summary = "Se devuelve el numero de alquileres y el total, minimo y maximo de precioFinal.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = ResumenIngresos.class)))
+    public ResumenIngresos getAlquileres() {
+        return agregadosIngresos.alquileres();
+    }
+
+    @GetMapping("/alquileres/peliculas/{idPelicula}")
+    @Operation(
+            operationId = "Ingresos por alquileres de una pelicula",
+            description = "Operacion de lectura",
+            summary = "Se devuelve el resumen de los alquileres de una pelicula.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = ResumenIngresos.class)))
+    public ResumenIngresos getAlquileresPorPelicula(@PathVariable String idPelicula) {
+        return agregadosIngresos.alquileresPorPelicula(idPelicula);
+    }
+
+    @GetMapping("/alquileres/dias/{dia}")
+    @Operation(
+            operationId = "Ingresos por alquileres de un dia",
+            description = "Operacion de lectura",
+            summary = "Se devuelve el resumen de los alquileres con fechaDesde en el dia indicado (yyyy-MM-dd).")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = ResumenIngresos.class)))
+    public ResumenIngresos getAlquileresPorDia(@PathVariable @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dia) {
+        return agregadosIngresos.alquileresPorDia(dia);
+    }
+
+    @GetMapping("/alquileres/tipos-recibo/{tipoRecibo}")
+    @Operation(
+            operationId = "Ingresos por alquileres de un tipo de recibo",
+            description = "Operacion de lectura",
+            summary = "Se devuelve el resumen de los alquileres con el tipo de recibo indicado.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = ResumenIngresos.class)))
+    public ResumenIngresos getAlquileresPorTipoRecibo(@PathVariable String tipoRecibo) {
+        return agregadosIngresos.alquileresPorTipoRecibo(tipoRecibo);
+    }
+
+    @GetMapping("/verificacion")
+    @Operation(
+            operationId = "Verificar ingresos",
+            description = "Operacion de lectura. Recorre las tablas de compras y alquileres.",
+            summary = "Se recalculan los totales desde base de datos y se comparan con los mantenidos en memoria.")
+    @ApiResponse(
+            responseCode = "200",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = VerificacionIngresos.class)))
+    public VerificacionIngresos verificar() {
+        return agregadosIngresos.verificar();
+    }
+}
@@ -0,0 +1,24 @@
+package com.laboratorio.operator.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.io.IOException;
+
+@RestControllerAdvice
+public class ManejadorErrores {
+
+    // Otra peticion ha modificado el registro entre la lectura y el UPDATE. Si el cliente indico la
+    // version con If-Match es un fallo de la precondicion; si no, un conflicto.
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public void modificacionConcurrente(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        HttpStatus estado = request.getHeader(HttpHeaders.IF_MATCH) != null
+                ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT;
+        response.sendError(estado.value(), "El registro ha sido modificado por otra peticion");
+    }
+}
@@ -0,0 +1,111 @@
+package com.laboratorio.operator.diagnostico;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Avisa de los hilos virtuales que se bloquean anclados a su hilo portador (spring.threads.virtual.enabled),
+ * por ejemplo esperando dentro de un bloque synchronized del driver JDBC o de H2: mientras dura el
+ * bloqueo el portador no puede ejecutar otros hilos virtuales. Los eventos jdk.VirtualThreadPinned de
+ * JFR que superan el umbral se miden en jvm.threads.virtual.pinned y cada pila distinta se registra
+ * una vez en el log. Los hilos virtuales que no se han podido arrancar cuentan en
+ * jvm.threads.virtual.submit.failed.
+ */
+@Component
+@ConditionalOnProperty(prefix = "spring.threads.virtual", name = "enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class AnclajesHilosVirtuales implements SmartInitializingSingleton, DisposableBean {
+
+    private static final String ANCLADO = "jdk.VirtualThreadPinned";
+
+    private static final String FALLO_ARRANQUE = "jdk.VirtualThreadSubmitFailed";
+
+    // Pilas ya registradas; pasado el maximo solo se cuentan
+    private static final int PILAS_MAXIMAS = 1000;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${diagnostico.anclajes.umbral:20ms}")
+    private Duration umbral;
+
+    @Value("${diagnostico.anclajes.marcos:12}")
+    private int marcos;
+
+    private final Set<String> registradas = ConcurrentHashMap.newKeySet();
+
+    private RecordingStream eventos;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        Timer anclados = Timer.builder("jvm.threads.virtual.pinned")
+                .description("Bloqueos de hilos virtuales anclados a su hilo portador")
+                .register(meterRegistry);
+        Counter fallosArranque = Counter.builder("jvm.threads.virtual.submit.failed")
+                .description("Hilos virtuales que no se han podido arrancar o desbloquear")
+                .register(meterRegistry);
+        eventos = new RecordingStream();
+        eventos.enable(ANCLADO).withThreshold(umbral).withStackTrace();
+        eventos.enable(FALLO_ARRANQUE).withStackTrace();
+        eventos.onEvent(ANCLADO, evento -> {
+            anclados.record(evento.getDuration());
+            String pila = pila(evento);
+            if (registradas.size() < PILAS_MAXIMAS && registradas.add(pila)) {
+                log.warn("Hilo virtual {} anclado a su portador durante {} ms en:{}", hilo(evento),
+                        evento.getDuration().toMillis(), pila);
+            }
+        });
+        eventos.onEvent(FALLO_ARRANQUE, evento -> {
+            fallosArranque.increment();
+            log.error("No se ha podido arrancar o desbloquear el hilo virtual {}: {}", hilo(evento),
+                    evento.getString("exceptionMessage"));
+        });
+        eventos.startAsync();
+        log.info("Registrando hilos virtuales anclados mas de {} ms", umbral.toMillis());
+    }
+
+    @Override
+    public void destroy() {
+        if (eventos != null) {
+            eventos.close();
+        }
+    }
+
+    private String pila(RecordedEvent evento) {
+        RecordedStackTrace traza = evento.getStackTrace();
+        if (traza == null) {
+            return " (sin pila)";
+        }
+        boolean recortada = traza.isTruncated() || traza.getFrames().size() > marcos;
+        return traza.getFrames().stream()
+                .limit(marcos)
+                .map(AnclajesHilosVirtuales::marco)
+                .collect(Collectors.joining("\n\tat ", "\n\tat ", recortada ? "\n\t..." : ""));
+    }
+
+    private static String marco(RecordedFrame marco) {
+        return marco.getMethod().getType().getName() + "." + marco.getMethod().getName()
+                + (marco.getLineNumber() > 0 ? ":" + marco.getLineNumber() : "");
+    }
+
+    private static String hilo(RecordedEvent evento) {
+        return evento.getThread() != null ? evento.getThread().getJavaName() : "?";
+    }
+}
@@ -0,0 +1,10 @@
+package com.laboratorio.operator.evento;
+
+import com.laboratorio.operator.model.Compra;
+
+/**
+ * Alta, modificacion o borrado de una compra. {@code anterior} es null en un alta y
+ * {@code actual} es null en un borrado; ambos son copias que no cambian tras publicarse.
+ */
+public record CambioCompra(Compra anterior, Compra actual) {
+}
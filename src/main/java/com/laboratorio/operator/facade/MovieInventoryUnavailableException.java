@@ -0,0 +1,12 @@
+package com.laboratorio.operator.facade;
+
+/**
+ * El inventario de peliculas no ha podido responder: circuito abierto, limite de llamadas
+ * concurrentes alcanzado o error del servidor remoto. No implica que la pelicula no exista.
+ */
+public class MovieInventoryUnavailableException extends RuntimeException {
+
+  public MovieInventoryUnavailableException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,81 @@
+package com.laboratorio.operator.facade;
+
+import com.laboratorio.operator.model.MovieDto;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Agrupa las consultas individuales que llegan dentro de una ventana de tiempo y
+ * las despacha juntas, sin repetir identificadores.
+ */
+class MovieLookupBatcher {
+
+  private final Duration window;
+  private final int maxSize;
+  private final Function<String, CompletableFuture<Optional<MovieDto>>> fetcher;
+  private final DistributionSummary batchSize;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+      Thread.ofPlatform().name("movies-batcher").daemon().factory());
+
+  private Map<String, CompletableFuture<Optional<MovieDto>>> pending = new LinkedHashMap<>();
+  private ScheduledFuture<?> flushTask;
+
+  MovieLookupBatcher(Duration window, int maxSize,
+                     Function<String, CompletableFuture<Optional<MovieDto>>> fetcher,
+                     MeterRegistry meterRegistry) {
+    this.window = window;
+    this.maxSize = maxSize;
+    this.fetcher = fetcher;
+    this.batchSize = DistributionSummary.builder("movies.batch.size")
+        .description("Identificadores distintos despachados por ventana")
+        .register(meterRegistry);
+  }
+
+  synchronized CompletableFuture<Optional<MovieDto>> submit(String id) {
+    CompletableFuture<Optional<MovieDto>> waiter = pending.computeIfAbsent(id, k -> new CompletableFuture<>());
+    if (pending.size() >= maxSize) {
+      if (flushTask != null) {
+        flushTask.cancel(false);
+      }
+      flushTask = scheduler.schedule(this::flush, 0, TimeUnit.NANOSECONDS);
+    } else if (flushTask == null) {
+      flushTask = scheduler.schedule(this::flush, window.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    return waiter;
+  }
+
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private void flush() {
+    Map<String, CompletableFuture<Optional<MovieDto>>> batch;
+    synchronized (this) {
+      batch = pending;
+      pending = new LinkedHashMap<>();
+      flushTask = null;
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    batchSize.record(batch.size());
+    batch.forEach((id, waiter) -> fetcher.apply(id).whenComplete((movie, error) -> {
+      if (error != null) {
+        waiter.completeExceptionally(error);
+      } else {
+        waiter.complete(movie);
+      }
+    }));
+  }
+}
@@ -0,0 +1,181 @@
+package com.laboratorio.operator.facade;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Peticiones de respaldo: si una consulta no ha respondido cuando supera el percentil configurado
+ * de las latencias recientes, se lanza un segundo intento (a otra instancia, ver
+ * BalanceadorLatencia.CABECERA_CONSULTA) y se usa la primera respuesta correcta. El intento
+ * perdedor se cancela interrumpiendo su hilo.
+ * <p>
+ * Los respaldos se limitan con un presupuesto: cada consulta suma {@code budget} fichas y cada
+ * respaldo gasta una, de forma que como mucho se envia esa fraccion de peticiones extra (mas una
+ * pequeña reserva para rafagas).
+ */
+class MovieLookupHedger {
+
+  private static final int SAMPLES = 1024;
+
+  // Muestras minimas antes de calcular el percentil: hasta entonces no hay respaldos
+  private static final int MIN_SAMPLES = 100;
+
+  private final double percentile;
+  private final long minDelayNanos;
+  private final double budget;
+  private final double maxTokens;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+      Thread.ofPlatform().name("movies-hedger").daemon().factory());
+
+  private final Counter sent;
+  private final Counter won;
+  private final Counter noBudget;
+
+  // Latencias recientes (ns) en un buffer circular; el retardo se recalcula cada 64 muestras
+  private final long[] samples = new long[SAMPLES];
+  private int next;
+  private int filled;
+  private int sinceUpdate;
+  private volatile long delayNanos = Long.MAX_VALUE;
+
+  private double tokens;
+
+  MovieLookupHedger(double percentile, Duration minDelay, double budget, double maxTokens,
+                    MeterRegistry meterRegistry) {
+    this.percentile = percentile;
+    this.minDelayNanos = minDelay.toNanos();
+    this.budget = budget;
+    this.maxTokens = maxTokens;
+    this.tokens = maxTokens;
+    this.sent = meterRegistry.counter("movies.lookup.hedges", "result", "sent");
+    this.won = meterRegistry.counter("movies.lookup.hedges", "result", "won");
+    this.noBudget = meterRegistry.counter("movies.lookup.hedges", "result", "no-budget");
+    meterRegistry.gauge("movies.lookup.hedge.delay", this,
+        hedger -> hedger.delayNanos == Long.MAX_VALUE ? Double.NaN : hedger.delayNanos / 1e9);
+  }
+
+  /**
+   * Ejecuta la consulta en el pool y, si tarda, un respaldo. La funcion recibe el id de la consulta,
+   * comun a ambos intentos.
+   */
+  <T> CompletableFuture<T> submit(Function<String, T> call, ExecutorService executor) {
+    deposit();
+    Lookup<T> lookup = new Lookup<>(call, executor);
+    lookup.primary = executor.submit(() -> lookup.attempt(false));
+    long delay = delayNanos;
+    if (delay != Long.MAX_VALUE) {
+      lookup.timer = scheduler.schedule(lookup::hedge, delay, TimeUnit.NANOSECONDS);
+    }
+    return lookup.result;
+  }
+
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private class Lookup<T> {
+
+    final String id = UUID.randomUUID().toString();
+    final Function<String, T> call;
+    final ExecutorService executor;
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    // Intentos sin terminar: un fallo solo completa la consulta si no queda otro en curso
+    final AtomicInteger running = new AtomicInteger(1);
+    volatile Future<?> primary;
+    volatile Future<?> backup;
+    volatile ScheduledFuture<?> timer;
+
+    Lookup(Function<String, T> call, ExecutorService executor) {
+      this.call = call;
+      this.executor = executor;
+    }
+
+    void hedge() {
+      if (result.isDone()) {
+        return;
+      }
+      if (!withdraw()) {
+        noBudget.increment();
+        return;
+      }
+      sent.increment();
+      running.incrementAndGet();
+      backup = executor.submit(() -> attempt(true));
+      if (result.isDone()) {
+        backup.cancel(true);
+      }
+    }
+
+    // El ganador cancela el otro intento; nunca el suyo, que interrumpiria su propio hilo
+    void attempt(boolean isHedge) {
+      long start = System.nanoTime();
+      try {
+        T value = call.apply(id);
+        record(System.nanoTime() - start);
+        if (result.complete(value)) {
+          if (isHedge) {
+            won.increment();
+          }
+          cancel(isHedge ? primary : backup);
+        }
+      } catch (RuntimeException e) {
+        if (running.decrementAndGet() == 0 && result.completeExceptionally(e)) {
+          cancel(null);
+        }
+      }
+    }
+
+    private void cancel(Future<?> other) {
+      ScheduledFuture<?> pending = timer;
+      if (pending != null) {
+        pending.cancel(false);
+      }
+      if (other != null) {
+        other.cancel(true);
+      }
+    }
+  }
+
+  private synchronized void deposit() {
+    tokens = Math.min(maxTokens, tokens + budget);
+  }
+
+  private synchronized boolean withdraw() {
+    if (tokens < 1) {
+      return false;
+    }
+    tokens--;
+    return true;
+  }
+
+  private void record(long latency) {
+    long[] copy = null;
+    synchronized (samples) {
+      samples[next] = latency;
+      next = (next + 1) % SAMPLES;
+      filled = Math.min(filled + 1, SAMPLES);
+      if (filled >= MIN_SAMPLES && ++sinceUpdate >= 64) {
+        sinceUpdate = 0;
+        copy = Arrays.copyOf(samples, filled);
+      }
+    }
+    if (copy != null) {
+      Arrays.sort(copy);
+      long value = copy[(int) Math.min(copy.length - 1, Math.ceil(percentile * copy.length) - 1)];
+      delayNanos = Math.max(minDelayNanos, value);
+    }
+  }
+}
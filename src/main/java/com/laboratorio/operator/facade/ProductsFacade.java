@@ -1,14 +1,54 @@
 package com.laboratorio.operator.facade;
 
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.laboratorio.operator.balanceo.BalanceadorLatencia;
 import com.laboratorio.operator.model.MovieDto;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.context.ContextExecutorService;
+import io.micrometer.context.ContextSnapshotFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
 @Component
 @RequiredArgsConstructor
 @Slf4j
@@ -17,23 +57,293 @@ public class ProductsFacade {
   @Value("${getMovies.url}")
   private String getProductUrl;
 
+  @Value("${getMovies.cache.maximum-size:1000}")
+  private long cacheMaximumSize;
+
+  @Value("${getMovies.cache.ttl:10m}")
+  private Duration cacheTtl;
+
+  @Value("${getMovies.cache.negative-ttl:30s}")
+  private Duration cacheNegativeTtl;
+
+  @Value("${getMovies.batch.max-concurrency:8}")
+  private int batchMaxConcurrency;
+
+  @Value("${getMovies.batch.enabled:false}")
+  private boolean batchEnabled;
+
+  @Value("${getMovies.batch.window:5ms}")
+  private Duration batchWindow;
+
+  @Value("${getMovies.batch.max-size:50}")
+  private int batchMaxSize;
+
+  // Con hilos virtuales el pool sigue acotando las llamadas en paralelo, pero una llamada en espera
+  // no ocupa un hilo del sistema
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  @Value("${getMovies.hedging.enabled:false}")
+  private boolean hedgingEnabled;
+
+  @Value("${getMovies.hedging.percentile:0.95}")
+  private double hedgingPercentile;
+
+  @Value("${getMovies.hedging.min-delay:5ms}")
+  private Duration hedgingMinDelay;
+
+  @Value("${getMovies.hedging.budget:0.05}")
+  private double hedgingBudget;
+
+  @Value("${getMovies.hedging.burst:10}")
+  private double hedgingBurst;
+
   private final RestTemplate restTemplate;
 
+  private final MeterRegistry meterRegistry;
+
+  private final CircuitBreakerRegistry circuitBreakerRegistry;
+
+  private final BulkheadRegistry bulkheadRegistry;
+
+  // Optional.empty() representa un "no encontrado" cacheado durante negative-ttl.
+  // La carga de una misma clave es única: las peticiones concurrentes esperan al mismo resultado.
+  private AsyncLoadingCache<String, Optional<MovieDto>> movies;
+
+  // Las llamadas al inventario son bloqueantes y se ejecutan en este pool, de forma que
+  // como maximo hay batchMaxConcurrency peticiones en vuelo.
+  private ExecutorService lookupExecutor;
+
+  private MovieLookupBatcher batcher;
+
+  private MovieLookupHedger hedger;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  // Configurados en resilience4j.circuitbreaker.instances.movies y resilience4j.bulkhead.instances.movies
+  private CircuitBreaker circuitBreaker;
+
+  private Bulkhead bulkhead;
+
+  // Un timer por resultado: found, 4xx, 5xx o error (sin respuesta del inventario)
+  private final Map<String, Timer> lookupTimers = new HashMap<>();
+
+  @PostConstruct
+  void initCache() {
+    circuitBreaker = circuitBreakerRegistry.circuitBreaker("movies");
+    bulkhead = bulkheadRegistry.bulkhead("movies");
+    Counter circuitOpen = meterRegistry.counter("movies.lookup.rejected", "reason", "circuit-open");
+    Counter bulkheadFull = meterRegistry.counter("movies.lookup.rejected", "reason", "bulkhead-full");
+    circuitBreaker.getEventPublisher().onCallNotPermitted(event -> circuitOpen.increment());
+    bulkhead.getEventPublisher().onCallRejected(event -> bulkheadFull.increment());
+    for (String outcome : List.of("found", "4xx", "5xx", "error")) {
+      lookupTimers.put(outcome, Timer.builder("movies.lookup")
+          .description("Latencia de las llamadas al inventario de peliculas")
+          .tag("outcome", outcome)
+          .publishPercentileHistogram()
+          .register(meterRegistry));
+    }
+
+    // Las tareas del pool heredan el contexto (traza) del hilo que las envia, de forma que la
+    // llamada al inventario propaga la traza de la peticion
+    lookupExecutor = ContextExecutorService.wrap(
+        ExecutorServiceMetrics.monitor(meterRegistry,
+            Executors.newFixedThreadPool(batchMaxConcurrency, virtualThreads
+                ? Thread.ofVirtual().name("movies-lookup-", 0).factory()
+                : Thread.ofPlatform().name("movies-lookup-", 0).daemon().factory()),
+            "movies-lookup"),
+        ContextSnapshotFactory.builder().build()::captureAll);
+    meterRegistry.gauge("movies.lookup.in-flight", inFlight);
+    if (hedgingEnabled) {
+      hedger = new MovieLookupHedger(hedgingPercentile, hedgingMinDelay, hedgingBudget, hedgingBurst, meterRegistry);
+    }
+    if (batchEnabled) {
+      batcher = new MovieLookupBatcher(batchWindow, batchMaxSize, this::protectedFetch, meterRegistry);
+    }
+    movies = Caffeine.newBuilder()
+        .maximumSize(cacheMaximumSize)
+        .expireAfter(new MovieExpiry(cacheTtl, cacheNegativeTtl))
+        .recordStats()
+        .buildAsync(new MovieLoader());
+    CaffeineCacheMetrics.monitor(meterRegistry, movies, "movies");
+  }
+
+  @PreDestroy
+  void shutdown() {
+    if (batcher != null) {
+      batcher.shutdown();
+    }
+    if (hedger != null) {
+      hedger.shutdown();
+    }
+    lookupExecutor.shutdownNow();
+  }
+
+  /**
+   * Devuelve la pelicula o null si no existe.
+   *
+   * @throws MovieInventoryUnavailableException si el inventario no ha podido responder
+   */
   public MovieDto getMovie(String id) {
 
     try {
-      String url = String.format(getProductUrl, id);
-      log.info("Getting product with ID {}. Request to {}", id, url);
-      return restTemplate.getForObject(url, MovieDto.class);
+      return movies.get(id).join().orElse(null);
+    } catch (CompletionException e) {
+      return lookupFailed(unwrap(e), id);
+    }
+  }
+
+  /**
+   * Variante no bloqueante de {@link #getMovie(String)}. El futuro se completa con null si la
+   * pelicula no existe, o con {@link MovieInventoryUnavailableException} si el inventario no
+   * ha podido responder.
+   */
+  public CompletableFuture<MovieDto> getMovieAsync(String id) {
+    return movies.get(id).handle((movie, error) ->
+        error == null ? movie.orElse(null) : lookupFailed(unwrap(error), id));
+  }
+
+  /**
+   * Consulta varias peliculas de una vez. Solo se piden al inventario las que no estan en cache.
+   * Cada id con respuesta del inventario se asocia a su pelicula, o a Optional.empty() si no existe;
+   * los ids que no se han podido consultar no aparecen en el resultado.
+   */
+  public Map<String, Optional<MovieDto>> getMovies(Collection<String> ids) {
+    return movies.getAll(Set.copyOf(ids)).join();
+  }
+
+  private MovieDto lookupFailed(Throwable error, String id) {
+    if (logLookupError(error, id)) {
+      return null;
+    }
+    throw new MovieInventoryUnavailableException("Inventario de peliculas no disponible", error);
+  }
+
+  // Devuelve true si el error equivale a que la pelicula no existe (404). El resto de 4xx (429,
+  // 401, 403...) no dice nada de la pelicula: el inventario no ha podido responder
+  private boolean logLookupError(Throwable error, String id) {
+    if (error instanceof HttpClientErrorException e) {
+      log.error("Client Error: {}, Product with ID {}", e.getStatusCode(), id);
+      return e.getStatusCode() == HttpStatus.NOT_FOUND;
+    }
+    if (error instanceof HttpServerErrorException e) {
+      log.error("Server Error: {}, Product with ID {}", e.getStatusCode(), id);
+    } else if (error instanceof CallNotPermittedException || error instanceof BulkheadFullException) {
+      log.warn("Rejected: {}, Product with ID {}", error.getMessage(), id);
+    } else {
+      log.error("Error: {}, Product with ID {}", error.getMessage(), id);
+    }
+    return false;
+  }
+
+  // El bulkhead limita las consultas pendientes (en cola o en vuelo) y rechaza el resto sin esperar;
+  // el circuit breaker corta las llamadas mientras el inventario falla o responde lento.
+  private CompletableFuture<Optional<MovieDto>> protectedFetch(String id) {
+    Supplier<CompletionStage<Optional<MovieDto>>> call = () -> fetchMovieAsync(id);
+    call = CircuitBreaker.decorateCompletionStage(circuitBreaker, call);
+    call = Bulkhead.decorateCompletionStage(bulkhead, call);
+    return call.get().toCompletableFuture();
+  }
+
+  // Con hedging el circuit breaker y el bulkhead ven una sola llamada aunque se envie un respaldo
+  private CompletableFuture<Optional<MovieDto>> fetchMovieAsync(String id) {
+    if (hedger != null) {
+      return hedger.submit(lookupId -> fetchMovie(id, lookupId), lookupExecutor);
+    }
+    return CompletableFuture.supplyAsync(() -> fetchMovie(id, null), lookupExecutor);
+  }
+
+  // lookupId identifica los intentos de una misma consulta para que el balanceador envie el
+  // respaldo a otra instancia
+  private Optional<MovieDto> fetchMovie(String id, String lookupId) {
+    String url = String.format(getProductUrl, id);
+    log.info("Getting product with ID {}. Request to {}", id, url);
+    inFlight.incrementAndGet();
+    Timer.Sample sample = Timer.start(meterRegistry);
+    String outcome = "error";
+    try {
+      MovieDto movie;
+      if (lookupId == null) {
+        movie = restTemplate.getForObject(url, MovieDto.class);
+      } else {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(BalanceadorLatencia.CABECERA_CONSULTA, lookupId);
+        movie = restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), MovieDto.class).getBody();
+      }
+      outcome = "found";
+      return Optional.ofNullable(movie);
     } catch (HttpClientErrorException e) {
+      outcome = "4xx";
+      if (e.getStatusCode() != HttpStatus.NOT_FOUND) {
+        throw e;
+      }
+      // Solo el 404 se cachea; el resto de errores se reintenta en la siguiente consulta
       log.error("Client Error: {}, Product with ID {}", e.getStatusCode(), id);
-      return null;
+      return Optional.empty();
     } catch (HttpServerErrorException e) {
-      log.error("Server Error: {}, Product with ID {}", e.getStatusCode(), id);
-      return null;
-    } catch (Exception e) {
-      log.error("Error: {}, Product with ID {}", e.getMessage(), id);
-      return null;
+      outcome = "5xx";
+      throw e;
+    } finally {
+      sample.stop(lookupTimers.get(outcome));
+      inFlight.decrementAndGet();
+    }
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    while (error instanceof CompletionException && error.getCause() != null) {
+      error = error.getCause();
+    }
+    return error;
+  }
+
+  private class MovieLoader implements AsyncCacheLoader<String, Optional<MovieDto>> {
+
+    @Override
+    public CompletableFuture<Optional<MovieDto>> asyncLoad(String id, Executor executor) {
+      return batcher != null ? batcher.submit(id) : protectedFetch(id);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Optional<MovieDto>>> asyncLoadAll(Set<? extends String> ids,
+                                                                          Executor executor) {
+      Map<String, CompletableFuture<Optional<MovieDto>>> requests = new HashMap<>();
+      ids.forEach(id -> requests.put(id, asyncLoad(id, executor)));
+
+      return CompletableFuture.allOf(requests.values().stream()
+              .map(request -> request.exceptionally(error -> null))
+              .toArray(CompletableFuture[]::new))
+          .thenApply(ignored -> {
+            Map<String, Optional<MovieDto>> loaded = new HashMap<>();
+            requests.forEach((id, request) -> {
+              try {
+                loaded.put(id, request.join());
+              } catch (CompletionException e) {
+                // Un 404 equivale a "no existe"; el resto queda fuera del mapa y no se cachea
+                if (logLookupError(unwrap(e), id)) {
+                  loaded.put(id, Optional.empty());
+                }
+              }
+            });
+            return loaded;
+          });
+    }
+  }
+
+  private record MovieExpiry(Duration ttl, Duration negativeTtl) implements Expiry<String, Optional<MovieDto>> {
+
+    @Override
+    public long expireAfterCreate(String key, Optional<MovieDto> value, long currentTime) {
+      return (value.isPresent() ? ttl : negativeTtl).toNanos();
+    }
+
+    @Override
+    public long expireAfterUpdate(String key, Optional<MovieDto> value, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, value, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(String key, Optional<MovieDto> value, long currentTime, long currentDuration) {
+      return currentDuration;
     }
   }
 
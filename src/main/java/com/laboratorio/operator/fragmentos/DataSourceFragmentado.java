@@ -0,0 +1,52 @@
+package com.laboratorio.operator.fragmentos;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DataSource con un pool por fragmento. Cada conexion sale del pool del fragmento fijado en el hilo
+ * (el primero si no hay ninguno). Una transaccion conoce su fragmento con su primera operacion, no
+ * al empezar, asi que la conexion real no se pide hasta la primera sentencia.
+ */
+public class DataSourceFragmentado extends LazyConnectionDataSourceProxy implements AutoCloseable {
+
+    private final List<HikariDataSource> bases;
+
+    public DataSourceFragmentado(List<HikariDataSource> bases) {
+        this.bases = List.copyOf(bases);
+        AbstractRoutingDataSource enrutador = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return Fragmentos.actual();
+            }
+        };
+        Map<Object, Object> destinos = new HashMap<>();
+        for (int i = 0; i < bases.size(); i++) {
+            destinos.put(i, bases.get(i));
+        }
+        enrutador.setTargetDataSources(destinos);
+        enrutador.setDefaultTargetDataSource(bases.get(0));
+        enrutador.setLenientFallback(false);
+        enrutador.afterPropertiesSet();
+        setTargetDataSource(enrutador);
+        afterPropertiesSet();
+    }
+
+    public int cantidad() {
+        return bases.size();
+    }
+
+    public List<HikariDataSource> pools() {
+        return bases;
+    }
+
+    @Override
+    public void close() {
+        bases.forEach(HikariDataSource::close);
+    }
+}
@@ -0,0 +1,73 @@
+package com.laboratorio.operator.fragmentos;
+
+import lombok.RequiredArgsConstructor;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fija el fragmento de cada llamada a un repositorio de entidades {@link Fragmentable}: el de la
+ * entidad que se guarda o se borra (todas las de un saveAll deben ser del mismo) o el del id en los
+ * metodos ...ById. Las demas consultas usan el fragmento ya fijado en el hilo, o el primero; para
+ * consultarlos todos, {@link Fragmentos#unir} y {@link Fragmentos#recorrer}.
+ * <p>
+ * Se ejecuta dentro de la transaccion del repositorio, que aun no ha pedido conexion.
+ */
+@Component
+@RequiredArgsConstructor
+public class EnrutadoRepositorios implements BeanPostProcessor {
+
+    private final ObjectProvider<Fragmentos> fragmentos;
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoria) {
+            MethodInterceptor enrutado = this::enrutar;
+            factoria.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                    (proxy, repositorio) -> {
+                        if (Fragmentable.class.isAssignableFrom(repositorio.getDomainType())) {
+                            proxy.addAdvice(enrutado);
+                        }
+                    }));
+        }
+        return bean;
+    }
+
+    private Object enrutar(MethodInvocation invocacion) throws Throwable {
+        Object[] argumentos = invocacion.getArguments();
+        Integer fragmento = argumentos.length == 0 ? null
+                : fragmento(invocacion.getMethod().getName(), argumentos[0]);
+        if (fragmento == null) {
+            return invocacion.proceed();
+        }
+        return Fragmentos.en(fragmento, invocacion::proceed);
+    }
+
+    private Integer fragmento(String metodo, Object argumento) {
+        if (argumento instanceof Fragmentable entidad) {
+            return fragmentos.getObject().deEntidad(entidad);
+        }
+        if (argumento instanceof Long id && metodo.endsWith("ById")) {
+            return fragmentos.getObject().deId(id);
+        }
+        if (argumento instanceof Iterable<?> elementos) {
+            Integer comun = null;
+            for (Object elemento : elementos) {
+                Integer fragmento = fragmento(metodo, elemento);
+                if (fragmento == null) {
+                    return null;
+                }
+                if (comun != null && !comun.equals(fragmento)) {
+                    throw new IllegalArgumentException(metodo + " con elementos de varios fragmentos;"
+                            + " se deben separar con Fragmentos.porFragmento");
+                }
+                comun = fragmento;
+            }
+            return comun;
+        }
+        return null;
+    }
+}
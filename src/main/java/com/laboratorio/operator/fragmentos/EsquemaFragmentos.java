@@ -0,0 +1,37 @@
+package com.laboratorio.operator.fragmentos;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
+
+/**
+ * Aplica al resto de fragmentos la accion de esquema (spring.jpa.hibernate.ddl-auto) que Hibernate
+ * aplica al arrancar sobre el primero. Con create-drop, el borrado al parar solo se hace en el primero.
+ */
+public class EsquemaFragmentos implements Integrator {
+
+    private final int cantidad;
+
+    public EsquemaFragmentos(int cantidad) {
+        this.cantidad = cantidad;
+    }
+
+    @Override
+    public void integrate(Metadata metadata, BootstrapContext bootstrapContext, SessionFactoryImplementor sessionFactory) {
+        for (int i = 1; i < cantidad; i++) {
+            Fragmentos.en(i, () -> {
+                SchemaManagementToolCoordinator.process(metadata, sessionFactory.getServiceRegistry(),
+                        sessionFactory.getProperties(), accion -> {
+                        });
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
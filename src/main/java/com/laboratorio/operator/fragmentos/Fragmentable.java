@@ -0,0 +1,18 @@
+package com.laboratorio.operator.fragmentos;
+
+/**
+ * Entidad repartida entre fragmentos. Un registro nuevo va al fragmento de su clave y a partir de
+ * ahi se localiza por su id, que incluye el fragmento (ver {@link IdFragmentado}).
+ */
+public interface Fragmentable {
+
+    Long getId();
+
+    // Null mientras la entidad no se ha guardado
+    Long getVersion();
+
+    /**
+     * Clave de reparto de los registros nuevos. Los registros con la misma clave van al mismo fragmento.
+     */
+    String claveFragmento();
+}
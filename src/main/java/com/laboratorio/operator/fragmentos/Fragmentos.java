@@ -0,0 +1,297 @@
+package com.laboratorio.operator.fragmentos;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reparto de compras y alquileres entre varias bases de datos (fragmentos.bases). Un registro
+ * nuevo va al fragmento de su clave (la pelicula) y recibe un id que incluye el fragmento: las
+ * lecturas y escrituras por id van a su base sin consultar las demas, aunque despues cambie la
+ * pelicula o se añadan fragmentos. Las consultas sin id se lanzan en paralelo en todos los
+ * fragmentos y se combinan.
+ * <p>
+ * El fragmento se fija en el hilo antes de pedir la conexion. Dentro de una transaccion queda fijado
+ * hasta que termina: una transaccion trabaja con un solo fragmento, el de su primera operacion
+ * enrutada. Los repositorios de entidades {@link Fragmentable} lo fijan solos
+ * ({@link EnrutadoRepositorios}); para el resto de consultas, {@link #en}.
+ */
+@Component
+@Slf4j
+public class Fragmentos implements DisposableBean {
+
+    // Filas leidas por adelantado de cada fragmento en un recorrido completo
+    private static final int FILAS_EN_COLA = 256;
+
+    private static final ThreadLocal<Integer> ACTUAL = new ThreadLocal<>();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final int cantidad;
+
+    private final PlatformTransactionManager transactionManager;
+
+    private final TransactionTemplate soloLectura;
+
+    private final ExecutorService hilos = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("fragmentos-", 0).factory());
+
+    public Fragmentos(DataSourceFragmentado dataSource, PlatformTransactionManager transactionManager) {
+        this.cantidad = dataSource.cantidad();
+        this.transactionManager = transactionManager;
+        this.soloLectura = new TransactionTemplate(transactionManager);
+        this.soloLectura.setReadOnly(true);
+    }
+
+    @FunctionalInterface
+    public interface Accion<T, E extends Throwable> {
+        T ejecutar() throws E;
+    }
+
+    @FunctionalInterface
+    public interface Recorrido<T, E extends Exception> {
+        void aceptar(Stream<T> filas) throws E;
+    }
+
+    /**
+     * Fragmento fijado en el hilo, o null si no hay ninguno (se usa el primero).
+     */
+    static Integer actual() {
+        return ACTUAL.get();
+    }
+
+    /**
+     * Ejecuta la accion con el fragmento fijado en el hilo. Si se llama dentro de una transaccion,
+     * el fragmento sigue fijado hasta que termina, porque las escrituras se envian al confirmar.
+     *
+     * @throws IllegalStateException si el hilo o la transaccion ya trabajan con otro fragmento
+     */
+    public static <T, E extends Throwable> T en(int fragmento, Accion<T, E> accion) throws E {
+        Integer actual = ACTUAL.get();
+        if (actual != null) {
+            if (actual != fragmento) {
+                throw new IllegalStateException("Operacion del fragmento " + fragmento
+                        + " dentro de una transaccion del fragmento " + actual);
+            }
+            return accion.ejecutar();
+        }
+        ACTUAL.set(fragmento);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    ACTUAL.remove();
+                }
+            });
+            return accion.ejecutar();
+        }
+        try {
+            return accion.ejecutar();
+        } finally {
+            ACTUAL.remove();
+        }
+    }
+
+    public int cantidad() {
+        return cantidad;
+    }
+
+    public int deClave(String clave) {
+        return clave == null ? 0 : Math.floorMod(clave.hashCode(), cantidad);
+    }
+
+    // Un id de un fragmento que ya no existe no esta en ninguna base; se busca en uno cualquiera
+    public int deId(long id) {
+        return GeneradorIds.fragmento(id) % cantidad;
+    }
+
+    /**
+     * Fragmento de una entidad: el de su id si ya esta guardada, el de su clave si es nueva.
+     */
+    public int deEntidad(Fragmentable entidad) {
+        return entidad.getId() != null && entidad.getVersion() != null
+                ? deId(entidad.getId()) : deClave(entidad.claveFragmento());
+    }
+
+    /**
+     * Ejecuta la consulta en todos los fragmentos en paralelo y devuelve los resultados en el orden
+     * de los fragmentos.
+     */
+    public <T> List<T> enTodos(Supplier<T> consulta) {
+        if (cantidad == 1) {
+            return List.of(consulta.get());
+        }
+        List<Future<T>> pendientes = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            int fragmento = i;
+            pendientes.add(hilos.submit(() -> en(fragmento, consulta::get)));
+        }
+        List<T> resultados = new ArrayList<>(cantidad);
+        try {
+            for (Future<T> pendiente : pendientes) {
+                resultados.add(esperar(pendiente));
+            }
+        } finally {
+            pendientes.forEach(p -> p.cancel(true));
+        }
+        return resultados;
+    }
+
+    /**
+     * Une las listas de todos los fragmentos en orden y se queda con las primeras. Cada fragmento
+     * debe devolver sus elementos ya ordenados y como mucho el limite.
+     */
+    public <T> List<T> unir(Supplier<List<T>> consulta, Comparator<? super T> orden, int limite) {
+        if (cantidad == 1) {
+            return consulta.get();
+        }
+        return enTodos(consulta).stream()
+                .flatMap(List::stream)
+                .sorted(orden)
+                .limit(limite)
+                .toList();
+    }
+
+    public <T extends Fragmentable> List<T> unir(Supplier<List<T>> consulta, int limite) {
+        return unir(consulta, Comparator.comparing(Fragmentable::getId), limite);
+    }
+
+    /**
+     * Recorre una consulta de todos los fragmentos en orden de id, en una transaccion de solo lectura
+     * por fragmento. Con varios fragmentos cada uno se lee en su propio hilo y las filas llegan ya
+     * desvinculadas del contexto de persistencia.
+     */
+    public <T extends Fragmentable, E extends Exception> void recorrer(Supplier<Stream<T>> consulta,
+                                                                       Recorrido<T, E> recorrido) throws E {
+        if (cantidad == 1) {
+            TransactionStatus transaccion = transactionManager.getTransaction(soloLectura);
+            try (Stream<T> filas = consulta.get()) {
+                recorrido.aceptar(filas);
+            } catch (Throwable e) {
+                transactionManager.rollback(transaccion);
+                throw e;
+            }
+            transactionManager.commit(transaccion);
+            return;
+        }
+        FusionFragmentos<T> fusion = new FusionFragmentos<>(cantidad, FILAS_EN_COLA);
+        List<Future<?>> lectores = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            int fragmento = i;
+            lectores.add(hilos.submit(() -> leer(fragmento, consulta, fusion)));
+        }
+        try {
+            recorrido.aceptar(StreamSupport.stream(Spliterators.spliteratorUnknownSize(fusion,
+                    Spliterator.ORDERED | Spliterator.NONNULL), false));
+        } finally {
+            lectores.forEach(l -> l.cancel(true));
+        }
+    }
+
+    /**
+     * Ejecuta la accion con las entidades de cada fragmento por separado, con el fragmento fijado y
+     * en paralelo si hay varios. Cada fragmento se confirma o falla por su cuenta.
+     *
+     * @return entidades de los fragmentos en los que la accion ha fallado
+     * @throws RuntimeException el primer error, si la accion falla en todos los fragmentos
+     */
+    public <T extends Fragmentable> List<T> porFragmento(List<T> entidades, Consumer<List<T>> accion) {
+        Map<Integer, List<T>> grupos = new LinkedHashMap<>();
+        for (T entidad : entidades) {
+            grupos.computeIfAbsent(deEntidad(entidad), k -> new ArrayList<>()).add(entidad);
+        }
+        if (grupos.size() <= 1) {
+            grupos.forEach((fragmento, grupo) -> en(fragmento, () -> {
+                accion.accept(grupo);
+                return null;
+            }));
+            return List.of();
+        }
+        Map<Integer, Future<?>> pendientes = new LinkedHashMap<>();
+        grupos.forEach((fragmento, grupo) -> pendientes.put(fragmento, hilos.submit(() -> en(fragmento, () -> {
+            accion.accept(grupo);
+            return null;
+        }))));
+        List<T> fallidas = new ArrayList<>();
+        RuntimeException primerError = null;
+        for (Map.Entry<Integer, Future<?>> pendiente : pendientes.entrySet()) {
+            try {
+                esperar(pendiente.getValue());
+            } catch (RuntimeException e) {
+                log.warn("Fallo en el fragmento {} con {} entidades: {}", pendiente.getKey(),
+                        grupos.get(pendiente.getKey()).size(), e.getMessage());
+                fallidas.addAll(grupos.get(pendiente.getKey()));
+                primerError = primerError != null ? primerError : e;
+            }
+        }
+        if (fallidas.size() == entidades.size()) {
+            throw primerError;
+        }
+        return fallidas;
+    }
+
+    @Override
+    public void destroy() {
+        hilos.shutdownNow();
+    }
+
+    private <T extends Fragmentable> void leer(int fragmento, Supplier<Stream<T>> consulta, FusionFragmentos<T> fusion) {
+        try {
+            en(fragmento, () -> {
+                soloLectura.executeWithoutResult(status -> {
+                    try (Stream<T> filas = consulta.get()) {
+                        filas.forEach(fila -> {
+                            fusion.poner(fragmento, fila);
+                            entityManager.detach(fila);
+                        });
+                    }
+                });
+                return null;
+            });
+            fusion.terminar(fragmento);
+        } catch (RuntimeException e) {
+            fusion.fallar(fragmento, e);
+        }
+    }
+
+    private static <T> T esperar(Future<T> pendiente) {
+        try {
+            return pendiente.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrumpido esperando a un fragmento", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.laboratorio.operator.fragmentos;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Combina en orden de id los recorridos de varios fragmentos, cada uno ya ordenado. Cada
+ * fragmento se lee en su propio hilo y deja sus filas en una cola acotada: si quien consume va
+ * despacio, la lectura de todos los fragmentos se frena con el.
+ */
+final class FusionFragmentos<T extends Fragmentable> implements Iterator<T> {
+
+    private static final Object FIN = new Object();
+
+    private record Fallo(RuntimeException error) {
+    }
+
+    private record Cabeza<T>(T fila, int fragmento) {
+    }
+
+    private final List<BlockingQueue<Object>> colas;
+
+    private final PriorityQueue<Cabeza<T>> cabezas = new PriorityQueue<>(
+            Comparator.comparing((Cabeza<T> cabeza) -> cabeza.fila().getId()));
+
+    private boolean iniciada;
+
+    FusionFragmentos(int fragmentos, int filasEnCola) {
+        colas = new ArrayList<>(fragmentos);
+        for (int i = 0; i < fragmentos; i++) {
+            colas.add(new ArrayBlockingQueue<>(filasEnCola));
+        }
+    }
+
+    // Lado de los lectores; una interrupcion (el consumidor ha terminado) corta la lectura
+
+    void poner(int fragmento, T fila) {
+        try {
+            colas.get(fragmento).put(fila);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Lectura del fragmento " + fragmento + " cancelada", e);
+        }
+    }
+
+    void terminar(int fragmento) {
+        entregar(fragmento, FIN);
+    }
+
+    void fallar(int fragmento, RuntimeException error) {
+        entregar(fragmento, new Fallo(error));
+    }
+
+    // Lado del consumidor
+
+    @Override
+    public boolean hasNext() {
+        iniciar();
+        return !cabezas.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        iniciar();
+        Cabeza<T> cabeza = cabezas.poll();
+        if (cabeza == null) {
+            throw new NoSuchElementException();
+        }
+        avanzar(cabeza.fragmento());
+        return cabeza.fila();
+    }
+
+    private void iniciar() {
+        if (!iniciada) {
+            iniciada = true;
+            for (int i = 0; i < colas.size(); i++) {
+                avanzar(i);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void avanzar(int fragmento) {
+        Object siguiente;
+        try {
+            siguiente = colas.get(fragmento).take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Recorrido de fragmentos interrumpido", e);
+        }
+        if (siguiente instanceof Fallo fallo) {
+            throw fallo.error();
+        }
+        if (siguiente != FIN) {
+            cabezas.add(new Cabeza<>((T) siguiente, fragmento));
+        }
+    }
+
+    private void entregar(int fragmento, Object marca) {
+        try {
+            colas.get(fragmento).put(marca);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
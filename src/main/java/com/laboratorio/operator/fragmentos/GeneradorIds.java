@@ -0,0 +1,88 @@
+package com.laboratorio.operator.fragmentos;
+
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.EventTypeSets;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+
+import java.lang.reflect.Member;
+import java.util.EnumSet;
+
+/**
+ * Ids de 63 bits sin secuencia central: milisegundos desde 2024 (41 bits), fragmento (6 bits),
+ * nodo (6 bits) y un contador dentro del milisegundo (10 bits). Crecen con el tiempo, dos
+ * instancias con distinto nodo nunca generan el mismo id y el fragmento de un registro se lee de
+ * su id. El fragmento es el fijado en el hilo al insertar, el mismo al que va la conexion.
+ * <p>
+ * Con mas de 1024 ids en un milisegundo se toman los del siguiente; si el reloj retrocede se sigue
+ * desde el ultimo usado.
+ */
+public class GeneradorIds implements BeforeExecutionGenerator {
+
+    // Propiedad de Hibernate con el nodo de esta instancia
+    public static final String NODO = "fragmentos.nodo";
+
+    public static final int MAXIMO_FRAGMENTOS = 1 << 6;
+
+    public static final int MAXIMO_NODOS = 1 << 6;
+
+    private static final long EPOCA = 1_704_067_200_000L;
+
+    private static final int BITS_CONTADOR = 10;
+
+    private static final int DESPLAZAMIENTO_NODO = BITS_CONTADOR;
+
+    private static final int DESPLAZAMIENTO_FRAGMENTO = DESPLAZAMIENTO_NODO + 6;
+
+    private static final int DESPLAZAMIENTO_TIEMPO = DESPLAZAMIENTO_FRAGMENTO + 6;
+
+    private final long nodo;
+
+    private long ultimoMilisegundo;
+
+    private long contador;
+
+    public GeneradorIds(IdFragmentado anotacion, Member miembro, CustomIdGeneratorCreationContext contexto) {
+        Object valor = contexto.getServiceRegistry().requireService(ConfigurationService.class).getSettings().get(NODO);
+        this.nodo = valor == null ? 0 : Long.parseLong(valor.toString());
+        if (nodo < 0 || nodo >= MAXIMO_NODOS) {
+            throw new IllegalArgumentException(NODO + " debe estar entre 0 y " + (MAXIMO_NODOS - 1) + ": " + nodo);
+        }
+    }
+
+    /**
+     * Fragmento codificado en el id.
+     */
+    public static int fragmento(long id) {
+        return (int) (id >>> DESPLAZAMIENTO_FRAGMENTO) & (MAXIMO_FRAGMENTOS - 1);
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object owner, Object currentValue,
+                           EventType eventType) {
+        Integer fragmento = Fragmentos.actual();
+        return siguiente(fragmento != null ? fragmento : 0);
+    }
+
+    @Override
+    public EnumSet<EventType> getEventTypes() {
+        return EventTypeSets.INSERT_ONLY;
+    }
+
+    private synchronized long siguiente(int fragmento) {
+        long ahora = System.currentTimeMillis() - EPOCA;
+        if (ahora > ultimoMilisegundo) {
+            ultimoMilisegundo = ahora;
+            contador = 0;
+        } else if (++contador == 1 << BITS_CONTADOR) {
+            ultimoMilisegundo++;
+            contador = 0;
+        }
+        return ultimoMilisegundo << DESPLAZAMIENTO_TIEMPO
+                | (long) fragmento << DESPLAZAMIENTO_FRAGMENTO
+                | nodo << DESPLAZAMIENTO_NODO
+                | contador;
+    }
+}
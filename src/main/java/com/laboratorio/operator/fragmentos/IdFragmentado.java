@@ -0,0 +1,17 @@
+package com.laboratorio.operator.fragmentos;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Id generado por {@link GeneradorIds} al insertar, sin secuencia en base de datos.
+ */
+@IdGeneratorType(GeneradorIds.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface IdFragmentado {
+}
@@ -0,0 +1,242 @@
+package com.laboratorio.operator.idempotencia;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.laboratorio.operator.evento.CambioAlquiler;
+import com.laboratorio.operator.evento.CambioCompra;
+import com.laboratorio.operator.fragmentos.Fragmentable;
+import com.laboratorio.operator.fragmentos.Fragmentos;
+import com.laboratorio.operator.model.ClaveIdempotencia;
+import com.laboratorio.operator.repository.ClaveIdempotenciaRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Altas idempotentes con la cabecera Idempotency-Key: la primera peticion con una clave se ejecuta
+ * y su resultado se guarda en la tabla de claves; los reintentos con la misma clave y el mismo
+ * cuerpo reciben ese resultado sin volver a crear nada. La misma clave con otro cuerpo se rechaza
+ * con un 422.
+ * <p>
+ * La clave se guarda con su resultado al publicarse el alta, en la misma transaccion y el mismo
+ * fragmento que el registro creado (el de su pelicula): o se confirman los dos o ninguno. No hay
+ * un estado "en curso": un reintento simultaneo con la original ejecuta tambien el alta, pero al
+ * guardar la clave espera a que la original termine; si se confirmo, se deshace y devuelve su
+ * resultado. La tabla esta acotada: se borran las claves con mas de idempotencia.retencion y, de
+ * cada fragmento, las que pasan de idempotencia.claves-maximas.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RegistroIdempotencia {
+
+    public static final String CABECERA = "Idempotency-Key";
+
+    private static final int LONGITUD_MAXIMA = 255;
+
+    private final ClaveIdempotenciaRepository claveIdempotenciaRepository;
+
+    private final Fragmentos fragmentos;
+
+    private final TransactionTemplate transaccion;
+
+    private final ObjectMapper objectMapper;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${idempotencia.retencion:24h}")
+    private Duration retencion;
+
+    // Por fragmento
+    @Value("${idempotencia.claves-maximas:100000}")
+    private int clavesMaximas;
+
+    @Value("${idempotencia.purga:5m}")
+    private Duration intervaloPurga;
+
+    // Lee los resultados guardados con todas sus propiedades, tambien las de solo lectura como la version
+    private ObjectMapper lectorResultados;
+
+    private ScheduledExecutorService purgas;
+
+    // Clave del alta que se esta ejecutando en el hilo, hasta que se publica
+    private final ThreadLocal<Pendiente> pendiente = new ThreadLocal<>();
+
+    private record Pendiente(String id, String huella) {
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        lectorResultados = objectMapper.copy().setAnnotationIntrospector(new JacksonAnnotationIntrospector() {
+            @Override
+            public JsonProperty.Access findPropertyAccess(Annotated anotado) {
+                return JsonProperty.Access.AUTO;
+            }
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancar() {
+        purgas = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("idempotencia-purga").daemon().factory());
+        purgas.scheduleWithFixedDelay(this::purgar, intervaloPurga.toMillis(), intervaloPurga.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void parar() {
+        if (purgas != null) {
+            purgas.shutdownNow();
+        }
+    }
+
+    /**
+     * Ejecuta el alta una sola vez por clave. Sin clave se ejecuta siempre. El alta debe guardar la
+     * peticion y publicar su cambio (CambioCompra o CambioAlquiler) en el hilo que llama.
+     *
+     * @param recurso  recurso del alta; cada uno tiene sus propias claves
+     * @param peticion cuerpo de la peticion, antes de ejecutar el alta
+     * @param tipo     tipo del resultado, para devolverlo en los reintentos
+     */
+    public <T extends Fragmentable> T ejecutar(String recurso, String clave, T peticion, Class<T> tipo,
+                                               Supplier<T> alta) {
+        if (clave == null) {
+            return alta.get();
+        }
+        if (clave.isBlank() || clave.length() > LONGITUD_MAXIMA) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "La cabecera " + CABECERA + " debe tener entre 1 y " + LONGITUD_MAXIMA + " caracteres");
+        }
+        String id = recurso + ":" + clave;
+        String huella = huella(peticion);
+        // El fragmento en el que se guardara el alta, y con ella la clave
+        int fragmento = fragmentos.deEntidad(peticion);
+
+        Optional<ClaveIdempotencia> registrada = buscar(fragmento, id);
+        if (registrada.isPresent()) {
+            return repetir(recurso, registrada.get(), huella, tipo);
+        }
+        T resultado;
+        pendiente.set(new Pendiente(id, huella));
+        try {
+            resultado = alta.get();
+        } catch (RuntimeException e) {
+            // Si ha fallado porque otra peticion con la clave se ha confirmado antes, su resultado
+            registrada = buscar(fragmento, id);
+            if (registrada.isPresent()) {
+                return repetir(recurso, registrada.get(), huella, tipo);
+            }
+            throw e;
+        } finally {
+            pendiente.remove();
+        }
+        meterRegistry.counter("idempotencia.peticiones", "recurso", recurso, "resultado", "nueva").increment();
+        return resultado;
+    }
+
+    @EventListener
+    public void onCambioCompra(CambioCompra cambio) {
+        if (cambio.anterior() == null) {
+            anotar(cambio.actual());
+        }
+    }
+
+    @EventListener
+    public void onCambioAlquiler(CambioAlquiler cambio) {
+        if (cambio.anterior() == null) {
+            anotar(cambio.actual());
+        }
+    }
+
+    // Dentro de la transaccion del alta, que ya tiene fijado su fragmento. El flush adelanta el
+    // error de una clave repetida para que deshaga el alta
+    private void anotar(Object resultado) {
+        Pendiente clave = pendiente.get();
+        if (clave == null) {
+            return;
+        }
+        pendiente.remove();
+        claveIdempotenciaRepository.saveAndFlush(new ClaveIdempotencia(clave.id(), clave.huella(), json(resultado)));
+    }
+
+    private Optional<ClaveIdempotencia> buscar(int fragmento, String id) {
+        return Fragmentos.en(fragmento, () -> claveIdempotenciaRepository.findById(id));
+    }
+
+    private <T> T repetir(String recurso, ClaveIdempotencia clave, String huella, Class<T> tipo) {
+        if (!clave.getHuella().equals(huella)) {
+            meterRegistry.counter("idempotencia.peticiones", "recurso", recurso, "resultado", "rechazada").increment();
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    "La clave de idempotencia ya se ha usado con otra peticion");
+        }
+        meterRegistry.counter("idempotencia.peticiones", "recurso", recurso, "resultado", "repetida").increment();
+        try {
+            return lectorResultados.readValue(clave.getResultado(), tipo);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se puede leer el resultado de la clave " + clave.getId(), e);
+        }
+    }
+
+    void purgar() {
+        Date limite = Date.from(Instant.now().minus(retencion));
+        int borradas = 0;
+        try {
+            for (int fragmento = 0; fragmento < fragmentos.cantidad(); fragmento++) {
+                borradas += Fragmentos.en(fragmento, () -> transaccion.execute(status -> {
+                    // Si sobran claves, tambien las mas antiguas hasta quedar en el maximo
+                    List<Date> sobrante = claveIdempotenciaRepository.findFechas(PageRequest.of(clavesMaximas, 1));
+                    Date antesDe = sobrante.isEmpty() || sobrante.get(0).before(limite) ? limite : sobrante.get(0);
+                    return claveIdempotenciaRepository.deleteAnteriores(antesDe);
+                }));
+            }
+        } catch (RuntimeException e) {
+            log.warn("No se han podido purgar las claves de idempotencia: {}", e.getMessage());
+        }
+        if (borradas > 0) {
+            log.info("Borradas {} claves de idempotencia", borradas);
+        }
+    }
+
+    private String huella(Object peticion) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(peticion)));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No se puede calcular la huella de la peticion", e);
+        }
+    }
+
+    private String json(Object resultado) {
+        try {
+            return objectMapper.writeValueAsString(resultado);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se puede serializar el resultado", e);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.laboratorio.operator.indice;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Arbol de intervalos semiabiertos [desde, hasta) sobre un treap ordenado por (desde, id).
+ * Cada nodo guarda el mayor "hasta" de su subarbol, lo que permite descartar ramas enteras
+ * al buscar solapes: insercion, borrado y consulta en O(log n + k) esperado.
+ * No es seguro para uso concurrente; la sincronizacion corresponde a quien lo use.
+ */
+final class ArbolIntervalos {
+
+    private static final class Nodo {
+        final long id;
+        final long desde;
+        final long hasta;
+        final int prioridad = ThreadLocalRandom.current().nextInt();
+        long maxHasta;
+        Nodo izq;
+        Nodo der;
+
+        Nodo(long id, long desde, long hasta) {
+            this.id = id;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.maxHasta = hasta;
+        }
+    }
+
+    /** Recibe los intervalos encontrados por una consulta. */
+    @FunctionalInterface
+    interface Visitante {
+        void visitar(long id, long desde, long hasta);
+    }
+
+    private Nodo raiz;
+    private int tamano;
+
+    int tamano() {
+        return tamano;
+    }
+
+    void insertar(long id, long desde, long hasta) {
+        raiz = insertar(raiz, new Nodo(id, desde, hasta));
+        tamano++;
+    }
+
+    boolean eliminar(long id, long desde) {
+        int antes = tamano;
+        raiz = eliminar(raiz, id, desde);
+        return tamano < antes;
+    }
+
+    /** Recorre los intervalos que se solapan con [desde, hasta). */
+    void solapes(long desde, long hasta, Visitante visitante) {
+        solapes(raiz, desde, hasta, visitante);
+    }
+
+    boolean haySolape(long desde, long hasta, long excluirId) {
+        return haySolape(raiz, desde, hasta, excluirId);
+    }
+
+    private static Nodo insertar(Nodo n, Nodo nuevo) {
+        if (n == null) {
+            return nuevo;
+        }
+        if (compara(nuevo.desde, nuevo.id, n) < 0) {
+            n.izq = insertar(n.izq, nuevo);
+            if (n.izq.prioridad > n.prioridad) {
+                n = rotarDerecha(n);
+            }
+        } else {
+            n.der = insertar(n.der, nuevo);
+            if (n.der.prioridad > n.prioridad) {
+                n = rotarIzquierda(n);
+            }
+        }
+        actualizar(n);
+        return n;
+    }
+
+    private Nodo eliminar(Nodo n, long id, long desde) {
+        if (n == null) {
+            return null;
+        }
+        int c = compara(desde, id, n);
+        if (c < 0) {
+            n.izq = eliminar(n.izq, id, desde);
+        } else if (c > 0) {
+            n.der = eliminar(n.der, id, desde);
+        } else {
+            tamano--;
+            return unir(n.izq, n.der);
+        }
+        actualizar(n);
+        return n;
+    }
+
+    // Une dos treaps en los que todas las claves de "a" son menores que las de "b"
+    private static Nodo unir(Nodo a, Nodo b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.prioridad > b.prioridad) {
+            a.der = unir(a.der, b);
+            actualizar(a);
+            return a;
+        }
+        b.izq = unir(a, b.izq);
+        actualizar(b);
+        return b;
+    }
+
+    private static void solapes(Nodo n, long desde, long hasta, Visitante visitante) {
+        if (n == null || n.maxHasta <= desde) {
+            return;
+        }
+        solapes(n.izq, desde, hasta, visitante);
+        if (n.desde < hasta) {
+            if (n.hasta > desde) {
+                visitante.visitar(n.id, n.desde, n.hasta);
+            }
+            solapes(n.der, desde, hasta, visitante);
+        }
+    }
+
+    private static boolean haySolape(Nodo n, long desde, long hasta, long excluirId) {
+        if (n == null || n.maxHasta <= desde) {
+            return false;
+        }
+        if (haySolape(n.izq, desde, hasta, excluirId)) {
+            return true;
+        }
+        if (n.desde >= hasta) {
+            return false;
+        }
+        return (n.hasta > desde && n.id != excluirId) || haySolape(n.der, desde, hasta, excluirId);
+    }
+
+    private static int compara(long desde, long id, Nodo n) {
+        int c = Long.compare(desde, n.desde);
+        return c != 0 ? c : Long.compare(id, n.id);
+    }
+
+    private static Nodo rotarDerecha(Nodo n) {
+        Nodo l = n.izq;
+        n.izq = l.der;
+        l.der = n;
+        actualizar(n);
+        actualizar(l);
+        return l;
+    }
+
+    private static Nodo rotarIzquierda(Nodo n) {
+        Nodo r = n.der;
+        n.der = r.izq;
+        r.izq = n;
+        actualizar(n);
+        actualizar(r);
+        return r;
+    }
+
+    private static void actualizar(Nodo n) {
+        long max = n.hasta;
+        if (n.izq != null && n.izq.maxHasta > max) {
+            max = n.izq.maxHasta;
+        }
+        if (n.der != null && n.der.maxHasta > max) {
+            max = n.der.maxHasta;
+        }
+        n.maxHasta = max;
+    }
+}
@@ -0,0 +1,229 @@
+package com.laboratorio.operator.indice;
+
+import com.laboratorio.operator.archivo.Archivo;
+import com.laboratorio.operator.fragmentos.Fragmentos;
+import com.laboratorio.operator.model.Alquiler;
+import com.laboratorio.operator.model.Disponibilidad;
+import com.laboratorio.operator.model.IntervaloAlquiler;
+import com.laboratorio.operator.repository.AlquilerRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Indice en memoria de los periodos alquilados de cada pelicula. Responde a las consultas de
+ * disponibilidad y solapes sin ir a base de datos. Se carga desde la tabla y el archivo al arrancar y
+ * AlquilerService lo mantiene al dia en cada alta, modificacion y borrado.
+ * <p>
+ * Las altas y modificaciones con rechazo de solapes reservan antes su periodo ({@link #reservar}):
+ * la comprobacion y la reserva se hacen con la franja de bloqueo de la pelicula tomada, que solo
+ * comparten peliculas distintas cuando coincide su hash; el guardado posterior no la retiene. Las
+ * altas en bloque reservan igual cada alquiler del lote.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class IndiceAlquileres implements SmartInitializingSingleton {
+
+    private record Registro(String idPelicula, long desde, long hasta) {
+    }
+
+    private final AlquilerRepository alquilerRepository;
+
+    private final Fragmentos fragmentos;
+
+    private final Archivo archivo;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, ArbolIntervalos> porPelicula = new ConcurrentHashMap<>();
+
+    private final Map<Long, Registro> porId = new ConcurrentHashMap<>();
+
+    // Ids provisionales de las reservas, negativos para no coincidir con ningun alquiler
+    private final AtomicLong reservas = new AtomicLong();
+
+    // Se redondea a potencia de dos
+    @Value("${alquileres.franjas-bloqueo:256}")
+    private int franjasBloqueo;
+
+    private ReentrantLock[] franjas;
+
+    /**
+     * Periodo reservado en el indice mientras se guarda el alquiler. Hay que liberarlo siempre
+     * despues, se haya guardado o no: si se guardo, el alquiler ya ocupa el periodo en el indice.
+     * Liberarla otra vez no hace nada.
+     */
+    public final class Reserva {
+
+        private final String idPelicula;
+
+        private final long id;
+
+        private final long desde;
+
+        private Reserva(String idPelicula, long id, long desde) {
+            this.idPelicula = idPelicula;
+            this.id = id;
+            this.desde = desde;
+        }
+
+        public void liberar() {
+            if (idPelicula == null) {
+                return;
+            }
+            ArbolIntervalos arbol = arbol(idPelicula);
+            synchronized (arbol) {
+                arbol.eliminar(id, desde);
+            }
+        }
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        franjas = new ReentrantLock[Integer.highestOneBit(Math.max(franjasBloqueo, 1) * 2 - 1)];
+        for (int i = 0; i < franjas.length; i++) {
+            franjas[i] = new ReentrantLock();
+        }
+        meterRegistry.gaugeMapSize("alquileres.indice.tamano", List.of(), porId);
+        reconstruir();
+    }
+
+    /**
+     * Vuelve a cargar el indice desde la tabla de alquileres y el archivo.
+     */
+    public void reconstruir() {
+        long inicio = System.nanoTime();
+        porPelicula.clear();
+        porId.clear();
+        fragmentos.recorrer(alquilerRepository::streamAll,
+                alquileres -> archivo.alquileres().unir(alquileres).forEach(this::registrar));
+        log.info("Indice de alquileres reconstruido: {} alquileres en {} ms",
+                porId.size(), (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    public void registrar(Alquiler alquiler) {
+        eliminar(alquiler.getId());
+        if (alquiler.getIdPelicula() == null || alquiler.getFechaDesde() == null) {
+            return;
+        }
+        Registro registro = new Registro(alquiler.getIdPelicula(), desde(alquiler.getFechaDesde()),
+                hasta(alquiler.getFechaHasta()));
+        ArbolIntervalos arbol = arbol(registro.idPelicula());
+        synchronized (arbol) {
+            arbol.insertar(alquiler.getId(), registro.desde(), registro.hasta());
+            porId.put(alquiler.getId(), registro);
+        }
+    }
+
+    public void eliminar(Long id) {
+        Registro registro = porId.get(id);
+        if (registro == null) {
+            return;
+        }
+        ArbolIntervalos arbol = arbol(registro.idPelicula());
+        synchronized (arbol) {
+            arbol.eliminar(id, registro.desde());
+            porId.remove(id, registro);
+        }
+    }
+
+    public Disponibilidad disponibilidad(String idPelicula, Date fecha) {
+        List<IntervaloAlquiler> alquileres = solapes(idPelicula, fecha.getTime(), fecha.getTime() + 1);
+        return new Disponibilidad(idPelicula, fecha, alquileres.isEmpty(), alquileres);
+    }
+
+    /**
+     * Alquileres de la pelicula cuyo periodo se solapa con [desde, hasta). Sin "hasta", hasta el infinito.
+     */
+    public List<IntervaloAlquiler> solapes(String idPelicula, Date desde, Date hasta) {
+        return solapes(idPelicula, desde(desde), hasta(hasta));
+    }
+
+    public boolean haySolape(String idPelicula, Date desde, Date hasta, Long excluirId) {
+        if (idPelicula == null || desde == null) {
+            return false;
+        }
+        ArbolIntervalos arbol = arbol(idPelicula);
+        synchronized (arbol) {
+            return arbol.haySolape(desde(desde), hasta(hasta), excluirId != null ? excluirId : Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Reserva el periodo [desde, hasta) de la pelicula si no se solapa con otro alquiler ni con otra
+     * reserva, sin contar el alquiler excluirId cuando se modifica. Sin pelicula o sin fecha de
+     * inicio no ocupa nada y la reserva no reserva nada.
+     *
+     * @return la reserva, o null si el periodo se solapa
+     */
+    public Reserva reservar(String idPelicula, Date desde, Date hasta, Long excluirId) {
+        if (idPelicula == null || desde == null) {
+            return new Reserva(null, 0, 0);
+        }
+        ReentrantLock franja = franja(idPelicula);
+        if (!franja.tryLock()) {
+            meterRegistry.counter("alquileres.franjas.esperas").increment();
+            franja.lock();
+        }
+        try {
+            if (haySolape(idPelicula, desde, hasta, excluirId)) {
+                return null;
+            }
+            Reserva reserva = new Reserva(idPelicula, reservas.decrementAndGet(), desde(desde));
+            ArbolIntervalos arbol = arbol(idPelicula);
+            synchronized (arbol) {
+                arbol.insertar(reserva.id, reserva.desde, hasta(hasta));
+            }
+            return reserva;
+        } finally {
+            franja.unlock();
+        }
+    }
+
+    private List<IntervaloAlquiler> solapes(String idPelicula, long desde, long hasta) {
+        List<IntervaloAlquiler> encontrados = new ArrayList<>();
+        ArbolIntervalos arbol = porPelicula.get(idPelicula);
+        if (arbol == null) {
+            return encontrados;
+        }
+        synchronized (arbol) {
+            arbol.solapes(desde, hasta, (id, d, h) -> {
+                // Las reservas aun no son alquileres
+                if (id > 0) {
+                    encontrados.add(new IntervaloAlquiler(id, new Date(d), h == Long.MAX_VALUE ? null : new Date(h)));
+                }
+            });
+        }
+        return encontrados;
+    }
+
+    private ReentrantLock franja(String idPelicula) {
+        int hash = idPelicula.hashCode();
+        return franjas[(hash ^ (hash >>> 16)) & (franjas.length - 1)];
+    }
+
+    private ArbolIntervalos arbol(String idPelicula) {
+        return porPelicula.computeIfAbsent(idPelicula, k -> new ArbolIntervalos());
+    }
+
+    private static long desde(Date fecha) {
+        return fecha.getTime();
+    }
+
+    // Un alquiler sin fecha de fin ocupa la pelicula indefinidamente
+    private static long hasta(Date fecha) {
+        return fecha != null ? fecha.getTime() : Long.MAX_VALUE;
+    }
+}
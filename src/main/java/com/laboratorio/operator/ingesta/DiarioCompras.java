@@ -0,0 +1,272 @@
+package com.laboratorio.operator.ingesta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Diario de solo escritura de las compras aceptadas y de su resultado, en segmentos de tamaño fijo
+ * proyectados en memoria. Cada registro lleva longitud, tipo, id de seguimiento, datos y CRC; un
+ * registro incompleto por una caida se detecta por el CRC y marca el final del segmento.
+ * <p>
+ * Un alta se fuerza a disco antes de devolver el control. Las escrituras concurrentes se agrupan:
+ * quien fuerza el segmento cubre tambien las altas que otros hilos han escrito mientras tanto.
+ * Los segmentos se borran por orden de antiguedad cuando ya no tienen altas pendientes; como un fin
+ * siempre se escribe en el segmento de su alta o en uno posterior, nunca se pierde el fin de un
+ * alta que siga en disco.
+ */
+final class DiarioCompras implements Closeable {
+
+    static final byte ALTA = 1;
+
+    static final byte FIN = 2;
+
+    // longitud (4) + tipo (1) + id (16) ... datos ... + crc (4)
+    private static final int CABECERA = 21;
+
+    private static final int COLA = 4;
+
+    /** Alta sin fin en el diario al abrirlo. */
+    record Pendiente(UUID id, int segmento, byte[] datos) {
+    }
+
+    /** Contenido del diario al abrirlo: altas sin resolver, en orden de llegada, y fines conocidos. */
+    record Recuperacion(List<Pendiente> pendientes, Map<UUID, byte[]> fines) {
+    }
+
+    private static final class Segmento {
+        final int numero;
+        final Path fichero;
+        final FileChannel canal;
+        final MappedByteBuffer buffer;
+        int pendientes;
+        // Posicion final una vez cerrado a nuevas escrituras
+        int limite = -1;
+        volatile int forzadoHasta;
+
+        Segmento(int numero, Path fichero, FileChannel canal, MappedByteBuffer buffer) {
+            this.numero = numero;
+            this.fichero = fichero;
+            this.canal = canal;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directorio;
+
+    private final int tamanoSegmento;
+
+    private final TreeMap<Integer, Segmento> segmentos = new TreeMap<>();
+
+    private final Object forzado = new Object();
+
+    private Segmento activo;
+
+    private int posicion;
+
+    DiarioCompras(Path directorio, int tamanoSegmento) throws IOException {
+        this.directorio = directorio;
+        this.tamanoSegmento = tamanoSegmento;
+        Files.createDirectories(directorio);
+    }
+
+    /**
+     * Lee los segmentos existentes y abre uno nuevo para las siguientes escrituras. Solo se puede
+     * llamar una vez, antes de escribir.
+     */
+    synchronized Recuperacion abrir() throws IOException {
+        Map<UUID, Pendiente> pendientes = new LinkedHashMap<>();
+        Map<UUID, byte[]> fines = new HashMap<>();
+        List<Path> ficheros;
+        try (Stream<Path> listado = Files.list(directorio)) {
+            ficheros = listado.filter(f -> f.getFileName().toString().matches("diario-\\d+\\.log")).sorted().toList();
+        }
+        for (Path fichero : ficheros) {
+            FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = canal.map(FileChannel.MapMode.READ_WRITE, 0, canal.size());
+            Segmento segmento = new Segmento(numero(fichero), fichero, canal, buffer);
+            segmento.limite = leer(segmento, pendientes, fines);
+            segmento.forzadoHasta = segmento.limite;
+            segmentos.put(segmento.numero, segmento);
+        }
+        pendientes.values().forEach(p -> segmentos.get(p.segmento()).pendientes++);
+        fines.keySet().removeIf(pendientes::containsKey);
+        rotar(segmentos.isEmpty() ? 1 : segmentos.lastKey() + 1);
+        purgar();
+        return new Recuperacion(new ArrayList<>(pendientes.values()), fines);
+    }
+
+    /**
+     * Escribe un alta y espera a que este en disco.
+     *
+     * @return el segmento del alta, que hay que indicar al escribir su fin
+     */
+    int alta(UUID id, byte[] datos) {
+        Segmento segmento;
+        int hasta;
+        synchronized (this) {
+            escribir(ALTA, id, datos);
+            segmento = activo;
+            segmento.pendientes++;
+            hasta = posicion;
+        }
+        forzar(segmento, hasta);
+        return segmento.numero;
+    }
+
+    /**
+     * Escribe el resultado de un alta. No se fuerza a disco: ver {@link #forzar()}.
+     */
+    synchronized void fin(UUID id, byte[] datos, int segmentoAlta) {
+        escribir(FIN, id, datos);
+        Segmento segmento = segmentos.get(segmentoAlta);
+        if (segmento != null) {
+            segmento.pendientes--;
+            purgar();
+        }
+    }
+
+    /** Fuerza a disco todo lo escrito hasta ahora. */
+    void forzar() {
+        Segmento segmento;
+        int hasta;
+        synchronized (this) {
+            segmento = activo;
+            hasta = posicion;
+        }
+        forzar(segmento, hasta);
+    }
+
+    synchronized int segmentos() {
+        return segmentos.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        forzar();
+        synchronized (this) {
+            for (Segmento segmento : segmentos.values()) {
+                segmento.canal.close();
+            }
+            segmentos.clear();
+        }
+    }
+
+    private void escribir(byte tipo, UUID id, byte[] datos) {
+        int longitud = CABECERA + datos.length + COLA;
+        if (longitud > tamanoSegmento) {
+            throw new IllegalArgumentException("Registro de " + longitud + " bytes mayor que el segmento del diario");
+        }
+        if (posicion + longitud > tamanoSegmento) {
+            try {
+                rotar(activo.numero + 1);
+            } catch (IOException e) {
+                throw new IllegalStateException("No se puede crear un segmento del diario de compras", e);
+            }
+        }
+        ByteBuffer registro = ByteBuffer.allocate(longitud);
+        registro.putInt(datos.length).put(tipo).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).put(datos);
+        CRC32C crc = new CRC32C();
+        crc.update(registro.array(), 4, longitud - 4 - COLA);
+        registro.putInt((int) crc.getValue());
+        activo.buffer.put(posicion, registro.array());
+        posicion += longitud;
+    }
+
+    // El segmento anterior queda cerrado a escrituras; quien tenga altas en el lo fuerza
+    private void rotar(int numero) throws IOException {
+        if (activo != null) {
+            activo.limite = posicion;
+        }
+        Path fichero = directorio.resolve(String.format("diario-%08d.log", numero));
+        FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        activo = new Segmento(numero, fichero, canal, canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanoSegmento));
+        segmentos.put(numero, activo);
+        posicion = 0;
+    }
+
+    private void forzar(Segmento segmento, int hasta) {
+        synchronized (forzado) {
+            int desde = segmento.forzadoHasta;
+            if (desde >= hasta) {
+                return;
+            }
+            // Lo escrito despues de "hasta" en el mismo segmento tambien se cubre con este force
+            int fin;
+            synchronized (this) {
+                fin = segmento == activo ? posicion : segmento.limite;
+            }
+            segmento.buffer.force(desde, fin - desde);
+            segmento.forzadoHasta = fin;
+        }
+    }
+
+    private void purgar() {
+        while (!segmentos.isEmpty()) {
+            Segmento primero = segmentos.firstEntry().getValue();
+            if (primero == activo || primero.pendientes > 0) {
+                return;
+            }
+            segmentos.pollFirstEntry();
+            try {
+                primero.canal.close();
+                Files.deleteIfExists(primero.fichero);
+            } catch (IOException e) {
+                throw new IllegalStateException("No se puede borrar el segmento " + primero.fichero, e);
+            }
+        }
+    }
+
+    private static int leer(Segmento segmento, Map<UUID, Pendiente> pendientes, Map<UUID, byte[]> fines) {
+        MappedByteBuffer buffer = segmento.buffer;
+        int pos = 0;
+        while (pos + CABECERA + COLA <= buffer.capacity()) {
+            int longitudDatos = buffer.getInt(pos);
+            int longitud = CABECERA + longitudDatos + COLA;
+            if (longitudDatos <= 0 || pos + longitud > buffer.capacity()) {
+                break;
+            }
+            byte[] registro = new byte[longitud];
+            buffer.get(pos, registro);
+            CRC32C crc = new CRC32C();
+            crc.update(registro, 4, longitud - 4 - COLA);
+            if ((int) crc.getValue() != ByteBuffer.wrap(registro).getInt(longitud - COLA)) {
+                // Escritura a medias antes de una caida: no hay nada valido detras
+                break;
+            }
+            ByteBuffer lectura = ByteBuffer.wrap(registro, 4, longitud - 4);
+            byte tipo = lectura.get();
+            UUID id = new UUID(lectura.getLong(), lectura.getLong());
+            byte[] datos = new byte[longitudDatos];
+            lectura.get(datos);
+            if (tipo == ALTA) {
+                pendientes.put(id, new Pendiente(id, segmento.numero, datos));
+            } else if (tipo == FIN) {
+                pendientes.remove(id);
+                fines.put(id, datos);
+            }
+            pos += longitud;
+        }
+        return pos;
+    }
+
+    private static int numero(Path fichero) {
+        String nombre = fichero.getFileName().toString();
+        return Integer.parseInt(nombre.substring("diario-".length(), nombre.length() - ".log".length()));
+    }
+}
@@ -0,0 +1,262 @@
+package com.laboratorio.operator.ingesta;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.laboratorio.operator.facade.ProductsFacade;
+import com.laboratorio.operator.model.Compra;
+import com.laboratorio.operator.model.EstadoIngesta;
+import com.laboratorio.operator.model.MovieDto;
+import com.laboratorio.operator.service.CompraService;
+import com.laboratorio.operator.service.PoliticaInventarioNoDisponible;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingesta asincrona de compras (compras.ingesta-asincrona.enabled). POST /compras solo anota la
+ * compra en el {@link DiarioCompras} y responde con un id de seguimiento; un hilo en segundo plano
+ * valida las peliculas por lotes y guarda las compras con inserts en batch. Mientras el inventario
+ * no responde las compras se reintentan, salvo con la politica ACEPTAR.
+ * <p>
+ * Al arrancar se vuelven a encolar las compras del diario que no tienen resultado. La entrega es
+ * "al menos una vez": una caida entre el commit de un lote y la escritura de sus resultados hace
+ * que ese lote se guarde de nuevo.
+ */
+@Component
+@ConditionalOnProperty(prefix = "compras.ingesta-asincrona", name = "enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class IngestaCompras implements SmartInitializingSingleton {
+
+    private record Pendiente(UUID id, int segmento, Compra compra, int intentos) {
+
+        Pendiente otroIntento() {
+            return new Pendiente(id, segmento, compra, intentos + 1);
+        }
+    }
+
+    private final CompraService compraService;
+
+    private final ProductsFacade productsFacade;
+
+    private final ObjectMapper objectMapper;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${compras.ingesta-asincrona.directorio:diario-compras}")
+    private Path directorio;
+
+    @Value("${compras.ingesta-asincrona.tamano-segmento:16MB}")
+    private DataSize tamanoSegmento;
+
+    @Value("${compras.ingesta-asincrona.tamano-lote:500}")
+    private int tamanoLote;
+
+    @Value("${compras.ingesta-asincrona.reintento:5s}")
+    private Duration reintento;
+
+    @Value("${compras.ingesta-asincrona.intentos-maximos:20}")
+    private int intentosMaximos;
+
+    @Value("${compras.ingesta-asincrona.estados-maximos:100000}")
+    private long estadosMaximos;
+
+    @Value("${compras.ingesta-asincrona.retencion-estados:1h}")
+    private Duration retencionEstados;
+
+    @Value("${compras.inventario-no-disponible:RECHAZAR}")
+    private PoliticaInventarioNoDisponible politicaInventarioNoDisponible;
+
+    private DiarioCompras diario;
+
+    private final Map<UUID, Pendiente> pendientes = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<Pendiente> cola = new LinkedBlockingQueue<>();
+
+    // Resultados ya resueltos, para la consulta de estado; los pendientes estan en "pendientes"
+    private Cache<UUID, EstadoIngesta> resueltas;
+
+    private ScheduledExecutorService reintentos;
+
+    private Thread trabajador;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        resueltas = Caffeine.newBuilder()
+                .maximumSize(estadosMaximos)
+                .expireAfterWrite(retencionEstados)
+                .build();
+        try {
+            diario = new DiarioCompras(directorio, (int) tamanoSegmento.toBytes());
+            DiarioCompras.Recuperacion recuperacion = diario.abrir();
+            for (DiarioCompras.Pendiente p : recuperacion.pendientes()) {
+                encolar(new Pendiente(p.id(), p.segmento(), objectMapper.readValue(p.datos(), Compra.class), 1));
+            }
+            for (byte[] fin : recuperacion.fines().values()) {
+                EstadoIngesta estado = objectMapper.readValue(fin, EstadoIngesta.class);
+                resueltas.put(estado.id(), estado);
+            }
+            log.info("Diario de compras abierto en {}: {} compras pendientes", directorio.toAbsolutePath(),
+                    recuperacion.pendientes().size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se puede abrir el diario de compras en " + directorio, e);
+        }
+        meterRegistry.gaugeMapSize("compras.ingesta.pendientes", List.of(), pendientes);
+        meterRegistry.gauge("compras.ingesta.segmentos", diario, DiarioCompras::segmentos);
+    }
+
+    // Con el contexto completo, para que los agregados de ingresos ya esten calculados al guardar
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancar() {
+        reintentos = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("ingesta-compras-reintentos").daemon().factory());
+        trabajador = Thread.ofPlatform().name("ingesta-compras").daemon().start(this::procesar);
+    }
+
+    @PreDestroy
+    void parar() throws IOException, InterruptedException {
+        if (trabajador != null) {
+            trabajador.interrupt();
+            trabajador.join(TimeUnit.SECONDS.toMillis(10));
+            reintentos.shutdownNow();
+        }
+        diario.close();
+    }
+
+    /**
+     * Anota la compra en el diario (en disco al volver) y la deja pendiente de guardar.
+     */
+    public EstadoIngesta aceptar(Compra compra) {
+        compra.setId(null);
+        compra.setVersion(null);
+        UUID id = UUID.randomUUID();
+        int segmento = diario.alta(id, json(compra));
+        encolar(new Pendiente(id, segmento, compra, 1));
+        return EstadoIngesta.pendiente(id);
+    }
+
+    public Optional<EstadoIngesta> estado(UUID id) {
+        if (pendientes.containsKey(id)) {
+            return Optional.of(EstadoIngesta.pendiente(id));
+        }
+        return Optional.ofNullable(resueltas.getIfPresent(id));
+    }
+
+    private void encolar(Pendiente pendiente) {
+        pendientes.put(pendiente.id(), pendiente);
+        cola.add(pendiente);
+    }
+
+    private void procesar() {
+        List<Pendiente> lote = new ArrayList<>(tamanoLote);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                lote.add(cola.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            cola.drainTo(lote, tamanoLote - 1);
+            try {
+                procesarLote(lote);
+            } catch (RuntimeException e) {
+                log.error("Error procesando un lote de {} compras; se reintentara", lote.size(), e);
+                reintentar(lote.stream().filter(p -> pendientes.containsKey(p.id())).toList());
+            }
+            lote.clear();
+        }
+    }
+
+    private void procesarLote(List<Pendiente> lote) {
+        Map<String, Optional<MovieDto>> peliculas = productsFacade.getMovies(
+                lote.stream().map(p -> String.valueOf(p.compra().getIdPelicula())).toList());
+        List<Pendiente> validas = new ArrayList<>();
+        List<Pendiente> sinValidar = new ArrayList<>();
+        for (Pendiente p : lote) {
+            Optional<MovieDto> pelicula = peliculas.get(String.valueOf(p.compra().getIdPelicula()));
+            if (pelicula == null && politicaInventarioNoDisponible == PoliticaInventarioNoDisponible.RECHAZAR) {
+                sinValidar.add(p);
+            } else if (pelicula != null && pelicula.isEmpty()) {
+                terminar(p, EstadoIngesta.rechazada(p.id(), "La película no existe en el inventario"));
+            } else {
+                validas.add(p);
+            }
+        }
+        if (!validas.isEmpty()) {
+            try {
+                compraService.guardarNuevas(validas.stream().map(Pendiente::compra).toList());
+                // Las de un fragmento que ha fallado vuelven sin id y se reintentan
+                for (Pendiente p : validas) {
+                    if (p.compra().getId() != null) {
+                        terminar(p, EstadoIngesta.guardada(p.id(), p.compra().getId()));
+                    } else {
+                        sinValidar.add(p);
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.warn("No se han podido guardar {} compras; se reintentara: {}", validas.size(), e.getMessage());
+                validas.forEach(p -> {
+                    p.compra().setId(null);
+                    p.compra().setVersion(null);
+                });
+                sinValidar.addAll(validas);
+            }
+        }
+        reintentar(sinValidar);
+    }
+
+    // Agotados los intentos la compra se rechaza, como haria POST /compras sin ingesta asincrona
+    private void reintentar(List<Pendiente> lote) {
+        List<Pendiente> siguientes = new ArrayList<>();
+        for (Pendiente p : lote) {
+            if (p.intentos() >= intentosMaximos) {
+                terminar(p, EstadoIngesta.rechazada(p.id(), "Inventario de peliculas no disponible"));
+            } else {
+                siguientes.add(p.otroIntento());
+            }
+        }
+        diario.forzar();
+        if (!siguientes.isEmpty()) {
+            siguientes.forEach(p -> pendientes.put(p.id(), p));
+            reintentos.schedule(() -> cola.addAll(siguientes), reintento.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void terminar(Pendiente pendiente, EstadoIngesta estado) {
+        diario.fin(pendiente.id(), json(estado), pendiente.segmento());
+        resueltas.put(pendiente.id(), estado);
+        pendientes.remove(pendiente.id());
+    }
+
+    private byte[] json(Object valor) {
+        try {
+            return objectMapper.writeValueAsBytes(valor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,17 +1,40 @@
 package com.laboratorio.operator.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.laboratorio.operator.fragmentos.Fragmentable;
+import com.laboratorio.operator.fragmentos.IdFragmentado;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 
 import java.util.Date;
 
 @Entity
-public class Alquiler {
-
+// Los UPDATE incluyen solo las columnas modificadas
+@DynamicUpdate
+// Lecturas por id desde la cache de segundo nivel; se actualiza y se invalida al confirmar cada escritura
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "alquileres")
+@Table(indexes = {
+        @Index(name = "idx_alquiler_pelicula", columnList = "idPelicula, id"),
+        @Index(name = "idx_alquiler_fecha_desde", columnList = "fechaDesde")
+})
+public class Alquiler implements Fragmentable {
+
+    // Generado en memoria al insertar, sin consultar una secuencia: permite agrupar inserts en batch
+    // e incluye el fragmento en el que se guarda. En JSON va como texto: pasa de 2^53 y un cliente
+    // que lo lea como numero de coma flotante lo redondearia
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @IdFragmentado
+    @JsonSerialize(using = ToStringSerializer.class)
     private Long id;
     private String idPelicula;
     private Date fechaDesde;
@@ -19,6 +42,24 @@ public class Alquiler {
     private double precioFinal;
     private String tipoRecibo;
 
+    // Control de concurrencia optimista; se expone como ETag y no se puede modificar desde el cliente
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
+    public Alquiler() {
+    }
+
+    public Alquiler(Alquiler otro) {
+        this.id = otro.id;
+        this.idPelicula = otro.idPelicula;
+        this.fechaDesde = otro.fechaDesde;
+        this.fechaHasta = otro.fechaHasta;
+        this.precioFinal = otro.precioFinal;
+        this.tipoRecibo = otro.tipoRecibo;
+        this.version = otro.version;
+    }
+
     // Getters y Setters
 
     public Long getId() {
@@ -68,4 +109,17 @@ public class Alquiler {
     public void setTipoRecibo(String tipoRecibo) {
         this.tipoRecibo = tipoRecibo;
     }
-}
\ No newline at end of file
+
+    @Override
+    public String claveFragmento() {
+        return idPelicula;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
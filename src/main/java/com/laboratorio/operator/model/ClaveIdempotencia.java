@@ -0,0 +1,60 @@
+package com.laboratorio.operator.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+
+import java.util.Date;
+
+/**
+ * Clave de idempotencia de un alta (cabecera Idempotency-Key) y el resultado que se devolvio. Se
+ * guarda con el resultado en la transaccion del alta. La huella identifica el cuerpo de la
+ * peticion: la misma clave con otro cuerpo no es un reintento.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_clave_idempotencia_fecha", columnList = "fecha"))
+public class ClaveIdempotencia {
+
+    // Recurso y clave del cliente, "compra:<clave>"
+    @Id
+    @Column(length = 300)
+    private String id;
+    // Null en una clave nueva: se inserta siempre y una clave repetida falla en vez de sobrescribirse
+    @Version
+    private Long version;
+    @Column(length = 64)
+    private String huella;
+    // JSON de la respuesta original
+    @Column(length = 4000)
+    private String resultado;
+    private Date fecha;
+
+    public ClaveIdempotencia() {
+    }
+
+    public ClaveIdempotencia(String id, String huella, String resultado) {
+        this.id = id;
+        this.huella = huella;
+        this.resultado = resultado;
+        this.fecha = new Date();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getHuella() {
+        return huella;
+    }
+
+    public String getResultado() {
+        return resultado;
+    }
+
+    public Date getFecha() {
+        return fecha;
+    }
+}
@@ -1,23 +1,63 @@
 package com.laboratorio.operator.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.laboratorio.operator.fragmentos.Fragmentable;
+import com.laboratorio.operator.fragmentos.IdFragmentado;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 
 import java.util.Date;
 
 @Entity
-public class Compra {
+// Los UPDATE incluyen solo las columnas modificadas
+@DynamicUpdate
+// Lecturas por id desde la cache de segundo nivel; se actualiza y se invalida al confirmar cada escritura
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "compras")
+@Table(indexes = {
+        @Index(name = "idx_compra_pelicula", columnList = "idPelicula, id"),
+        @Index(name = "idx_compra_fecha", columnList = "fechaCompra")
+})
+public class Compra implements Fragmentable {
 
+    // Generado en memoria al insertar, sin consultar una secuencia: permite agrupar inserts en batch
+    // e incluye el fragmento en el que se guarda. En JSON va como texto: pasa de 2^53 y un cliente
+    // que lo lea como numero de coma flotante lo redondearia
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @IdFragmentado
+    @JsonSerialize(using = ToStringSerializer.class)
     private Long id;
     private int idPelicula;
     private Date fechaCompra;
     private double precioTotal;
     private String tipoPago;
 
+    // Control de concurrencia optimista; se expone como ETag y no se puede modificar desde el cliente
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
+    public Compra() {
+    }
+
+    public Compra(Compra otra) {
+        this.id = otra.id;
+        this.idPelicula = otra.idPelicula;
+        this.fechaCompra = otra.fechaCompra;
+        this.precioTotal = otra.precioTotal;
+        this.tipoPago = otra.tipoPago;
+        this.version = otra.version;
+    }
+
     // Getters y Setters
     public Long getId() {
         return id;
@@ -58,4 +98,18 @@ public class Compra {
     public void setTipoPago(String tipoPago) {
         this.tipoPago = tipoPago;
     }
-}
\ No newline at end of file
+
+    // Las compras y alquileres de una misma pelicula se guardan en el mismo fragmento
+    @Override
+    public String claveFragmento() {
+        return String.valueOf(idPelicula);
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
@@ -0,0 +1,10 @@
+package com.laboratorio.operator.model;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Estado de una pelicula en un instante: disponible si ningun alquiler lo cubre.
+ */
+public record Disponibilidad(String idPelicula, Date fecha, boolean disponible, List<IntervaloAlquiler> alquileres) {
+}
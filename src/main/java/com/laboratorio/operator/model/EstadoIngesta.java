@@ -0,0 +1,29 @@
+package com.laboratorio.operator.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+import java.util.UUID;
+
+/**
+ * Situacion de una compra recibida por la ingesta asincrona: pendiente de validar y guardar,
+ * guardada (con el id de la compra) o rechazada (con el motivo).
+ */
+public record EstadoIngesta(UUID id, Estado estado, @JsonSerialize(using = ToStringSerializer.class) Long idCompra, String error) {
+
+    public enum Estado {
+        PENDIENTE, GUARDADA, RECHAZADA
+    }
+
+    public static EstadoIngesta pendiente(UUID id) {
+        return new EstadoIngesta(id, Estado.PENDIENTE, null, null);
+    }
+
+    public static EstadoIngesta guardada(UUID id, Long idCompra) {
+        return new EstadoIngesta(id, Estado.GUARDADA, idCompra, null);
+    }
+
+    public static EstadoIngesta rechazada(UUID id, String error) {
+        return new EstadoIngesta(id, Estado.RECHAZADA, null, error);
+    }
+}
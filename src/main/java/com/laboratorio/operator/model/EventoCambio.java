@@ -0,0 +1,96 @@
+package com.laboratorio.operator.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.laboratorio.operator.fragmentos.IdFragmentado;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+import java.util.Date;
+
+/**
+ * Cambio de una compra o un alquiler, guardado en la misma transaccion que el propio cambio
+ * (tabla outbox). La posicion se asigna al publicarlo y es el orden del feed de cambios; es null
+ * mientras no se ha publicado.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_evento_cambio_posicion", columnList = "posicion", unique = true))
+public class EventoCambio {
+
+    public enum Tipo {
+        ALTA, MODIFICACION, BAJA
+    }
+
+    public static final String COMPRA = "compra";
+
+    public static final String ALQUILER = "alquiler";
+
+    // Con varios fragmentos cada uno tiene su tabla de eventos: una secuencia con reserva de ids en
+    // memoria repartiria el mismo bloque entre fragmentos
+    @Id
+    @IdFragmentado
+    @JsonIgnore
+    private Long id;
+    private Long posicion;
+    private String recurso;
+    @Enumerated(EnumType.STRING)
+    private Tipo tipo;
+    // En texto, como el id de compras y alquileres
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long idRecurso;
+    private Date fecha;
+    // JSON del registro tras el cambio; en una baja, el registro borrado
+    @Column(length = 4000)
+    private String datos;
+
+    public EventoCambio() {
+    }
+
+    public EventoCambio(String recurso, Tipo tipo, Long idRecurso, String datos) {
+        this.recurso = recurso;
+        this.tipo = tipo;
+        this.idRecurso = idRecurso;
+        this.datos = datos;
+        this.fecha = new Date();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getPosicion() {
+        return posicion;
+    }
+
+    public void setPosicion(Long posicion) {
+        this.posicion = posicion;
+    }
+
+    public String getRecurso() {
+        return recurso;
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public Long getIdRecurso() {
+        return idRecurso;
+    }
+
+    public Date getFecha() {
+        return fecha;
+    }
+
+    @JsonRawValue
+    public String getDatos() {
+        return datos;
+    }
+}
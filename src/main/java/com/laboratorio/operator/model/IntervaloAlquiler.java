@@ -0,0 +1,12 @@
+package com.laboratorio.operator.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+import java.util.Date;
+
+/**
+ * Periodo ocupado por un alquiler. {@code fechaHasta} es null si el alquiler no tiene fin.
+ */
+public record IntervaloAlquiler(@JsonSerialize(using = ToStringSerializer.class) Long id, Date fechaDesde, Date fechaHasta) {
+}
@@ -0,0 +1,33 @@
+package com.laboratorio.operator.model;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Pagina de resultados recorrida por clave (id). {@code siguienteCursor} es null en la ultima pagina.
+ */
+public record Pagina<T>(List<T> elementos, String siguienteCursor) {
+
+    public static String cursor(Long ultimoId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Long.toString(ultimoId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Devuelve el id a partir del cual continuar; 0 si no hay cursor (primera pagina).
+     */
+    public static long despuesDe(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor no valido");
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.laboratorio.operator.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+/**
+ * Resultado de un elemento de una carga por lotes: el id asignado si se ha guardado,
+ * o el motivo por el que se ha rechazado.
+ */
+public record ResultadoLote(int indice, @JsonSerialize(using = ToStringSerializer.class) Long id, String error) {
+
+    public static ResultadoLote guardado(int indice, Long id) {
+        return new ResultadoLote(indice, id, null);
+    }
+
+    public static ResultadoLote rechazado(int indice, String error) {
+        return new ResultadoLote(indice, null, error);
+    }
+}
@@ -0,0 +1,12 @@
+package com.laboratorio.operator.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Numero de operaciones, importe total, minimo y maximo de un grupo de compras o alquileres.
+ * Sin operaciones, minimo y maximo son null.
+ */
+public record ResumenIngresos(long operaciones, BigDecimal total, Double minimo, Double maximo) {
+
+    public static final ResumenIngresos VACIO = new ResumenIngresos(0, BigDecimal.ZERO, null, null);
+}
@@ -0,0 +1,9 @@
+package com.laboratorio.operator.model;
+
+import java.util.List;
+
+/**
+ * Resultado de comparar los agregados de ingresos en memoria con los calculados desde las tablas.
+ */
+public record VerificacionIngresos(boolean consistente, List<String> diferencias) {
+}
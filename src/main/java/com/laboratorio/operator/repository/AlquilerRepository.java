@@ -1,9 +1,68 @@
 package com.laboratorio.operator.repository;
 
 import com.laboratorio.operator.model.Alquiler;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
 @Repository
 public interface AlquilerRepository extends JpaRepository<Alquiler, Long> {
-}
\ No newline at end of file
+
+    // Paginacion por clave: los filtros a null no se aplican. El rango de fechas devuelve
+    // los alquileres cuyo periodo [fechaDesde, fechaHasta] se solapa con [desde, hasta); sin
+    // fechaHasta el periodo no termina. Las paginas no llenan la cache de segundo nivel, reservada a
+    // las lecturas por id.
+    @Query("""
+            select a from Alquiler a
+            where a.id > :despuesDe
+              and (:idPelicula is null or a.idPelicula = :idPelicula)
+              and (:tipoRecibo is null or a.tipoRecibo = :tipoRecibo)
+              and (:desde is null or a.fechaHasta is null or a.fechaHasta >= :desde)
+              and (:hasta is null or a.fechaDesde < :hasta)
+            order by a.id""")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHE_MODE, value = "GET"))
+    List<Alquiler> findPagina(long despuesDe, String idPelicula, String tipoRecibo, Date desde, Date hasta,
+                              Pageable limite);
+
+    // Recorrido completo para exportaciones: cursor de solo lectura leido en bloques, sin pasar
+    // por la cache de segundo nivel para no desalojar los registros mas leidos
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_MODE, value = "IGNORE")
+    })
+    @Query("select a from Alquiler a order by a.id")
+    Stream<Alquiler> streamAll();
+
+    // Solo la columna de version, para responder a peticiones condicionales sin cargar la entidad.
+    // El resultado se guarda en la cache de consultas hasta la siguiente escritura en la tabla.
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = "alquileres-versiones")
+    })
+    @Query("select a.version from Alquiler a where a.id = :id")
+    Optional<Long> findVersionById(Long id);
+
+    // Cuales de los ids siguen en la tabla, para descartar sus copias archivadas
+    @Query("select a.id from Alquiler a where a.id in :ids")
+    List<Long> findIdsEnTabla(Collection<Long> ids);
+
+    // Alquileres terminados antes de la fecha, para el archivo: bloqueados hasta el final de la
+    // transaccion y sin pasar por la cache de segundo nivel
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHE_MODE, value = "IGNORE"))
+    @Query("select a from Alquiler a where a.fechaHasta < :antesDe order by a.id")
+    List<Alquiler> findParaArchivar(Date antesDe, Pageable limite);
+}
@@ -0,0 +1,23 @@
+package com.laboratorio.operator.repository;
+
+import com.laboratorio.operator.model.ClaveIdempotencia;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface ClaveIdempotenciaRepository extends JpaRepository<ClaveIdempotencia, String> {
+
+    // Fechas de las claves de la mas reciente a la mas antigua, para saber cual sobra
+    @Query("select c.fecha from ClaveIdempotencia c order by c.fecha desc")
+    List<Date> findFechas(Pageable posicion);
+
+    @Modifying
+    @Query("delete from ClaveIdempotencia c where c.fecha < :antesDe")
+    int deleteAnteriores(Date antesDe);
+}
@@ -1,9 +1,66 @@
 package com.laboratorio.operator.repository;
 
 import com.laboratorio.operator.model.Compra;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
 @Repository
 public interface CompraRepository extends JpaRepository<Compra, Long> {
-}
\ No newline at end of file
+
+    // Paginacion por clave: los filtros a null no se aplican. Las paginas no llenan la cache de
+    // segundo nivel, reservada a las lecturas por id.
+    @Query("""
+            select c from Compra c
+            where c.id > :despuesDe
+              and (:idPelicula is null or c.idPelicula = :idPelicula)
+              and (:tipoPago is null or c.tipoPago = :tipoPago)
+              and (:desde is null or c.fechaCompra >= :desde)
+              and (:hasta is null or c.fechaCompra < :hasta)
+            order by c.id""")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHE_MODE, value = "GET"))
+    List<Compra> findPagina(long despuesDe, Integer idPelicula, String tipoPago, Date desde, Date hasta,
+                            Pageable limite);
+
+    // Recorrido completo para exportaciones: cursor de solo lectura leido en bloques, sin pasar
+    // por la cache de segundo nivel para no desalojar los registros mas leidos
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_MODE, value = "IGNORE")
+    })
+    @Query("select c from Compra c order by c.id")
+    Stream<Compra> streamAll();
+
+    // Solo la columna de version, para responder a peticiones condicionales sin cargar la entidad.
+    // El resultado se guarda en la cache de consultas hasta la siguiente escritura en la tabla.
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = "compras-versiones")
+    })
+    @Query("select c.version from Compra c where c.id = :id")
+    Optional<Long> findVersionById(Long id);
+
+    // Cuales de los ids siguen en la tabla, para descartar sus copias archivadas
+    @Query("select c.id from Compra c where c.id in :ids")
+    List<Long> findIdsEnTabla(Collection<Long> ids);
+
+    // Compras anteriores a la fecha, para el archivo: bloqueadas hasta el final de la transaccion
+    // y sin pasar por la cache de segundo nivel
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHE_MODE, value = "IGNORE"))
+    @Query("select c from Compra c where c.fechaCompra < :antesDe order by c.id")
+    List<Compra> findParaArchivar(Date antesDe, Pageable limite);
+}
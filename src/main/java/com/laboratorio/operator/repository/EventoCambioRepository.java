@@ -0,0 +1,35 @@
+package com.laboratorio.operator.repository;
+
+import com.laboratorio.operator.model.EventoCambio;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface EventoCambioRepository extends JpaRepository<EventoCambio, Long> {
+
+    // Eventos guardados y aun sin publicar, en el orden en que se registraron
+    @Query("select e from EventoCambio e where e.posicion is null order by e.id")
+    List<EventoCambio> findSinPublicar(Pageable limite);
+
+    @Query("select max(e.posicion) from EventoCambio e")
+    Optional<Long> findUltimaPosicion();
+
+    // Eventos publicados en (desde, hasta], opcionalmente de un solo recurso
+    @Query("""
+            select e from EventoCambio e
+            where e.posicion > :desde and e.posicion <= :hasta
+              and (:recurso is null or e.recurso = :recurso)
+            order by e.posicion""")
+    List<EventoCambio> findPublicados(long desde, long hasta, String recurso, Pageable limite);
+
+    @Modifying
+    @Query("delete from EventoCambio e where e.fecha < :antesDe and e.posicion is not null")
+    int deleteAnteriores(Date antesDe);
+}
@@ -1,63 +1,349 @@
 package com.laboratorio.operator.service;
 
+import com.github.fge.jsonpatch.mergepatch.JsonMergePatch;
+import com.laboratorio.operator.archivo.Archivo;
+import com.laboratorio.operator.evento.CambioAlquiler;
+import com.laboratorio.operator.facade.MovieInventoryUnavailableException;
 import com.laboratorio.operator.facade.ProductsFacade;
+import com.laboratorio.operator.fragmentos.Fragmentos;
+import com.laboratorio.operator.indice.IndiceAlquileres;
 import com.laboratorio.operator.model.Alquiler;
+import com.laboratorio.operator.model.Disponibilidad;
+import com.laboratorio.operator.model.IntervaloAlquiler;
 import com.laboratorio.operator.model.MovieDto;
+import com.laboratorio.operator.model.Pagina;
+import com.laboratorio.operator.model.ResultadoLote;
 import com.laboratorio.operator.repository.AlquilerRepository;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 @Service
+@Slf4j
 public class AlquilerService {
 
+    private static final String SOLAPE = "El alquiler se solapa con otro alquiler de la misma película";
+
+    private static final String NO_GUARDADO = "No se ha podido guardar el alquiler";
+
     @Autowired
     private AlquilerRepository alquilerRepository;
 
     @Autowired
     private ProductsFacade productsFacade;
 
-    public List<Alquiler> getAllAlquileres() {
-        return alquilerRepository.findAll();
+    @Autowired
+    private ExportadorNdjson exportadorNdjson;
+
+    @Autowired
+    private GuardadoPorLotes guardadoPorLotes;
+
+    @Autowired
+    private IndiceAlquileres indiceAlquileres;
+
+    @Autowired
+    private AplicadorMergePatch aplicadorMergePatch;
+
+    @Autowired
+    private ApplicationEventPublisher eventos;
+
+    @Autowired
+    private TransactionTemplate transaccion;
+
+    @Autowired
+    private Fragmentos fragmentos;
+
+    @Autowired
+    private Archivo archivo;
+
+    @Value("${alquileres.rechazar-solapes:false}")
+    private boolean rechazarSolapes;
+
+    @Value("${alquileres.inventario-no-disponible:RECHAZAR}")
+    private PoliticaInventarioNoDisponible politicaInventarioNoDisponible;
+
+    @Value("${alquileres.plazo-comprobaciones:3s}")
+    private Duration plazoComprobaciones;
+
+    @Value("${paginacion.tamano-maximo:500}")
+    private int tamanoMaximoPagina;
+
+    @Value("${lotes.tamano-maximo:5000}")
+    private int tamanoMaximoLote;
+
+    public Pagina<Alquiler> getAlquileres(String cursor, int tamano, String idPelicula, String tipoRecibo,
+                                          Date desde, Date hasta) {
+        int limite = Math.min(Math.max(tamano, 1), tamanoMaximoPagina);
+        long despuesDe = Pagina.despuesDe(cursor);
+        // Se pide un elemento de mas para saber si existe una pagina siguiente, a cada fragmento y al archivo
+        List<Alquiler> alquileres = archivo.alquileres().completarPagina(
+                fragmentos.unir(() -> alquilerRepository.findPagina(despuesDe, idPelicula, tipoRecibo, desde, hasta,
+                        PageRequest.ofSize(limite + 1)), limite + 1),
+                ids -> fragmentos.enTodos(() -> alquilerRepository.findIdsEnTabla(ids)).stream()
+                        .flatMap(List::stream).toList(),
+                despuesDe, idPelicula, tipoRecibo, desde, hasta, limite + 1);
+        if (alquileres.size() <= limite) {
+            return new Pagina<>(alquileres, null);
+        }
+        List<Alquiler> pagina = alquileres.subList(0, limite);
+        return new Pagina<>(pagina, Pagina.cursor(pagina.get(limite - 1).getId()));
+    }
+
+    public void exportarAlquileres(OutputStream salida) throws IOException {
+        fragmentos.recorrer(alquilerRepository::streamAll,
+                alquileres -> exportadorNdjson.exportar(archivo.alquileres().unir(alquileres), salida));
     }
 
     public Optional<Alquiler> getAlquilerById(Long id) {
-        return alquilerRepository.findById(id);
+        return alquilerRepository.findById(id).or(() -> archivo.alquileres().buscar(id));
+    }
+
+    public Optional<Long> getVersionAlquiler(Long id) {
+        return alquilerRepository.findVersionById(id).or(() -> archivo.alquileres().version(id));
+    }
+
+    public Disponibilidad getDisponibilidad(String idPelicula, Date fecha) {
+        return indiceAlquileres.disponibilidad(idPelicula, fecha);
+    }
+
+    public List<IntervaloAlquiler> getSolapes(String idPelicula, Date desde, Date hasta) {
+        return indiceAlquileres.solapes(idPelicula, desde, hasta);
     }
 
     public Alquiler createAlquiler(Alquiler alquiler) {
         String movieId = alquiler.getIdPelicula();
-        // Verificar si la película existe usando ProductsFacade
-//        MovieDto movie = productsFacade.getMovie(movieId);
+        // La pelicula se comprueba antes de reservar el periodo, sin bloquear sus alquileres durante
+        // la llamada al inventario
+        MovieDto movie;
+        try (AmbitoSubtareas comprobaciones = new AmbitoSubtareas(plazoComprobaciones)) {
+            // Verificar si la película existe usando ProductsFacade
+            Supplier<MovieDto> pelicula = comprobaciones.lanzar(() -> productsFacade.getMovieAsync(movieId).get());
+            comprobaciones.esperar();
+            movie = pelicula.get();
+        } catch (MovieInventoryUnavailableException | TimeoutException e) {
+            if (politicaInventarioNoDisponible == PoliticaInventarioNoDisponible.RECHAZAR) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+            }
+            log.warn("Alquiler de la película {} aceptado sin validar: {}", movieId, e.getMessage());
+            return guardar(alquiler, null);
+        }
 
-//        if (movie == null) {
-//            throw new RuntimeException("La película no existe en el inventario");
-//        }
+        if (movie == null) {
+            throw new RuntimeException("La película no existe en el inventario");
+        }
 
         // Si la película existe, crear el alquiler
-        return alquilerRepository.save(alquiler);
+        return guardar(alquiler, null);
+    }
+
+    /**
+     * Crea alquileres en bloque: valida todas las peliculas referenciadas con una unica consulta al
+     * inventario y guarda las validas con inserts en batch. El resultado sigue el orden de entrada.
+     */
+    public List<ResultadoLote> createAlquileres(List<Alquiler> alquileres) {
+        if (alquileres.size() > tamanoMaximoLote) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "El lote supera el tamaño maximo de " + tamanoMaximoLote + " elementos");
+        }
+        Map<String, Optional<MovieDto>> peliculas = productsFacade.getMovies(
+                alquileres.stream().map(Alquiler::getIdPelicula).toList());
+
+        // Con rechazar-solapes cada alquiler reserva su periodo como un alta individual, asi que no se
+        // solapa con otras altas simultaneas ni con los anteriores del lote. Las reservas de un
+        // fragmento se liberan al terminar su transaccion; las de uno que no llega a abrirla, al final
+        Map<Alquiler, IndiceAlquileres.Reserva> reservas = new IdentityHashMap<>();
+        List<ResultadoLote> resultados = new ArrayList<>(alquileres.size());
+        List<Alquiler> validos = new ArrayList<>();
+        try {
+            for (Alquiler alquiler : alquileres) {
+                String error = politicaInventarioNoDisponible.validar(peliculas, alquiler.getIdPelicula());
+                if (error == null && rechazarSolapes) {
+                    IndiceAlquileres.Reserva reserva = indiceAlquileres.reservar(alquiler.getIdPelicula(),
+                            alquiler.getFechaDesde(), alquiler.getFechaHasta(), null);
+                    if (reserva == null) {
+                        error = SOLAPE;
+                    } else {
+                        reservas.put(alquiler, reserva);
+                    }
+                }
+                resultados.add(error == null ? null : ResultadoLote.rechazado(resultados.size(), error));
+                if (error == null) {
+                    alquiler.setId(null);
+                    validos.add(alquiler);
+                }
+            }
+            // Una transaccion por fragmento: si falla alguno, sus alquileres se rechazan y el resto se guardan
+            List<Alquiler> noGuardados = fragmentos.porFragmento(validos, grupo -> transaccion.executeWithoutResult(status -> {
+                grupo.stream().map(reservas::get).filter(Objects::nonNull).forEach(reserva -> alTerminar(reserva::liberar));
+                guardadoPorLotes.guardar(grupo, alquilerRepository);
+                grupo.forEach(alquiler -> registrar(alquiler, null));
+            }));
+            // Los de un fragmento que falla no han llegado al indice, que solo cambia al confirmar
+            noGuardados.forEach(alquiler -> alquiler.setId(null));
+        } finally {
+            reservas.values().forEach(IndiceAlquileres.Reserva::liberar);
+        }
+
+        int siguiente = 0;
+        for (int i = 0; i < resultados.size(); i++) {
+            if (resultados.get(i) == null) {
+                Long id = validos.get(siguiente++).getId();
+                resultados.set(i, id != null ? ResultadoLote.guardado(i, id) : ResultadoLote.rechazado(i, NO_GUARDADO));
+            }
+        }
+        return resultados;
     }
 
-    public Alquiler updateAlquiler(Long id, Alquiler alquilerDetails) {
+    /**
+     * @param versiones versiones aceptadas (If-Match), o null para escribir sin condicion
+     */
+    @Transactional
+    public Alquiler updateAlquiler(Long id, Alquiler alquilerDetails, Set<Long> versiones) {
         Optional<Alquiler> optionalAlquiler = alquilerRepository.findById(id);
+        if (optionalAlquiler.isEmpty()) {
+            comprobarNoArchivado(id);
+        }
 
         if (optionalAlquiler.isPresent()) {
             Alquiler alquiler = optionalAlquiler.get();
+            Precondiciones.comprobarVersion(alquiler.getVersion(), versiones);
+            Alquiler anterior = new Alquiler(alquiler);
             alquiler.setIdPelicula(alquilerDetails.getIdPelicula());
             alquiler.setFechaDesde(alquilerDetails.getFechaDesde());
             alquiler.setFechaHasta(alquilerDetails.getFechaHasta());
             alquiler.setPrecioFinal(alquilerDetails.getPrecioFinal());
             alquiler.setTipoRecibo(alquilerDetails.getTipoRecibo());
-            return alquilerRepository.save(alquiler);
+            return guardar(alquiler, anterior);
         }
         return null;
     }
 
-    public void deleteAlquiler(Long id) {
-        alquilerRepository.deleteById(id);
+    /**
+     * Aplica un merge patch al alquiler. Una sola lectura y un UPDATE solo de las columnas que
+     * cambian.
+     *
+     * @param versiones versiones aceptadas (If-Match), o null para escribir sin condicion
+     */
+    @Transactional
+    public Optional<Alquiler> patchAlquiler(Long id, JsonMergePatch patch, Set<Long> versiones) {
+        Optional<Alquiler> existente = alquilerRepository.findById(id);
+        if (existente.isEmpty()) {
+            comprobarNoArchivado(id);
+        }
+        return existente.map(alquiler -> {
+            Precondiciones.comprobarVersion(alquiler.getVersion(), versiones);
+            Alquiler anterior = new Alquiler(alquiler);
+            aplicadorMergePatch.aplicar(patch, alquiler);
+            return guardar(alquiler, anterior);
+        });
+    }
+
+    /**
+     * @param versiones versiones aceptadas (If-Match), o null para borrar sin condicion
+     */
+    @Transactional
+    public void deleteAlquiler(Long id, Set<Long> versiones) {
+        Optional<Alquiler> existente = alquilerRepository.findById(id);
+        if (existente.isEmpty()) {
+            comprobarNoArchivado(id);
+        }
+        Precondiciones.comprobarVersion(existente.map(Alquiler::getVersion).orElse(null), versiones);
+        existente.ifPresent(alquiler -> {
+            alquilerRepository.delete(alquiler);
+            alConfirmar(() -> indiceAlquileres.eliminar(id));
+            eventos.publishEvent(new CambioAlquiler(alquiler, null));
+        });
+    }
+
+    // Los alquileres archivados solo se pueden leer
+    private void comprobarNoArchivado(Long id) {
+        if (archivo.alquileres().contiene(id)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "El alquiler esta archivado y no se puede modificar");
+        }
+    }
+
+    // Con rechazar-solapes, el periodo se reserva en el indice antes de guardar para que dos
+    // alquileres concurrentes no puedan ocupar el mismo; el guardado no retiene el bloqueo de la
+    // pelicula. La reserva dura hasta que termina la transaccion, cuando el alquiler confirmado ya
+    // ocupa el periodo en el indice. Dentro de una transaccion el flush adelanta el UPDATE para que
+    // un error se produzca antes de registrar. Un alta abre su propia transaccion para confirmar el
+    // registro del cambio con el alquiler.
+    private Alquiler guardar(Alquiler alquiler, Alquiler anterior) {
+        if (!rechazarSolapes) {
+            return transaccion.execute(status -> registrar(alquilerRepository.saveAndFlush(alquiler), anterior));
+        }
+        Long id = anterior != null ? anterior.getId() : null;
+        IndiceAlquileres.Reserva reserva = indiceAlquileres.reservar(alquiler.getIdPelicula(),
+                alquiler.getFechaDesde(), alquiler.getFechaHasta(), id);
+        if (reserva == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, SOLAPE);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            alTerminar(reserva::liberar);
+            return transaccion.execute(status -> registrar(alquilerRepository.saveAndFlush(alquiler), anterior));
+        }
+        try {
+            return transaccion.execute(status -> registrar(alquilerRepository.saveAndFlush(alquiler), anterior));
+        } finally {
+            reserva.liberar();
+        }
+    }
+
+    // Publica el cambio con copias del estado anterior y del guardado, ya con la version del flush, y
+    // lo lleva al indice al confirmar
+    private Alquiler registrar(Alquiler alquiler, Alquiler anterior) {
+        Alquiler guardado = new Alquiler(alquiler);
+        alConfirmar(() -> indiceAlquileres.registrar(guardado));
+        eventos.publishEvent(new CambioAlquiler(anterior, new Alquiler(alquiler)));
+        return alquiler;
+    }
+
+    // El indice solo refleja lo confirmado: si la transaccion se deshace, por ejemplo por un conflicto
+    // de version al hacer flush o al confirmar, el indice sigue como estaba
+    private static void alConfirmar(Runnable cambio) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cambio.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cambio.run();
+            }
+        });
+    }
+
+    // Despues de confirmar o deshacer la transaccion en curso; tras los cambios de alConfirmar
+    private static void alTerminar(Runnable accion) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                accion.run();
+            }
+        });
     }
 }
\ No newline at end of file
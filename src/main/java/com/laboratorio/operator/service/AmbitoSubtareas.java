@@ -0,0 +1,105 @@
+package com.laboratorio.operator.service;
+
+import io.micrometer.context.ContextExecutorService;
+import io.micrometer.context.ContextSnapshotFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Subtareas independientes de una operacion, cada una en su hilo virtual y con un plazo comun. Si
+ * una falla o se agota el plazo se cancelan las demas, interrumpiendo su hilo, y al cerrar el
+ * ambito no queda ninguna en marcha: ninguna subtarea sobrevive a la operacion que la lanzo. Es la
+ * politica ShutdownOnFailure de StructuredTaskScope, que en Java 21 aun es una API en preview.
+ * <p>
+ * Las subtareas heredan el contexto (traza) del hilo que las lanza. Para que la cancelacion las
+ * corte deben esperar de forma interrumpible: Future.get y no CompletableFuture.join.
+ */
+final class AmbitoSubtareas implements AutoCloseable {
+
+    private static final ThreadFactory HILOS = Thread.ofVirtual().name("subtarea-", 0).factory();
+
+    private final ExecutorService hilos = ContextExecutorService.wrap(
+            Executors.newThreadPerTaskExecutor(HILOS), ContextSnapshotFactory.builder().build()::captureAll);
+
+    private final CompletionService<Object> terminadas = new ExecutorCompletionService<>(hilos);
+
+    private final List<Future<Object>> subtareas = new ArrayList<>();
+
+    private final long limite;
+
+    AmbitoSubtareas(Duration plazo) {
+        this.limite = System.nanoTime() + plazo.toNanos();
+    }
+
+    /**
+     * Lanza una subtarea. Su resultado solo se puede leer despues de {@link #esperar()}.
+     */
+    @SuppressWarnings("unchecked")
+    <T> Supplier<T> lanzar(Callable<T> subtarea) {
+        Future<Object> futuro = terminadas.submit(subtarea::call);
+        subtareas.add(futuro);
+        return () -> (T) futuro.resultNow();
+    }
+
+    /**
+     * Espera a que terminen todas las subtareas. Si una falla se relanza su error, sin envolver si
+     * es unchecked.
+     *
+     * @throws TimeoutException si al acabar el plazo alguna sigue en marcha
+     */
+    void esperar() throws TimeoutException {
+        for (int pendientes = subtareas.size(); pendientes > 0; pendientes--) {
+            Future<Object> terminada;
+            try {
+                terminada = terminadas.poll(limite - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                cancelar();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Operacion interrumpida", e);
+            }
+            if (terminada == null) {
+                cancelar();
+                throw new TimeoutException("Plazo agotado con " + pendientes + " comprobaciones pendientes");
+            }
+            if (terminada.state() == Future.State.FAILED) {
+                cancelar();
+                throw fallo(terminada.exceptionNow());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        cancelar();
+        hilos.close();
+    }
+
+    private void cancelar() {
+        subtareas.forEach(subtarea -> subtarea.cancel(true));
+    }
+
+    private static RuntimeException fallo(Throwable error) {
+        while ((error instanceof ExecutionException || error instanceof CompletionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof Error grave) {
+            throw grave;
+        }
+        return error instanceof RuntimeException unchecked ? unchecked : new CompletionException(error);
+    }
+}
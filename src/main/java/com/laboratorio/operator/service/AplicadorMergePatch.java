@@ -0,0 +1,65 @@
+package com.laboratorio.operator.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.fge.jsonpatch.JsonPatchException;
+import com.github.fge.jsonpatch.mergepatch.JsonMergePatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Aplica un merge patch (RFC 7386) sobre una entidad gestionada. Los miembros a null se borran
+ * y los ausentes se conservan. Se escriben todos los campos, pero Hibernate solo marca como
+ * modificados los que cambian de valor.
+ */
+@Component
+public class AplicadorMergePatch {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * @throws ResponseStatusException 400 si el patch cambia el id, borra un campo obligatorio
+     *                                 o deja un valor con un tipo incorrecto
+     */
+    public <T> void aplicar(JsonMergePatch patch, T entidad) {
+        JsonNode actual = objectMapper.valueToTree(entidad);
+        JsonNode modificado;
+        try {
+            modificado = patch.apply(actual);
+        } catch (JsonPatchException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+        if (!(modificado instanceof ObjectNode campos)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "El patch debe ser un objeto JSON");
+        }
+        // El id se escribe como texto; repetirlo como numero tampoco es cambiarlo
+        if (!Objects.equals(texto(actual.get("id")), texto(campos.get("id")))) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "El identificador no se puede modificar");
+        }
+        // Un miembro borrado por el patch se escribe como null: falla en los campos primitivos
+        actual.fieldNames().forEachRemaining(campo -> {
+            if (!campos.has(campo)) {
+                campos.putNull(campo);
+            }
+        });
+        try {
+            objectMapper.readerForUpdating(entidad)
+                    .with(DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES)
+                    .readValue(campos);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    private static String texto(JsonNode valor) {
+        return valor == null || valor.isNull() ? null : valor.asText();
+    }
+}
@@ -1,71 +1,263 @@
 package com.laboratorio.operator.service;
 
+import com.github.fge.jsonpatch.mergepatch.JsonMergePatch;
+import com.laboratorio.operator.archivo.Archivo;
+import com.laboratorio.operator.evento.CambioCompra;
+import com.laboratorio.operator.facade.MovieInventoryUnavailableException;
+import com.laboratorio.operator.fragmentos.Fragmentos;
 import com.laboratorio.operator.facade.ProductsFacade;
 import com.laboratorio.operator.model.Compra;
 import com.laboratorio.operator.model.MovieDto;
+import com.laboratorio.operator.model.Pagina;
+import com.laboratorio.operator.model.ResultadoLote;
 import com.laboratorio.operator.repository.CompraRepository;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 @Service
+@Slf4j
 public class CompraService {
 
+    private static final String NO_GUARDADA = "No se ha podido guardar la compra";
+
     @Autowired
     private CompraRepository compraRepository;
     @Autowired
     private ProductsFacade productsFacade;
-    public List<Compra> getAllCompras() {
-        return compraRepository.findAll();
+
+    @Autowired
+    private ExportadorNdjson exportadorNdjson;
+
+    @Autowired
+    private GuardadoPorLotes guardadoPorLotes;
+
+    @Autowired
+    private AplicadorMergePatch aplicadorMergePatch;
+
+    @Autowired
+    private ApplicationEventPublisher eventos;
+
+    @Autowired
+    private TransactionTemplate transaccion;
+
+    @Autowired
+    private Fragmentos fragmentos;
+
+    @Autowired
+    private Archivo archivo;
+
+    @Value("${compras.inventario-no-disponible:RECHAZAR}")
+    private PoliticaInventarioNoDisponible politicaInventarioNoDisponible;
+
+    @Value("${compras.plazo-comprobaciones:3s}")
+    private Duration plazoComprobaciones;
+
+    @Value("${paginacion.tamano-maximo:500}")
+    private int tamanoMaximoPagina;
+
+    @Value("${lotes.tamano-maximo:5000}")
+    private int tamanoMaximoLote;
+
+    public Pagina<Compra> getCompras(String cursor, int tamano, Integer idPelicula, String tipoPago,
+                                     Date desde, Date hasta) {
+        int limite = Math.min(Math.max(tamano, 1), tamanoMaximoPagina);
+        long despuesDe = Pagina.despuesDe(cursor);
+        // Se pide un elemento de mas para saber si existe una pagina siguiente, a cada fragmento y al archivo
+        List<Compra> compras = archivo.compras().completarPagina(
+                fragmentos.unir(() -> compraRepository.findPagina(despuesDe, idPelicula, tipoPago, desde, hasta,
+                        PageRequest.ofSize(limite + 1)), limite + 1),
+                ids -> fragmentos.enTodos(() -> compraRepository.findIdsEnTabla(ids)).stream()
+                        .flatMap(List::stream).toList(),
+                despuesDe, idPelicula != null ? String.valueOf(idPelicula) : null, tipoPago, desde, hasta, limite + 1);
+        if (compras.size() <= limite) {
+            return new Pagina<>(compras, null);
+        }
+        List<Compra> pagina = compras.subList(0, limite);
+        return new Pagina<>(pagina, Pagina.cursor(pagina.get(limite - 1).getId()));
+    }
+
+    public void exportarCompras(OutputStream salida) throws IOException {
+        fragmentos.recorrer(compraRepository::streamAll,
+                compras -> exportadorNdjson.exportar(archivo.compras().unir(compras), salida));
     }
 
     public Optional<Compra> getCompraById(Long id) {
-        return compraRepository.findById(id);
+        return compraRepository.findById(id).or(() -> archivo.compras().buscar(id));
+    }
+
+    public Optional<Long> getVersionCompra(Long id) {
+        return compraRepository.findVersionById(id).or(() -> archivo.compras().version(id));
     }
 
     public Compra createCompra(Compra compra) {
 
         String movieId = String.valueOf(compra.getIdPelicula());
-        // Verificar si la película existe usando ProductsFacade
-        MovieDto movie = productsFacade.getMovie(movieId);
+        // Comprobaciones previas al guardado, como subtareas con un plazo comun: si se agota, el
+        // inventario cuenta como no disponible
+        MovieDto movie;
+        try (AmbitoSubtareas comprobaciones = new AmbitoSubtareas(plazoComprobaciones)) {
+            // Verificar si la película existe usando ProductsFacade
+            Supplier<MovieDto> pelicula = comprobaciones.lanzar(() -> productsFacade.getMovieAsync(movieId).get());
+            comprobaciones.esperar();
+            movie = pelicula.get();
+        } catch (MovieInventoryUnavailableException | TimeoutException e) {
+            if (politicaInventarioNoDisponible == PoliticaInventarioNoDisponible.RECHAZAR) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+            }
+            log.warn("Compra de la película {} aceptada sin validar: {}", movieId, e.getMessage());
+            return guardar(compra, null);
+        }
 
         if (movie == null) {
             throw new RuntimeException("La película no existe en el inventario");
         }
 
         // Si la película existe, crear el alquiler
-        return compraRepository.save(compra);
+        return guardar(compra, null);
+    }
+
+    /**
+     * Crea compras en bloque: valida todas las peliculas referenciadas con una unica consulta al
+     * inventario y guarda las validas con inserts en batch. El resultado sigue el orden de entrada.
+     */
+    public List<ResultadoLote> createCompras(List<Compra> compras) {
+        if (compras.size() > tamanoMaximoLote) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "El lote supera el tamaño maximo de " + tamanoMaximoLote + " elementos");
+        }
+        Map<String, Optional<MovieDto>> peliculas = productsFacade.getMovies(
+                compras.stream().map(c -> String.valueOf(c.getIdPelicula())).toList());
+
+        List<ResultadoLote> resultados = new ArrayList<>(compras.size());
+        List<Compra> validos = new ArrayList<>();
+        for (Compra compra : compras) {
+            String error = politicaInventarioNoDisponible.validar(peliculas, String.valueOf(compra.getIdPelicula()));
+            resultados.add(error == null ? null : ResultadoLote.rechazado(resultados.size(), error));
+            if (error == null) {
+                compra.setId(null);
+                validos.add(compra);
+            }
+        }
+        guardarNuevas(validos);
+
+        int siguiente = 0;
+        for (int i = 0; i < resultados.size(); i++) {
+            if (resultados.get(i) == null) {
+                Long id = validos.get(siguiente++).getId();
+                resultados.set(i, id != null ? ResultadoLote.guardado(i, id) : ResultadoLote.rechazado(i, NO_GUARDADA));
+            }
+        }
+        return resultados;
     }
 
-    public Compra updateCompra(Long id, Compra compraDetails) {
-        Compra compra = compraRepository.findById(id).orElseThrow(() -> new RuntimeException("Compra no encontrada"));
+    /**
+     * Guarda compras ya validadas con inserts en batch y publica sus altas, en una transaccion por
+     * fragmento. Los ids asignados quedan en las propias compras; las de un fragmento que falla
+     * quedan sin id. Si no se puede guardar ninguna se lanza el error.
+     */
+    public void guardarNuevas(List<Compra> compras) {
+        List<Compra> noGuardadas = fragmentos.porFragmento(compras, grupo -> transaccion.executeWithoutResult(status -> {
+            guardadoPorLotes.guardar(grupo, compraRepository);
+            grupo.forEach(compra -> eventos.publishEvent(new CambioCompra(null, new Compra(compra))));
+        }));
+        noGuardadas.forEach(compra -> {
+            compra.setId(null);
+            compra.setVersion(null);
+        });
+    }
+
+    /**
+     * @param versiones versiones aceptadas (If-Match), o null para escribir sin condicion
+     */
+    @Transactional
+    public Compra updateCompra(Long id, Compra compraDetails, Set<Long> versiones) {
+        Optional<Compra> existente = compraRepository.findById(id);
+        if (existente.isEmpty()) {
+            comprobarNoArchivada(id);
+        }
+        Compra compra = existente.orElseThrow(() -> new RuntimeException("Compra no encontrada"));
+        Precondiciones.comprobarVersion(compra.getVersion(), versiones);
+        Compra anterior = new Compra(compra);
         compra.setIdPelicula(compraDetails.getIdPelicula());
         compra.setFechaCompra(compraDetails.getFechaCompra());
         compra.setPrecioTotal(compraDetails.getPrecioTotal());
         compra.setTipoPago(compraDetails.getTipoPago());
-        return compraRepository.save(compra);
+        return guardar(compra, anterior);
     }
 
-    public Compra patchCompra(Long id, Compra compraDetails) {
-        Compra compra = compraRepository.findById(id).orElseThrow(() -> new RuntimeException("Compra no encontrada"));
-        if (compraDetails.getIdPelicula() != 0) {
-            compra.setIdPelicula(compraDetails.getIdPelicula());
+    /**
+     * Aplica un merge patch a la compra. Una sola lectura y un UPDATE solo de las columnas que
+     * cambian. El flush adelanta el UPDATE para que el cambio publicado lleve la nueva version.
+     *
+     * @param versiones versiones aceptadas (If-Match), o null para escribir sin condicion
+     */
+    @Transactional
+    public Optional<Compra> patchCompra(Long id, JsonMergePatch patch, Set<Long> versiones) {
+        Optional<Compra> existente = compraRepository.findById(id);
+        if (existente.isEmpty()) {
+            comprobarNoArchivada(id);
         }
-        if (compraDetails.getFechaCompra() != null) {
-            compra.setFechaCompra(compraDetails.getFechaCompra());
-        }
-        if (compraDetails.getPrecioTotal() != 0.0) {
-            compra.setPrecioTotal(compraDetails.getPrecioTotal());
+        return existente.map(compra -> {
+            Precondiciones.comprobarVersion(compra.getVersion(), versiones);
+            Compra anterior = new Compra(compra);
+            aplicadorMergePatch.aplicar(patch, compra);
+            compraRepository.flush();
+            eventos.publishEvent(new CambioCompra(anterior, new Compra(compra)));
+            return compra;
+        });
+    }
+
+    /**
+     * @param versiones versiones aceptadas (If-Match), o null para borrar sin condicion
+     */
+    @Transactional
+    public void deleteCompra(Long id, Set<Long> versiones) {
+        Optional<Compra> compra = compraRepository.findById(id);
+        if (compra.isEmpty()) {
+            comprobarNoArchivada(id);
         }
-        if (compraDetails.getTipoPago() != null) {
-            compra.setTipoPago(compraDetails.getTipoPago());
+        Precondiciones.comprobarVersion(compra.map(Compra::getVersion).orElse(null), versiones);
+        compra.ifPresent(c -> {
+            compraRepository.delete(c);
+            eventos.publishEvent(new CambioCompra(c, null));
+        });
+    }
+
+    // Las compras archivadas solo se pueden leer
+    private void comprobarNoArchivada(Long id) {
+        if (archivo.compras().contiene(id)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "La compra esta archivada y no se puede modificar");
         }
-        return compraRepository.save(compra);
     }
 
-    public void deleteCompra(Long id) {
-        compraRepository.deleteById(id);
+    // Guarda y publica el cambio con copias del estado anterior y del guardado. En la misma
+    // transaccion, para que el registro del cambio (RegistroCambios) se confirme con la compra. El
+    // flush sube la version antes de copiar el estado guardado.
+    private Compra guardar(Compra compra, Compra anterior) {
+        return transaccion.execute(status -> {
+            Compra guardada = compraRepository.saveAndFlush(compra);
+            eventos.publishEvent(new CambioCompra(anterior, new Compra(guardada)));
+            return guardada;
+        });
     }
 }
\ No newline at end of file
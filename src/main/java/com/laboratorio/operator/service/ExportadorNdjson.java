@@ -0,0 +1,56 @@
+package com.laboratorio.operator.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Escribe una consulta en streaming como JSON delimitado por saltos de linea (NDJSON).
+ * Cada entidad se desvincula del contexto de persistencia tras escribirse, asi que la memoria
+ * usada no depende del numero de filas. La escritura bloquea cuando el cliente no consume,
+ * lo que frena tambien la lectura del cursor de base de datos.
+ */
+@Component
+public class ExportadorNdjson {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${exportacion.filas-por-flush:500}")
+    private int filasPorFlush;
+
+    public <T> void exportar(Stream<T> filas, OutputStream salida) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(salida)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            // Con varios fragmentos las filas llegan ya desvinculadas y fuera de una transaccion
+            boolean desvincular = TransactionSynchronizationManager.isActualTransactionActive();
+            int pendientes = 0;
+            for (Iterator<T> it = filas.iterator(); it.hasNext(); ) {
+                T fila = it.next();
+                objectMapper.writeValue(generator, fila);
+                generator.writeRaw('\n');
+                if (desvincular) {
+                    entityManager.detach(fila);
+                }
+                if (++pendientes == filasPorFlush) {
+                    generator.flush();
+                    pendientes = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.laboratorio.operator.service;
+
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.jpa.SpecHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Inserta entidades nuevas en una sola transaccion, volcando y limpiando el contexto de
+ * persistencia cada hibernate.jdbc.batch_size elementos para que cada tramo salga como un
+ * batch JDBC y la memoria no crezca con el tamaño del lote. Las entidades insertadas no se
+ * guardan en la cache de segundo nivel: un lote grande la vaciaria de los registros mas leidos.
+ * Con varios fragmentos todas las entidades deben ser del mismo (ver Fragmentos.porFragmento).
+ */
+@Component
+public class GuardadoPorLotes {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int tamanoBatch;
+
+    @Transactional
+    public <T> void guardar(List<T> entidades, JpaRepository<T, ?> repository) {
+        // Hasta el final de la transaccion: la cache se escribe al confirmar
+        entityManager.setProperty(SpecHints.HINT_SPEC_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+        for (int desde = 0; desde < entidades.size(); desde += tamanoBatch) {
+            repository.saveAll(entidades.subList(desde, Math.min(desde + tamanoBatch, entidades.size())));
+            entityManager.flush();
+            entityManager.clear();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.laboratorio.operator.service;
+
+import com.laboratorio.operator.model.MovieDto;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Que hacer con una compra o un alquiler cuando no se puede comprobar la pelicula en el
+ * inventario (circuito abierto, limite de llamadas alcanzado o error remoto).
+ */
+public enum PoliticaInventarioNoDisponible {
+
+    /** Se rechaza la operacion inmediatamente con un 503. */
+    RECHAZAR,
+
+    /** Se acepta la operacion sin validar la pelicula. */
+    ACEPTAR;
+
+    /**
+     * Valida una pelicula contra el resultado de {@code ProductsFacade.getMovies}.
+     *
+     * @return el motivo del rechazo, o null si se acepta
+     */
+    String validar(Map<String, Optional<MovieDto>> peliculas, String idPelicula) {
+        Optional<MovieDto> pelicula = peliculas.get(idPelicula);
+        if (pelicula == null) {
+            return this == RECHAZAR ? "Inventario de peliculas no disponible" : null;
+        }
+        return pelicula.isPresent() ? null : "La película no existe en el inventario";
+    }
+}
@@ -0,0 +1,27 @@
+package com.laboratorio.operator.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Set;
+
+/**
+ * Comprobacion de las versiones aceptadas por una escritura condicional (If-Match).
+ */
+final class Precondiciones {
+
+    private Precondiciones() {
+    }
+
+    /**
+     * @param version    version actual del registro, o null si no existe
+     * @param aceptadas  versiones con las que se puede escribir, o null si la escritura no es condicional
+     * @throws ResponseStatusException 412 si la version actual no esta entre las aceptadas
+     */
+    static void comprobarVersion(Long version, Set<Long> aceptadas) {
+        if (aceptadas != null && (version == null || !aceptadas.contains(version))) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+                    "El registro ha cambiado desde la version indicada en If-Match");
+        }
+    }
+}
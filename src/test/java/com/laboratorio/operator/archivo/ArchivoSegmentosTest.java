@@ -0,0 +1,176 @@
+package com.laboratorio.operator.archivo;
+
+import com.laboratorio.operator.model.Alquiler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class ArchivoSegmentosTest {
+
+    @TempDir
+    Path directorio;
+
+    private ArchivoSegmentos<Alquiler> archivo;
+
+    @BeforeEach
+    void crear() {
+        archivo = nuevoArchivo();
+    }
+
+    @Test
+    void unirDejaUnaFilaPorIdConLaCopiaMasReciente() throws IOException {
+        archivo.archivar(List.of(alquiler(1, 1), alquiler(2, 1), alquiler(4, 1)));
+        // Se vuelve a archivar el 2 y el 4 tambien sigue en la tabla
+        archivo.archivar(List.of(alquiler(2, 2), alquiler(3, 2), alquiler(4, 2)));
+
+        List<Alquiler> todos;
+        try (Stream<Alquiler> union = archivo.unir(Stream.of(alquiler(4, 9), alquiler(5, 9)))) {
+            todos = union.toList();
+        }
+
+        assertThat(todos).extracting(Alquiler::getId, Alquiler::getPrecioFinal).containsExactly(
+                tuple(1L, 1.0), tuple(2L, 2.0), tuple(3L, 2.0), tuple(4L, 9.0), tuple(5L, 9.0));
+    }
+
+    @Test
+    void completarPaginaFiltraSoloLaCopiaVigente() throws IOException {
+        archivo.archivar(List.of(alquiler(1, 1), alquiler(2, 1), alquiler(3, 1), alquiler(4, 1)));
+        // El 2 se vuelve a archivar y el 3 sigue en la tabla, los dos ya de otra pelicula
+        Alquiler cambiado = alquiler(2, 2);
+        cambiado.setIdPelicula("8");
+        archivo.archivar(List.of(cambiado));
+
+        // Con limite 2 el primer lote se queda corto al quitar el 3 y se lee otro
+        List<Alquiler> pagina = archivo.completarPagina(List.of(),
+                ids -> ids.contains(3L) ? List.of(3L) : List.of(), 0, "7", null, null, null, 2);
+
+        assertThat(pagina).extracting(Alquiler::getId).containsExactly(1L, 4L);
+    }
+
+    @Test
+    void unirSinSegmentosDevuelveLaTabla() {
+        assertThat(archivo.unir(Stream.of(alquiler(1, 9))).toList())
+                .extracting(Alquiler::getPrecioFinal).containsExactly(9.0);
+    }
+
+    @Test
+    void completarPaginaUneEnOrdenYSinRepetir() throws IOException {
+        archivo.archivar(List.of(alquiler(1, 1), alquiler(2, 1), alquiler(4, 1)));
+        archivo.archivar(List.of(alquiler(2, 2), alquiler(3, 2)));
+
+        List<Alquiler> pagina = archivo.completarPagina(List.of(alquiler(3, 9), alquiler(6, 9)),
+                ids -> List.of(3L, 6L), 1, null, null, null, null, 3);
+
+        assertThat(pagina).extracting(Alquiler::getId, Alquiler::getPrecioFinal).containsExactly(
+                tuple(2L, 2.0), tuple(3L, 9.0), tuple(4L, 1.0));
+    }
+
+    @Test
+    void completarPaginaAplicaLosFiltros() throws IOException {
+        Alquiler abierto = alquiler(2, 1);
+        abierto.setFechaHasta(null);
+        Alquiler otraPelicula = alquiler(3, 1);
+        otraPelicula.setIdPelicula("8");
+        archivo.archivar(List.of(alquiler(1, 1), abierto, otraPelicula));
+
+        List<Alquiler> pagina = archivo.completarPagina(List.of(), ids -> List.of(), 0, "7", null, new Date(50_000),
+                null, 10);
+
+        assertThat(pagina).extracting(Alquiler::getId).containsExactly(2L);
+    }
+
+    @Test
+    void buscarDevuelveLaCopiaMasReciente() throws IOException {
+        archivo.archivar(List.of(alquiler(1, 1), alquiler(2, 1)));
+        archivo.archivar(List.of(alquiler(2, 2)));
+
+        assertThat(archivo.buscar(2)).get().extracting(Alquiler::getPrecioFinal).isEqualTo(2.0);
+        assertThat(archivo.buscar(1)).get().extracting(Alquiler::getPrecioFinal).isEqualTo(1.0);
+        assertThat(archivo.contiene(3)).isFalse();
+    }
+
+    @Test
+    void refrescarVeLosSegmentosDeOtraInstancia() throws IOException {
+        ArchivoSegmentos<Alquiler> otra = nuevoArchivo();
+        otra.archivar(List.of(alquiler(1, 1)));
+        assertThat(archivo.contiene(1)).isFalse();
+
+        archivo.refrescar();
+
+        assertThat(archivo.contiene(1)).isTrue();
+    }
+
+    @Test
+    void unSegmentoPreparadoSoloSeVeAlPublicarlo() throws IOException {
+        ArchivoSegmentos<Alquiler>.Pendiente publicado = archivo.preparar(List.of(alquiler(1, 1)));
+        ArchivoSegmentos<Alquiler>.Pendiente descartado = archivo.preparar(List.of(alquiler(2, 1)));
+        archivo.refrescar();
+        assertThat(archivo.contiene(1)).isFalse();
+        assertThat(archivo.pendientes()).hasSize(2);
+
+        publicado.publicar();
+        descartado.descartar();
+
+        assertThat(archivo.contiene(1)).isTrue();
+        assertThat(archivo.contiene(2)).isFalse();
+        assertThat(archivo.pendientes()).isEmpty();
+        // Un pendiente que queda de una caida se lee y se publica igual
+        archivo.preparar(List.of(alquiler(3, 1), alquiler(4, 1)));
+        ArchivoSegmentos<Alquiler>.Pendiente recuperado = nuevoArchivo().pendientes().get(0);
+        assertThat(recuperado.ids()).containsExactly(3L, 4L);
+        recuperado.publicar();
+        archivo.refrescar();
+        assertThat(archivo.contiene(4)).isTrue();
+        assertThat(archivo.pendientes()).isEmpty();
+    }
+
+    private ArchivoSegmentos<Alquiler> nuevoArchivo() {
+        return new ArchivoSegmentos<>("alquileres", directorio, 4, ArchivoSegmentosTest::registro,
+                ArchivoSegmentosTest::entidad, new SimpleMeterRegistry());
+    }
+
+    // El importe indica de que copia viene cada fila
+    private static Alquiler alquiler(long id, double importe) {
+        Alquiler alquiler = new Alquiler();
+        alquiler.setId(id);
+        alquiler.setVersion(0L);
+        alquiler.setIdPelicula("7");
+        alquiler.setFechaDesde(new Date(id * 1_000));
+        alquiler.setFechaHasta(new Date(id * 1_000 + 500));
+        alquiler.setPrecioFinal(importe);
+        alquiler.setTipoRecibo("FACTURA");
+        return alquiler;
+    }
+
+    private static RegistroArchivado registro(Alquiler alquiler) {
+        return new RegistroArchivado(alquiler.getId(), alquiler.getVersion(), alquiler.getIdPelicula(),
+                milisegundos(alquiler.getFechaDesde()), milisegundos(alquiler.getFechaHasta()),
+                alquiler.getPrecioFinal(), alquiler.getTipoRecibo());
+    }
+
+    private static Alquiler entidad(RegistroArchivado registro) {
+        Alquiler alquiler = new Alquiler();
+        alquiler.setId(registro.id());
+        alquiler.setVersion(registro.version());
+        alquiler.setIdPelicula(registro.idPelicula());
+        alquiler.setFechaDesde(registro.desde() != null ? new Date(registro.desde()) : null);
+        alquiler.setFechaHasta(registro.hasta() != null ? new Date(registro.hasta()) : null);
+        alquiler.setPrecioFinal(registro.importe());
+        alquiler.setTipoRecibo(registro.tipo());
+        return alquiler;
+    }
+
+    private static Long milisegundos(Date fecha) {
+        return fecha != null ? fecha.getTime() : null;
+    }
+}
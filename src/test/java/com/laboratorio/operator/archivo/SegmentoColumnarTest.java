@@ -0,0 +1,105 @@
+package com.laboratorio.operator.archivo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentoColumnarTest {
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void lasFilasSeLeenComoSeEscribieron() throws IOException {
+        List<RegistroArchivado> registros = List.of(
+                new RegistroArchivado(10, 0L, "7", 5_000L, 9_000L, 3.5, "FACTURA"),
+                // Fechas que bajan respecto a la fila anterior y un hasta anterior a su desde
+                new RegistroArchivado(11, 2L, "3", 1_000L, 500L, 0, "TICKET"),
+                // Sin version, pelicula, fechas ni tipo
+                new RegistroArchivado(12, null, null, null, null, -1.25, null),
+                new RegistroArchivado(13, 1L, "7", 2_000L, null, 4, "FACTURA"),
+                // Antes de 1970 y un salto de id grande
+                new RegistroArchivado(370_041_243_289_255_936L, 0L, "12", -86_400_000L, -3_600_000L, 9.99, "FACTURA"));
+        Path fichero = directorio.resolve("segmento.col");
+
+        SegmentoColumnar.Estadisticas estadisticas = SegmentoColumnar.escribir(fichero, registros);
+
+        assertThat(leer(fichero)).isEqualTo(registros);
+        assertThat(SegmentoColumnar.leerEstadisticas(fichero)).isEqualTo(estadisticas);
+        assertThat(estadisticas.filas()).isEqualTo(5);
+        assertThat(estadisticas.idMinimo()).isEqualTo(10);
+        assertThat(estadisticas.idMaximo()).isEqualTo(370_041_243_289_255_936L);
+        assertThat(estadisticas.desdeMinimo()).isEqualTo(-86_400_000L);
+        assertThat(estadisticas.desdeMaximo()).isEqualTo(5_000L);
+        assertThat(estadisticas.hastaMinimo()).isEqualTo(-3_600_000L);
+        // La fila 13 no tiene hasta: su periodo no termina
+        assertThat(estadisticas.hastaMaximo()).isEqualTo(Long.MAX_VALUE);
+        assertThat(estadisticas.peliculaMinima()).isEqualTo("12");
+        assertThat(estadisticas.peliculaMaxima()).isEqualTo("7");
+    }
+
+    @Test
+    void unSegmentoSinFechasNiPeliculasNoTieneEstadisticasDeEllas() throws IOException {
+        Path fichero = directorio.resolve("segmento.col");
+
+        SegmentoColumnar.Estadisticas estadisticas = SegmentoColumnar.escribir(fichero,
+                List.of(new RegistroArchivado(1, null, null, null, null, 0, null)));
+
+        assertThat(estadisticas.desdeMinimo()).isNull();
+        assertThat(estadisticas.hastaMaximo()).isNull();
+        assertThat(estadisticas.peliculaMinima()).isNull();
+        assertThat(SegmentoColumnar.leerEstadisticas(fichero)).isEqualTo(estadisticas);
+        assertThat(leer(fichero)).containsExactly(new RegistroArchivado(1, null, null, null, null, 0, null));
+    }
+
+    @Test
+    void unPeriodoSinHastaCumpleCualquierDesde() {
+        SegmentoColumnar.Filtro filtro = new SegmentoColumnar.Filtro(null, null, 10_000L, null);
+
+        assertThat(filtro.cumple("1", "FACTURA", 1_000, Long.MIN_VALUE)).isTrue();
+        assertThat(filtro.cumple("1", "FACTURA", 1_000, 9_999)).isFalse();
+        assertThat(filtro.cumple("1", "FACTURA", 1_000, 10_000)).isTrue();
+    }
+
+    @Test
+    void noSeSobrescribeUnSegmentoExistente() throws IOException {
+        Path fichero = directorio.resolve("segmento.col");
+        SegmentoColumnar.escribir(fichero, List.of(new RegistroArchivado(1, 0L, "1", 1L, 1L, 1, "A")));
+
+        assertThatThrownBy(() -> SegmentoColumnar.escribir(fichero,
+                List.of(new RegistroArchivado(2, 0L, "2", 2L, 2L, 2, "B"))))
+                .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(leer(fichero)).extracting(RegistroArchivado::id).containsExactly(1L);
+        assertThat(directorio.resolve("segmento.col.tmp")).doesNotExist();
+    }
+
+    @Test
+    void unSegmentoCortadoNoSeLee() throws IOException {
+        Path fichero = directorio.resolve("segmento.col");
+        SegmentoColumnar.escribir(fichero, List.of(new RegistroArchivado(1, 0L, "1", 1L, 1L, 1, "A")));
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.WRITE)) {
+            canal.truncate(canal.size() - 1);
+        }
+
+        assertThatThrownBy(() -> SegmentoColumnar.leer(fichero)).isInstanceOf(IOException.class);
+    }
+
+    private static List<RegistroArchivado> leer(Path fichero) throws IOException {
+        SegmentoColumnar.Columnas columnas = SegmentoColumnar.leer(fichero);
+        List<RegistroArchivado> registros = new ArrayList<>();
+        for (int fila = 0; fila < columnas.filas(); fila++) {
+            registros.add(columnas.registro(fila));
+        }
+        return registros;
+    }
+}
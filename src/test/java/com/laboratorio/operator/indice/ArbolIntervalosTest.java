@@ -0,0 +1,117 @@
+package com.laboratorio.operator.indice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArbolIntervalosTest {
+
+    private record Intervalo(long id, long desde, long hasta) {
+
+        boolean solapa(long desde, long hasta) {
+            return this.desde < hasta && this.hasta > desde;
+        }
+    }
+
+    @Test
+    void losIntervalosSonSemiabiertos() {
+        ArbolIntervalos arbol = new ArbolIntervalos();
+        arbol.insertar(1, 10, 20);
+
+        assertThat(arbol.haySolape(20, 30, Long.MIN_VALUE)).isFalse();
+        assertThat(arbol.haySolape(0, 10, Long.MIN_VALUE)).isFalse();
+        assertThat(arbol.haySolape(19, 20, Long.MIN_VALUE)).isTrue();
+        assertThat(arbol.haySolape(0, 11, Long.MIN_VALUE)).isTrue();
+        assertThat(arbol.haySolape(0, 30, 1)).isFalse();
+    }
+
+    @Test
+    void soloSeEliminaConSuIdYSuInicio() {
+        ArbolIntervalos arbol = new ArbolIntervalos();
+        arbol.insertar(1, 10, 20);
+        arbol.insertar(2, 10, 20);
+
+        assertThat(arbol.eliminar(1, 11)).isFalse();
+        assertThat(arbol.eliminar(3, 10)).isFalse();
+        assertThat(arbol.eliminar(1, 10)).isTrue();
+        assertThat(arbol.eliminar(1, 10)).isFalse();
+        assertThat(arbol.tamano()).isEqualTo(1);
+        assertThat(solapes(arbol, 0, 100)).extracting(Intervalo::id).containsExactly(2L);
+    }
+
+    // Operaciones al azar comparadas con una lista recorrida entera
+    @ParameterizedTest
+    @ValueSource(longs = {1, 2, 3, 42, 2024})
+    void coincideConUnaBusquedaExhaustiva(long semilla) {
+        Random azar = new Random(semilla);
+        ArbolIntervalos arbol = new ArbolIntervalos();
+        Map<Long, Intervalo> esperados = new HashMap<>();
+        long siguienteId = 1;
+
+        for (int operacion = 0; operacion < 5_000; operacion++) {
+            int tipo = azar.nextInt(10);
+            if (tipo < 4) {
+                // Ids negativos como los de las reservas, inicios repetidos y periodos sin fin
+                long id = azar.nextBoolean() ? siguienteId++ : -siguienteId++;
+                long desde = azar.nextInt(1_000);
+                long hasta = azar.nextInt(20) == 0 ? Long.MAX_VALUE : desde + 1 + azar.nextInt(50);
+                arbol.insertar(id, desde, hasta);
+                esperados.put(id, new Intervalo(id, desde, hasta));
+            } else if (tipo < 6) {
+                Intervalo elegido = elegir(azar, esperados);
+                if (elegido == null) {
+                    continue;
+                }
+                if (azar.nextInt(5) == 0) {
+                    // Con otro inicio no es el mismo intervalo
+                    assertThat(arbol.eliminar(elegido.id(), elegido.desde() + 1)).isFalse();
+                } else {
+                    assertThat(arbol.eliminar(elegido.id(), elegido.desde())).isTrue();
+                    esperados.remove(elegido.id());
+                }
+            } else {
+                long desde = azar.nextInt(1_100) - 50;
+                long hasta = azar.nextInt(10) == 0 ? Long.MAX_VALUE : desde + 1 + azar.nextInt(60);
+                assertThat(solapes(arbol, desde, hasta)).isEqualTo(solapesEsperados(esperados, desde, hasta));
+
+                Intervalo excluido = azar.nextBoolean() ? elegir(azar, esperados) : null;
+                long excluirId = excluido != null ? excluido.id() : Long.MIN_VALUE;
+                boolean esperado = esperados.values().stream()
+                        .anyMatch(i -> i.id() != excluirId && i.solapa(desde, hasta));
+                assertThat(arbol.haySolape(desde, hasta, excluirId)).isEqualTo(esperado);
+            }
+            assertThat(arbol.tamano()).isEqualTo(esperados.size());
+        }
+    }
+
+    private static List<Intervalo> solapes(ArbolIntervalos arbol, long desde, long hasta) {
+        List<Intervalo> encontrados = new ArrayList<>();
+        arbol.solapes(desde, hasta, (id, d, h) -> encontrados.add(new Intervalo(id, d, h)));
+        return encontrados;
+    }
+
+    // En el orden del arbol: por inicio y despues por id
+    private static List<Intervalo> solapesEsperados(Map<Long, Intervalo> intervalos, long desde, long hasta) {
+        return intervalos.values().stream()
+                .filter(i -> i.solapa(desde, hasta))
+                .sorted(Comparator.comparingLong(Intervalo::desde).thenComparingLong(Intervalo::id))
+                .toList();
+    }
+
+    private static Intervalo elegir(Random azar, Map<Long, Intervalo> intervalos) {
+        if (intervalos.isEmpty()) {
+            return null;
+        }
+        List<Intervalo> todos = new ArrayList<>(intervalos.values());
+        return todos.get(azar.nextInt(todos.size()));
+    }
+}
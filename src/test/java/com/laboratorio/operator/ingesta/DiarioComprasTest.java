@@ -0,0 +1,134 @@
+package com.laboratorio.operator.ingesta;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiarioComprasTest {
+
+    private static final int SEGMENTO = 4096;
+
+    // longitud (4) + tipo (1) + id (16) + crc (4)
+    private static final int SOBRE_DATOS = 25;
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void reabrirDevuelveLasAltasPendientesYLosFines() throws IOException {
+        UUID terminada = UUID.randomUUID();
+        UUID pendiente = UUID.randomUUID();
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            assertThat(diario.abrir().pendientes()).isEmpty();
+            int segmento = diario.alta(terminada, datos("alta 1"));
+            diario.alta(pendiente, datos("alta 2"));
+            diario.fin(terminada, datos("fin 1"), segmento);
+        }
+
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            DiarioCompras.Recuperacion recuperacion = diario.abrir();
+            assertThat(recuperacion.pendientes()).hasSize(1);
+            assertThat(recuperacion.pendientes().get(0).id()).isEqualTo(pendiente);
+            assertThat(recuperacion.pendientes().get(0).datos()).isEqualTo(datos("alta 2"));
+            assertThat(recuperacion.fines()).containsOnlyKeys(terminada);
+            assertThat(recuperacion.fines().get(terminada)).isEqualTo(datos("fin 1"));
+        }
+    }
+
+    @Test
+    void lasPendientesSiguenTrasVariasAperturas() throws IOException {
+        UUID pendiente = UUID.randomUUID();
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            diario.abrir();
+            diario.alta(pendiente, datos("alta"));
+        }
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            assertThat(diario.abrir().pendientes()).hasSize(1);
+        }
+
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            DiarioCompras.Recuperacion recuperacion = diario.abrir();
+            assertThat(recuperacion.pendientes()).extracting(DiarioCompras.Pendiente::id).containsExactly(pendiente);
+            diario.fin(pendiente, datos("fin"), recuperacion.pendientes().get(0).segmento());
+        }
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            DiarioCompras.Recuperacion recuperacion = diario.abrir();
+            assertThat(recuperacion.pendientes()).isEmpty();
+            assertThat(recuperacion.fines()).containsOnlyKeys(pendiente);
+        }
+    }
+
+    @Test
+    void unUltimoRegistroCortadoSeDescarta() throws IOException {
+        UUID completa = UUID.randomUUID();
+        UUID cortada = UUID.randomUUID();
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            diario.abrir();
+            diario.alta(completa, datos("alta 1"));
+            diario.alta(cortada, datos("alta 2"));
+        }
+        // La caida deja el fichero a mitad del segundo registro
+        try (FileChannel canal = FileChannel.open(directorio.resolve("diario-00000001.log"), StandardOpenOption.WRITE)) {
+            canal.truncate(SOBRE_DATOS + datos("alta 1").length + 10);
+        }
+
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            assertThat(diario.abrir().pendientes()).extracting(DiarioCompras.Pendiente::id).containsExactly(completa);
+        }
+    }
+
+    @Test
+    void unUltimoRegistroEscritoAMediasSeDescarta() throws IOException {
+        UUID completa = UUID.randomUUID();
+        UUID aMedias = UUID.randomUUID();
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            diario.abrir();
+            diario.alta(completa, datos("alta 1"));
+            diario.alta(aMedias, datos("alta 2"));
+        }
+        // Cabecera escrita pero los datos no: el CRC no cuadra
+        int inicio = SOBRE_DATOS + datos("alta 1").length;
+        try (FileChannel canal = FileChannel.open(directorio.resolve("diario-00000001.log"), StandardOpenOption.WRITE)) {
+            canal.write(ByteBuffer.allocate(datos("alta 2").length), inicio + 21);
+        }
+
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            assertThat(diario.abrir().pendientes()).extracting(DiarioCompras.Pendiente::id).containsExactly(completa);
+            // Las escrituras siguen en un segmento nuevo
+            diario.alta(UUID.randomUUID(), datos("alta 3"));
+        }
+        try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+            assertThat(diario.abrir().pendientes()).hasSize(2);
+        }
+    }
+
+    @Test
+    void seBorranLosSegmentosSinAltasPendientes() throws IOException {
+        // Un registro por segmento
+        int tamano = SOBRE_DATOS + 10;
+        try (DiarioCompras diario = new DiarioCompras(directorio, tamano)) {
+            diario.abrir();
+            UUID primera = UUID.randomUUID();
+            int segmento = diario.alta(primera, new byte[10]);
+            diario.alta(UUID.randomUUID(), new byte[10]);
+            assertThat(diario.segmentos()).isEqualTo(2);
+
+            diario.fin(primera, new byte[10], segmento);
+            assertThat(diario.segmentos()).isEqualTo(2);
+            assertThat(directorio.resolve(String.format("diario-%08d.log", segmento))).doesNotExist();
+        }
+    }
+
+    private static byte[] datos(String texto) {
+        return texto.getBytes(StandardCharsets.UTF_8);
+    }
+}